@@ -0,0 +1,71 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cost of the audit log on the broadcast path, a room of a hundred with and without it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditLogBenchmark {
+
+	private static final int ROOM_SIZE = 100;
+
+	@Param({ "false", "true" })
+	public boolean audited;
+
+	private Server server;
+	private BenchConnection sender;
+	private Path directory;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new Server();
+		sender = new BenchConnection();
+		server.register(sender);
+		for (int i = 1; i < ROOM_SIZE; ++i) {
+			server.register(new BenchConnection());
+		}
+		if (audited) {
+			directory = Files.createTempDirectory("audit-log-bench");
+			server.useAuditLog(AuditLog.open(directory.resolve("audit.log"), 64 * 1024 * 1024, 2, 64 * 1024));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		server.close();
+		if (directory != null) {
+			try (Stream<Path> files = Files.walk(directory)) {
+				for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void plainMessage() {
+		server.handleMessage(sender, "Benchmark message of a typical length.");
+	}
+}
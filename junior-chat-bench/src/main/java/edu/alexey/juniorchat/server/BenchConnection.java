@@ -0,0 +1,30 @@
+package edu.alexey.juniorchat.server;
+
+// Connection without a socket for the benchmarks: keeps the last message it was given and the count of them,
+// allocation-free, so that the fan-out is measured rather than a transport.
+class BenchConnection extends Connection {
+
+	private static final long serialVersionUID = 1L;
+
+	EncodedMessage last;
+	long received;
+
+	BenchConnection() {
+		super("bench", (connection, message) -> {});
+	}
+
+	@Override
+	public void acceptMessage(EncodedMessage message) {
+		last = message;
+		++received;
+	}
+
+	@Override
+	public OutboundStats getOutboundStats() {
+		return OutboundStats.EMPTY;
+	}
+
+	@Override
+	protected void closeTransport() {
+	}
+}
@@ -0,0 +1,113 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks with the GC profiler and stores the results as CSV.
+// With -Dbaseline=<csv of an earlier run> prints the change of every score against it.
+public class BenchmarkRunner {
+
+	private static final String RESULT_FILE = "target/jmh-result.csv";
+
+	public static void main(String[] args) throws Exception {
+		String resultFile = System.getProperty("result", RESULT_FILE);
+		Path resultPath = Path.of(resultFile).toAbsolutePath();
+		Files.createDirectories(resultPath.getParent());
+
+		var options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.CSV)
+				.result(resultPath.toString())
+				.build();
+
+		var results = new Runner(options).run();
+		System.out.println("Results are written to " + resultPath);
+
+		String baseline = System.getProperty("baseline");
+		if (baseline != null) {
+			compare(scores(results), readBaseline(Path.of(baseline)));
+		}
+	}
+
+	private static Map<String, Double> scores(Iterable<RunResult> results) {
+		Map<String, Double> scores = new TreeMap<>();
+		for (var run : results) {
+			String key = key(run.getParams());
+			Result<?> primary = run.getPrimaryResult();
+			scores.put(key, primary.getScore());
+			for (var secondary : run.getSecondaryResults().entrySet()) {
+				scores.put(key + ":" + secondary.getKey(), secondary.getValue().getScore());
+			}
+		}
+		return scores;
+	}
+
+	private static String key(BenchmarkParams params) {
+		var sb = new StringBuilder(params.getBenchmark());
+		for (String name : params.getParamsKeys()) {
+			sb.append(' ').append(name).append('=').append(params.getParam(name));
+		}
+		return sb.toString();
+	}
+
+	// JMH CSV: "Benchmark","Mode","Threads","Samples","Score","Score Error (99.9%)","Unit","Param: x",...
+	private static Map<String, Double> readBaseline(Path path) throws IOException {
+		var lines = Files.readAllLines(path);
+		String[] header = splitCsv(lines.get(0));
+		Map<String, Double> scores = new HashMap<>();
+		for (int i = 1; i < lines.size(); ++i) {
+			String[] cells = splitCsv(lines.get(i));
+			String benchmark = cells[0];
+			String secondary = "";
+			int colon = benchmark.indexOf(':');
+			if (colon >= 0) {
+				secondary = ":" + benchmark.substring(colon + 1).replace("·", "");
+				benchmark = benchmark.substring(0, colon);
+			}
+			var sb = new StringBuilder(benchmark);
+			for (int c = 7; c < header.length && c < cells.length; ++c) {
+				if (!cells[c].isEmpty()) {
+					sb.append(' ').append(header[c].substring("Param: ".length())).append('=').append(cells[c]);
+				}
+			}
+			scores.put(sb + secondary, Double.parseDouble(cells[4]));
+		}
+		return scores;
+	}
+
+	private static String[] splitCsv(String line) {
+		String[] cells = line.split(",", -1);
+		for (int i = 0; i < cells.length; ++i) {
+			cells[i] = cells[i].replace("\"", "");
+		}
+		return cells;
+	}
+
+	private static void compare(Map<String, Double> current, Map<String, Double> baseline) {
+		System.out.println();
+		System.out.println("Change against the baseline (lower is better for time and allocation):");
+		for (var entry : current.entrySet()) {
+			String key = entry.getKey().replace("·", "");
+			Double before = baseline.get(key);
+			if (before == null || before == 0) {
+				continue;
+			}
+			double change = (entry.getValue() - before) / before * 100;
+			System.out.printf("%-90s %12.3f -> %12.3f  %+7.1f%%%n", key, before, entry.getValue(), change);
+		}
+	}
+}
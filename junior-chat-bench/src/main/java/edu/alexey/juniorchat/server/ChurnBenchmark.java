@@ -0,0 +1,58 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// one participant connecting and leaving while the others stay, then a broadcast to them all
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChurnBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int connections;
+
+	private Server server;
+
+	@Setup
+	public void setUp() {
+		server = new Server();
+		for (int i = 0; i < connections; ++i) {
+			server.register(new BenchConnection());
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	@Benchmark
+	public void joinAndLeave() {
+		var connection = new BenchConnection();
+		server.register(connection);
+		connection.close();
+	}
+
+	// a broadcast right after every change of the room
+	@Benchmark
+	public void joinLeaveAndBroadcast() {
+		joinAndLeave();
+		server.broadcast(null, "Benchmark message of a typical length.", 0);
+	}
+}
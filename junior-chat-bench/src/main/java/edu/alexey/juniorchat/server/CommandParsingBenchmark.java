@@ -0,0 +1,50 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.alexey.juniorchat.server.CommandDispatcher.Arity;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandParsingBenchmark {
+
+	@Param({ "plain message of a typical length", "  @quit ", "@kick 12", "@wantBeAdmin", "@7 direct message" })
+	public String line;
+
+	private CommandDispatcher dispatcher;
+	private int sink;
+
+	@Setup
+	public void setUp() {
+		CommandDispatcher.Handler consume = (connection, line, argument, bodyStart) -> {
+			sink += argument + bodyStart;
+			return true;
+		};
+		dispatcher = new CommandDispatcher('@')
+				.register("quit", Arity.NONE, consume)
+				.register("kick", Arity.NUMBER, consume)
+				.register("wantBeAdmin", Arity.NONE, consume)
+				.registerNumeric(consume);
+	}
+
+	@Benchmark
+	public boolean dispatch() {
+		return dispatcher.dispatch(null, line);
+	}
+}
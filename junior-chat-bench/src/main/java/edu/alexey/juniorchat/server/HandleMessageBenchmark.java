@@ -0,0 +1,66 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// dispatch of one inbound line in a room of ten
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandleMessageBenchmark {
+
+	private static final int ROOM_SIZE = 10;
+
+	private Server server;
+	private BenchConnection sender;
+	private String directMessage;
+
+	@Setup
+	public void setUp() {
+		server = new Server();
+		sender = new BenchConnection();
+		server.register(sender);
+		BenchConnection recipient = null;
+		for (int i = 1; i < ROOM_SIZE; ++i) {
+			recipient = new BenchConnection();
+			server.register(recipient);
+		}
+		directMessage = "@" + recipient.getId() + " private benchmark message";
+		// makes "@wantBeAdmin" a no-op for the sender from now on
+		server.handleMessage(sender, "@wantBeAdmin");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	@Benchmark
+	public void plainMessage() {
+		server.handleMessage(sender, "Benchmark message of a typical length.");
+	}
+
+	@Benchmark
+	public void directMessage() {
+		server.handleMessage(sender, directMessage);
+	}
+
+	@Benchmark
+	public void command() {
+		server.handleMessage(sender, "@wantBeAdmin");
+	}
+}
@@ -0,0 +1,53 @@
+package edu.alexey.juniorchat.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// signing plus the one-off encoding every message pays on its first write
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignMessageBenchmark {
+
+	private Server server;
+
+	@Setup
+	public void setUp() {
+		server = new Server();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	@Benchmark
+	public EncodedMessage sign() {
+		return server.signMessage(42, "Benchmark message of a typical length.");
+	}
+
+	@Benchmark
+	public ByteBuffer signAndEncodeText() {
+		return server.signMessage(42, "Benchmark message of a typical length.").buffer(WireFormat.TEXT);
+	}
+
+	@Benchmark
+	public ByteBuffer signAndEncodeBinary() {
+		return server.signMessage(42, "Benchmark message of a typical length.").buffer(WireFormat.BINARY);
+	}
+}
@@ -2,6 +2,8 @@ package edu.alexey.juniorchat.client;
 
 import java.io.IOException;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 public class App {
 
@@ -16,23 +18,40 @@ public class App {
 		try (Client client = new Client()) {
 
 			client.run();
+			// the console has nothing else to do meanwhile
+			client.handshake().get();
 
 			boolean quit = false;
 			while (!quit && !client.isClosed()) {
 
 				String input = scanner.nextLine();
 				quit = input.equals(QUIT_CMD);
-				client.accept(input);
+				if (!client.isClosed() && !send(client, input) && !client.isClosed()) {
+					// a paste or a fast typist outrunning the connection, the next line may well go through
+					System.err.println("Сообщение не отправлено: очередь отправки переполнена, повторите позже.");
+				}
 
 			}
 
 			Thread.sleep(1000);
 
-		} catch (IOException e) {
+		} catch (IOException | ExecutionException e) {
 			System.err.println("Unable to connect.");
 		} catch (InterruptedException ignore) {}
 
+		// the last frame of the chat
+		ChatRenderer.console().close();
 		System.out.println("Application is closing...");
 	}
 
+	// false if the client has not taken the message: it is closed or its send queue is full
+	static boolean send(Consumer<String> client, String message) {
+		try {
+			client.accept(message);
+			return true;
+		} catch (IllegalStateException e) {
+			return false;
+		}
+	}
+
 }
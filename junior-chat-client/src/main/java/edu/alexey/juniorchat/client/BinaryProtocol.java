@@ -0,0 +1,122 @@
+package edu.alexey.juniorchat.client;
+
+import static edu.alexey.juniorchat.common.WireProtocol.*;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Client side of the optional length-prefixed framing defined by WireProtocol.
+// After PREAMBLE_DEFLATE a payload may be zlib-deflated, which the DEFLATED bit of the type tells.
+// The server's heartbeat ping, to be answered in kind, is the HEARTBEAT_MARKER line or a PROTOCOL frame with it;
+// GOODBYE_MARKER in the same forms tells that the server ends the session on purpose.
+public final class BinaryProtocol {
+
+	// Deflaters hold native memory until ended, hence a small pool shared by all the sessions and sending threads,
+	// as on the server, rather than one per thread, which would be one per sender with virtual threads
+	static final int MAX_POOLED_DEFLATERS = 2 * Runtime.getRuntime().availableProcessors();
+
+	public static final byte TYPE_PROTOCOL = 0;
+	public static final byte TYPE_CHAT = 1;
+
+	public static record Frame(byte type, int senderId, long sequence, String body) {
+	}
+
+	private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+	private BinaryProtocol() {
+	}
+
+	// header and payload in one array
+	public static byte[] encodeFrame(byte type, int senderId, long sequence, byte[] payload, Deflater deflater) {
+		if (deflater != null && payload.length >= COMPRESSION_THRESHOLD) {
+			byte[] deflated = deflate(payload, deflater);
+			if (deflated != null) {
+				type |= DEFLATED;
+				payload = deflated;
+			}
+		}
+		byte[] frame = new byte[HEADER_LENGTH + payload.length];
+		frame[0] = type;
+		writeInt(frame, 1, senderId);
+		writeLong(frame, 5, sequence);
+		writeInt(frame, 13, payload.length);
+		System.arraycopy(payload, 0, frame, HEADER_LENGTH, payload.length);
+		return frame;
+	}
+
+	// deflate - a large payload goes deflated by a deflater of the shared pool
+	public static byte[] encodeFrame(byte type, int senderId, long sequence, byte[] payload, boolean deflate) {
+		if (!deflate || payload.length < COMPRESSION_THRESHOLD) {
+			return encodeFrame(type, senderId, sequence, payload, null);
+		}
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+		}
+		try {
+			return encodeFrame(type, senderId, sequence, payload, deflater);
+		} finally {
+			// the size is only an estimate under contention, which is good enough to keep the pool small
+			if (deflaters.size() < MAX_POOLED_DEFLATERS) {
+				deflaters.offer(deflater);
+			} else {
+				deflater.end();
+			}
+		}
+	}
+
+	static int pooledDeflaters() {
+		return deflaters.size();
+	}
+
+	// the whole frame at the offset, its payload length checked already
+	public static Frame decodeFrame(byte[] array, int offset, Charset charset, Inflater inflater) throws IOException {
+		int type = array[offset];
+		int length = payloadLength(array, offset);
+		int payload = offset + HEADER_LENGTH;
+		String body = (type & DEFLATED) != 0
+				? new String(inflate(array, payload, length, inflater), charset)
+				: new String(array, payload, length, charset);
+		return new Frame((byte) (type & ~DEFLATED), readInt(array, offset + 1), readLong(array, offset + 5), body);
+	}
+
+	// null if deflate does not make it shorter
+	private static byte[] deflate(byte[] payload, Deflater deflater) {
+		deflater.reset();
+		deflater.setInput(payload);
+		deflater.finish();
+		byte[] result = new byte[payload.length - 1];
+		int length = deflater.deflate(result);
+		return deflater.finished() ? Arrays.copyOf(result, length) : null;
+	}
+
+	private static byte[] inflate(byte[] array, int offset, int length, Inflater inflater) throws IOException {
+		inflater.reset();
+		inflater.setInput(array, offset, length);
+		byte[] result = new byte[Math.min(MAX_PAYLOAD_LENGTH, Math.max(4096, 4 * length))];
+		int size = 0;
+		try {
+			while (!inflater.finished()) {
+				if (size == result.length) {
+					if (size == MAX_PAYLOAD_LENGTH) {
+						throw new IOException("Inflated payload exceeds " + size + " bytes");
+					}
+					result = Arrays.copyOf(result, Math.min(MAX_PAYLOAD_LENGTH, size * 2));
+				}
+				int n = inflater.inflate(result, size, result.length - size);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated deflated payload");
+				}
+				size += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed deflated payload", e);
+		}
+		return Arrays.copyOf(result, size);
+	}
+}
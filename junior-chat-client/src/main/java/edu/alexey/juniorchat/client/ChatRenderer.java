@@ -0,0 +1,205 @@
+package edu.alexey.juniorchat.client;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Console output of the chat: a line of the time of receipt, the sender and the body. The lines are written
+// by a thread of its own in frames, no more often than the frame rate and each with a single write, so that
+// the callers, event loops among them, never wait for the console. No more than a frame's worth of lines is
+// held: under overload the oldest are dropped and counted, and the console skips to the newest messages
+// rather than falling behind the socket.
+public class ChatRenderer implements Closeable {
+
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private record Line(long millis, String from, String body) {
+	}
+
+	// the time formatted once per second, shared by all the lines of the second
+	private record Stamp(long second, String text) {
+	}
+
+	private final PrintStream out;
+	private final DateTimeFormatter formatter;
+	// 0 - every line is written at once
+	private final long frameNanos;
+	private final int maxLinesPerFrame;
+
+	// not a monitor, like the rest of the client's locks held by event loops
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition ready = lock.newCondition();
+	// guarded by lock
+	private final ArrayDeque<Line> lines = new ArrayDeque<>();
+	private long skipped;
+	private boolean isClosed;
+
+	// the renderer thread only, or the caller under the lock when every line is written at once
+	private Stamp stamp = new Stamp(Long.MIN_VALUE, "");
+	private final StringBuilder frame = new StringBuilder();
+
+	private volatile Thread thread;
+
+	public static ChatRenderer console() {
+		return Holder.instance;
+	}
+
+	// framesPerSecond == 0 - every line is written at once by the caller
+	public ChatRenderer(PrintStream out, DateTimeFormatter formatter, int framesPerSecond, int maxLinesPerFrame) {
+		if (framesPerSecond < 0 || maxLinesPerFrame < 2) {
+			throw new IllegalArgumentException("Illegal frame rate " + framesPerSecond
+					+ " or lines per frame " + maxLinesPerFrame);
+		}
+		this.out = out;
+		this.formatter = formatter.withZone(ZoneId.systemDefault());
+		this.frameNanos = framesPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / framesPerSecond;
+		this.maxLinesPerFrame = maxLinesPerFrame;
+	}
+
+	// on a daemon thread, which must not keep the application alive
+	public void start() {
+		if (frameNanos > 0 && thread == null) {
+			thread = Thread.ofPlatform().daemon().name("chat-renderer").start(this::run);
+		}
+	}
+
+	public void print(String from, String body) {
+		var line = new Line(System.currentTimeMillis(), from, body);
+		lock.lock();
+		try {
+			if (isClosed) {
+				return;
+			}
+			if (frameNanos == 0) {
+				frame.setLength(0);
+				append(line);
+				write();
+				return;
+			}
+			if (lines.size() == maxLinesPerFrame) {
+				lines.poll();
+				++skipped;
+			}
+			lines.add(line);
+			if (lines.size() == 1) {
+				ready.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void run() {
+		long nextFrame = System.nanoTime();
+		while (awaitLines()) {
+			long delay = nextFrame - System.nanoTime();
+			if (delay > 0) {
+				// the lines received meanwhile join the frame
+				LockSupport.parkNanos(delay);
+			}
+			nextFrame = System.nanoTime() + frameNanos;
+			flush();
+		}
+	}
+
+	// false once closed
+	private boolean awaitLines() {
+		lock.lock();
+		try {
+			while (lines.isEmpty() && !isClosed) {
+				ready.await();
+			}
+			return !isClosed;
+		} catch (InterruptedException e) {
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// writes what has been received since the previous frame, after the count of the lines skipped if any
+	void flush() {
+		Line[] taken;
+		long skippedLines;
+		lock.lock();
+		try {
+			taken = lines.toArray(Line[]::new);
+			lines.clear();
+			skippedLines = skipped;
+			skipped = 0;
+		} finally {
+			lock.unlock();
+		}
+		if (taken.length == 0) {
+			return;
+		}
+		frame.setLength(0);
+		if (skippedLines > 0) {
+			frame.append("... пропущено сообщений: ").append(skippedLines).append(LINE_SEPARATOR);
+		}
+		for (Line line : taken) {
+			append(line);
+		}
+		write();
+	}
+
+	private void append(Line line) {
+		frame.append(timestamp(line.millis())).append(' ').append(line.from()).append(' ').append(line.body())
+				.append(LINE_SEPARATOR);
+	}
+
+	private String timestamp(long millis) {
+		long second = Math.floorDiv(millis, 1000);
+		if (stamp.second() != second) {
+			stamp = new Stamp(second, formatter.format(Instant.ofEpochSecond(second)));
+		}
+		return stamp.text();
+	}
+
+	private void write() {
+		out.print(frame);
+		out.flush();
+	}
+
+	// the lines received already are written before it returns
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (isClosed) {
+				return;
+			}
+			isClosed = true;
+			ready.signal();
+		} finally {
+			lock.unlock();
+		}
+		Thread renderer = thread;
+		if (renderer != null) {
+			LockSupport.unpark(renderer);
+			try {
+				renderer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	}
+
+	private static class Holder {
+		static final ChatRenderer instance = new ChatRenderer(System.out,
+				Settings.instance().getChatDateTimeFormatter(), Settings.instance().getRenderFramesPerSecond(),
+				Settings.instance().getRenderMaxLinesPerFrame());
+
+		static {
+			instance.start();
+		}
+	}
+}
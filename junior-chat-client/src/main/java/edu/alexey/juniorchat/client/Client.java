@@ -1,70 +1,496 @@
 package edu.alexey.juniorchat.client;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.OptionalInt;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Client implements Runnable, Consumer<String>, Closeable {
+import edu.alexey.juniorchat.client.BinaryProtocol.Frame;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+// Non-blocking chat session: all of its I/O is performed by an EventLoop, its own or a shared one.
+// Connecting and the handshake complete in the background, see handshake(); a message accepted is encoded
+// on the caller's thread and queued, the loop writes everything queued meanwhile in one gathering write.
+// A session broken after the handshake reconnects with jittered exponential backoff; with the binary protocol
+// it resumes under the same id, presenting the token of the session and the sequence number of the last message
+// received, and gets what it has missed. Messages queued meanwhile, and those not written whole, go out after that.
+public class Client implements Runnable, Consumer<String>, Closeable, EventLoop.Handler {
+
+	// receives every chat message, fromId is 0 for the server's own messages;
+	// called on the event loop thread, so it must never block
+	@FunctionalInterface
+	public interface MessageListener {
+		void onMessage(int fromId, String body);
+	}
+
+	private enum Phase {
+		// waiting for the id assignment
+		WELCOME,
+		// waiting for the answer to the resume request, what the server sends the interim session is not shown
+		RESUMING,
+		ESTABLISHED
+	}
 
 	private static final String USER_ID_PFX_SFX = "**";
+	private static final String RESUME_CMD = "@resume";
+	// of the initial reconnect delay, not to overflow the bound
+	private static final int MAX_BACKOFF_SHIFT = 20;
+	private static final int MAX_PENDING_SIZE = WireProtocol.HEADER_LENGTH + WireProtocol.MAX_PAYLOAD_LENGTH;
+	private static final int MAX_GATHER = 64;
+	// no "**id**" header line before the current text line
+	private static final int NO_HEADER = -1;
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
 
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-	private final Socket socket;
-	private final BufferedReader reader;
-	private final PrintWriter writer;
+	private final EventLoop eventLoop;
+	private final boolean ownsEventLoop;
+	private final InetSocketAddress address;
+	private final Charset charset;
+	private final boolean binaryOffered;
+	private final boolean compression;
+	private final int reconnectInitialDelayMillis;
+	private final int reconnectMaxDelayMillis;
+	private final CompletableFuture<Integer> handshake = new CompletableFuture<>();
 
-	private int id;
+	// encoded, in the order accepted
+	private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger outboundSize = new AtomicInteger();
+	private final int outboundCapacity;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final AtomicBoolean isStarted = new AtomicBoolean();
 
-	private boolean isClosing;
-	private boolean isClosed;
+	private volatile MessageListener listener;
+	// the session host's, told once the channel is closed
+	private volatile Consumer<Client> closeListener;
 
-	public Client() throws UnknownHostException, IOException {
-		isClosing = isClosed = false;
+	private volatile int id;
+	// guarded by enqueue()
+	private long sentSequence;
 
-		String ip = Settings.instance().getServerIp();
-		int port = Settings.instance().getServerPort();
+	// accessed by the event loop only, a new one for every reconnect
+	private SocketChannel channel;
+	private SelectionKey key;
+	private Phase phase = Phase.WELCOME;
+	// the resume request has been sent on the current channel
+	private boolean resuming;
+	// of the session the server has opened before the resume request is handled
+	private int interimId;
+	// of the session, empty if the server does not resume sessions
+	private String token = "";
+	// of the last message received; the server numbers messages relayed from other cluster nodes in its own sequence
+	private long lastSequence;
+	private int reconnectAttempts;
+	// the server has said goodbye, the session is not to be reconnected
+	private boolean ended;
+	// the preamble and the resume request of the current channel, written ahead of anything else
+	private final ArrayDeque<ByteBuffer> greeting = new ArrayDeque<>();
+	// messages of a broken channel not written whole, written again right after the greeting
+	private final ArrayDeque<ByteBuffer> unsent = new ArrayDeque<>();
+	// set once the server's switch marker has arrived
+	private boolean binaryIn;
+	// bytes of an incomplete line or frame
+	private ByteBuffer pending;
+	private int headerId = NO_HEADER;
+	private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+	private int batchOffset;
+	private int batchLength;
+	// the first ones of the batch, taken from the greeting
+	private int batchGreeting;
 
-		socket = new Socket(ip, port);
-		reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-		writer = new PrintWriter(socket.getOutputStream(), true);
+	private volatile boolean isClosing;
+	private volatile boolean isClosed;
+
+	public Client() throws IOException {
+		this(null);
+	}
+
+	// listener == null prints the messages to the console
+	public Client(MessageListener listener) throws IOException {
+		this(null, listener);
+	}
+
+	// eventLoop == null - the client starts one of its own, closed along with it
+	public Client(EventLoop eventLoop, MessageListener listener) throws IOException {
+		this(eventLoop, new InetSocketAddress(Settings.instance().getServerIp(), Settings.instance().getServerPort()),
+				listener);
+	}
 
-		handshake();
+	// the address resolved once for all the sessions of a host
+	Client(EventLoop eventLoop, InetSocketAddress address, MessageListener listener) throws IOException {
+		this.listener = listener != null ? listener : this::printMessage;
+		this.address = address;
 
-		if (id == 0) {
-			String error = "Error: Incorrect behavior detected. Had not received ID on handshake.";
-			logger.error(error);
-			throw new RuntimeException(error);
+		var settings = Settings.instance();
+		charset = settings.getCharset();
+		binaryOffered = settings.isBinaryProtocol();
+		compression = binaryOffered && settings.isCompression();
+		outboundCapacity = settings.getSendQueueCapacity();
+		reconnectInitialDelayMillis = settings.getReconnectInitialDelayMillis();
+		reconnectMaxDelayMillis = settings.getReconnectMaxDelayMillis();
+
+		ownsEventLoop = eventLoop == null;
+		this.eventLoop = ownsEventLoop ? new EventLoop("client") : eventLoop;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			if (ownsEventLoop) {
+				this.eventLoop.close();
+			}
+			throw e;
+		}
+		if (ownsEventLoop) {
+			this.eventLoop.start();
 		}
 	}
 
+	// 0 until the handshake is complete; changes if a reconnected session could not be resumed
+	public int getId() {
+		return id;
+	}
+
 	public boolean isClosed() {
 		return isClosed;
 	}
 
-	private void handshake() {
+	// takes effect from the next message; null prints the messages to the console
+	public void setMessageListener(MessageListener listener) {
+		this.listener = listener != null ? listener : this::printMessage;
+	}
+
+	void setCloseListener(Consumer<Client> closeListener) {
+		this.closeListener = closeListener;
+	}
+
+	// completes with the id the server has given, or exceptionally if the session ends before that
+	public CompletableFuture<Integer> handshake() {
+		return handshake.copy();
+	}
+
+	// starts connecting, without waiting for it
+	@Override
+	public void run() {
+		if (isClosing || !isStarted.compareAndSet(false, true)) {
+			return;
+		}
+		eventLoop.execute(this::connect);
+	}
+
+	private void connect() {
+		if (isClosing) {
+			return;
+		}
+		phase = Phase.WELCOME;
+		resuming = false;
+		greeting.clear();
+		if (binaryOffered) {
+			greeting.add(ByteBuffer.wrap(compression ? WireProtocol.PREAMBLE_DEFLATE : WireProtocol.PREAMBLE));
+			// the sequence numbers exist in frames only, so does resume
+			if (!token.isEmpty()) {
+				String request = RESUME_CMD + " " + id + " " + token + " " + lastSequence;
+				greeting.add(ByteBuffer.wrap(BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_CHAT, id, 0,
+						request.getBytes(charset), null)));
+				resuming = true;
+			}
+		}
 		try {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				OptionalInt myIdOpt = findId(line);
-				if (myIdOpt.isPresent()) {
-					id = myIdOpt.getAsInt();
-					return;
+			key = channel.register(eventLoop.selector(), SelectionKey.OP_CONNECT, this);
+			if (channel.connect(address)) {
+				connected();
+			}
+		} catch (IOException e) {
+			broken(e);
+		}
+	}
+
+	// the message listener has thrown: the session ends rather than reconnects into the same failure
+	@Override
+	public void failed(SelectionKey key, RuntimeException e) {
+		handshake.completeExceptionally(e);
+		close();
+	}
+
+	private void connected() throws IOException {
+		key.interestOps(SelectionKey.OP_READ);
+		// what has been accepted meanwhile, the preamble first
+		flush();
+	}
+
+	@Override
+	public void handle(SelectionKey key) {
+		try {
+			if (key.isConnectable()) {
+				if (channel.finishConnect()) {
+					connected();
 				}
+				return;
+			}
+			if (key.isReadable()) {
+				read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				flush();
+			}
+		} catch (IOException e) {
+			broken(e);
+		}
+	}
+
+	private void broken(IOException e) {
+		if (!isClosing && !ended && handshake.isDone() && reconnectInitialDelayMillis > 0) {
+			if (phase == Phase.ESTABLISHED) {
+				logger.info("Connection to {} is lost: {}, reconnecting...", address, e.getMessage());
+			}
+			disconnect();
+			scheduleReconnect();
+			return;
+		}
+		// a failure to connect is told by the handshake
+		if (!isClosing && !ended && handshake.isDone()) {
+			logger.info("Connection to {} is lost: {}", address, e.getMessage());
+		}
+		handshake.completeExceptionally(e);
+		close();
+	}
+
+	// the channel is gone, the session is not; a message not written whole is sent again, one written whole
+	// may have been lost along with the channel
+	private void disconnect() {
+		if (key != null) {
+			key.cancel();
+			key = null;
+		}
+		try {
+			channel.close();
+		} catch (IOException ignore) {
+		}
+		for (int i = batchOffset; i < batchLength; ++i) {
+			if (i >= batchGreeting) {
+				unsent.add(batch[i].rewind());
 			}
+			batch[i] = null;
+		}
+		batchOffset = batchLength = batchGreeting = 0;
+		if (pending != null) {
+			releasePending();
+		}
+		binaryIn = false;
+		headerId = NO_HEADER;
+		flushScheduled.set(false);
+	}
 
+	// full jitter: a random delay up to the bound, which doubles with every failed attempt, so that the sessions
+	// dropped together by a restart of the server come back spread over the bound rather than all at once
+	private void scheduleReconnect() {
+		long bound = Math.min(reconnectMaxDelayMillis,
+				(long) reconnectInitialDelayMillis << Math.min(reconnectAttempts, MAX_BACKOFF_SHIFT));
+		++reconnectAttempts;
+		eventLoop.schedule(this::reconnect, ThreadLocalRandom.current().nextLong(bound + 1), TimeUnit.MILLISECONDS);
+	}
+
+	private void reconnect() {
+		if (isClosing) {
+			return;
+		}
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
 		} catch (IOException e) {
-			logger.error("Error occurred during handshake:", e);
+			broken(e);
+			return;
+		}
+		connect();
+	}
+
+	private void read() throws IOException {
+		ByteBuffer buffer = eventLoop.readBuffer();
+		buffer.clear();
+		int n = channel.read(buffer);
+		if (n < 0) {
+			broken(new EOFException("Connection closed by the server"));
+			return;
+		}
+		buffer.flip();
+
+		if (pending == null) {
+			int consumed = frame(buffer.array(), 0, buffer.limit());
+			if (consumed < buffer.limit() && !isClosing) {
+				appendPending(buffer.array(), consumed, buffer.limit() - consumed);
+			}
+		} else {
+			appendPending(buffer.array(), 0, buffer.limit());
+			pending.flip();
+			pending.position(frame(pending.array(), 0, pending.limit()));
+			pending.compact();
+			if (pending.position() == 0) {
+				releasePending();
+			}
+		}
+	}
+
+	// dispatches every complete line or frame in array[from, to), returns the offset of the first unconsumed byte
+	private int frame(byte[] array, int from, int to) throws IOException {
+		int i = from;
+		while (i < to && !isClosing) {
+			if (binaryIn) {
+				if (to - i < WireProtocol.HEADER_LENGTH) {
+					return i;
+				}
+				int length = WireProtocol.payloadLength(array, i);
+				if (length < 0 || length > WireProtocol.MAX_PAYLOAD_LENGTH) {
+					throw new IOException("Illegal frame length " + length);
+				}
+				if (to - i < WireProtocol.HEADER_LENGTH + length) {
+					return i;
+				}
+				dispatchFrame(
+						BinaryProtocol.decodeFrame(array, i, charset, compression ? eventLoop.inflater() : null));
+				i += WireProtocol.HEADER_LENGTH + length;
+			} else {
+				int lf = i;
+				while (lf < to && array[lf] != LF) {
+					++lf;
+				}
+				if (lf == to) {
+					return i;
+				}
+				int length = lf - i;
+				if (length > 0 && array[lf - 1] == CR) {
+					--length;
+				}
+				dispatchLine(new String(array, i, length, charset));
+				i = lf + 1;
+			}
+		}
+		return i;
+	}
+
+	private void appendPending(byte[] src, int offset, int length) throws IOException {
+		if (pending == null) {
+			pending = eventLoop.takeBuffer(length);
+		}
+		if (pending.remaining() < length) {
+			int required = pending.position() + length;
+			if (required > MAX_PENDING_SIZE) {
+				throw new IOException("Message from the server exceeds " + MAX_PENDING_SIZE + " bytes");
+			}
+			ByteBuffer grown = eventLoop
+					.takeBuffer(Math.min(MAX_PENDING_SIZE, Math.max(required, pending.capacity() * 2)));
+			pending.flip();
+			grown.put(pending);
+			releasePending();
+			pending = grown;
+		}
+		pending.put(src, offset, length);
+	}
+
+	// back to the loop's pool, as no session needs one between messages
+	private void releasePending() {
+		eventLoop.returnBuffer(pending);
+		pending = null;
+	}
+
+	// the id assignment carries the token; after a resume request the first one is of an interim session,
+	// the second one answers the request
+	private void dispatchFrame(Frame frame) {
+		if (frame.type() != BinaryProtocol.TYPE_PROTOCOL) {
+			if (phase == Phase.ESTABLISHED) {
+				lastSequence = Math.max(lastSequence, frame.sequence());
+				deliver(frame.senderId(), frame.body());
+			}
+		} else if (frame.body().equals(WireProtocol.HEARTBEAT_MARKER)) {
+			sendHeartbeat();
+		} else if (frame.body().equals(WireProtocol.GOODBYE_MARKER)) {
+			ended = true;
+		} else if (phase == Phase.WELCOME && resuming) {
+			interimId = frame.senderId();
+			phase = Phase.RESUMING;
+		} else if (phase != Phase.ESTABLISHED) {
+			established(frame.senderId(), frame.body());
+		}
+	}
+
+	// in text mode a header line "**id**" precedes each body line, the first one tells the id given
+	private void dispatchLine(String line) {
+		if (binaryOffered && line.equals(WireProtocol.SWITCH_MARKER)) {
+			binaryIn = true;
+			return;
+		}
+		if (headerId == NO_HEADER) {
+			if (line.equals(WireProtocol.HEARTBEAT_MARKER)) {
+				sendHeartbeat();
+				return;
+			}
+			if (line.equals(WireProtocol.GOODBYE_MARKER)) {
+				ended = true;
+				return;
+			}
+			OptionalInt fromIdOpt = findId(line);
+			if (fromIdOpt.isPresent()) {
+				headerId = fromIdOpt.getAsInt();
+				return;
+			}
+		}
+		if (phase == Phase.WELCOME) {
+			// the body line of the id message, written before the server has switched to frames, is the token;
+			// without frames, and so sequence numbers, a session is never resumed
+			if (headerId != NO_HEADER) {
+				if (resuming) {
+					interimId = headerId;
+					phase = Phase.RESUMING;
+				} else {
+					established(headerId, binaryOffered ? line : "");
+				}
+			}
+		} else if (phase == Phase.ESTABLISHED) {
+			deliver(headerId != NO_HEADER ? headerId : 0, line);
+		}
+		headerId = NO_HEADER;
+	}
+
+	// a resumed session keeps its id, a failed resume leaves the interim one
+	private void established(int id, String token) {
+		this.id = id;
+		this.token = token;
+		phase = Phase.ESTABLISHED;
+		reconnectAttempts = 0;
+		if (!handshake.isDone()) {
+			handshake.complete(id);
+		} else if (resuming && id != interimId) {
+			logger.info("Session №{} is resumed.", id);
+		} else {
+			logger.info("Reconnected to {} as a new session №{}.", address, id);
+		}
+	}
+
+	// nothing before the handshake is shown, as the server sends nothing meaningful then, nor anything sent
+	// to the interim session of a resume
+	private void deliver(int fromId, String body) {
+		try {
+			listener.onMessage(fromId, body);
+		} catch (RuntimeException e) {
+			logger.error("Unhandled exception in message listener:", e);
 		}
 	}
 
@@ -79,80 +505,159 @@ public class Client implements Runnable, Consumer<String>, Closeable {
 		return OptionalInt.empty();
 	}
 
+	// what has been accepted before goes out first, as far as the socket takes it without waiting
 	@Override
 	public void close() {
 		if (isClosing) {
 			return;
 		}
 		isClosing = true;
+		eventLoop.execute(this::closeChannel);
+	}
 
-		if (socket != null && !socket.isClosed()) {
-
-			try {
-				socket.close();
-			} catch (IOException e) {
-				logger.error("Error occurred on closing:", e);
-			}
+	private void closeChannel() {
+		try {
+			flush();
+		} catch (IOException ignore) {
 		}
-
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.error("Error occurred on closing:", e);
+		}
+		for (int i = batchOffset; i < batchLength; ++i) {
+			batch[i] = null;
+		}
+		batchOffset = batchLength = batchGreeting = 0;
+		greeting.clear();
+		unsent.clear();
+		outbound.clear();
+		if (pending != null) {
+			releasePending();
+		}
+		handshake.completeExceptionally(new ClosedChannelException());
 		isClosed = true;
+		Consumer<Client> closeListener = this.closeListener;
+		if (closeListener != null) {
+			closeListener.accept(this);
+		}
+		if (ownsEventLoop) {
+			eventLoop.close();
+		}
+	}
+
+	private void printMessage(int fromId, String body) {
+		ChatRenderer.console().print(fromLabel(fromId), body);
+	}
 
+	private String fromLabel(int fromId) {
+		if (fromId == this.id) {
+			return "Вы:";
+		} else if (fromId == 0) {
+			return "Сервер:";
+		} else {
+			return "Участник №" + fromId + ":";
+		}
 	}
 
+	// never waits for the network; IllegalStateException once closed or while the send queue is full
 	@Override
-	public void run() {
+	public void accept(String message) {
 		if (isClosing) {
-			return;
+			throw new IllegalStateException();
+		}
+		if (message == null) {
+			throw new NullPointerException("message");
 		}
 
-		Thread t = new Thread(this::incomingMessagesHandler);
-		t.start();
+		if (!message.isBlank()) {
+			if (outboundSize.incrementAndGet() > outboundCapacity) {
+				outboundSize.decrementAndGet();
+				throw new IllegalStateException("Send queue is full");
+			}
+			enqueue(message);
+			scheduleFlush();
+		}
 	}
 
-	private void incomingMessagesHandler() {
-		String line;
-		try {
-			while (!isClosing && (line = reader.readLine()) != null) {
-
-				var fromIdOpt = findId(line);
-				if (fromIdOpt.isPresent()) {
-					String from;
-					if (fromIdOpt.getAsInt() == this.id) {
-						from = "Вы:";
-					} else if (fromIdOpt.getAsInt() == 0) {
-						from = "Сервер:";
-					} else {
-						from = "Участник №" + fromIdOpt.getAsInt() + ":";
-					}
-					printToChat(from);
-				} else {
-					printToChat(line);
-				}
+	// encoded and queued together, so that the sequence numbers go out in order
+	private synchronized void enqueue(String message) {
+		if (binaryOffered) {
+			outbound.add(ByteBuffer.wrap(BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_CHAT, id, ++sentSequence,
+					message.getBytes(charset), compression)));
+		} else {
+			outbound.add(ByteBuffer.wrap((message + System.lineSeparator()).getBytes(charset)));
+		}
+	}
 
-			}
-		} catch (SocketException e) {
-			System.out.println(e.getMessage());
-		} catch (IOException e) {
-			e.printStackTrace();
+	// the pong, in the form the client sends its messages; event loop only
+	private void sendHeartbeat() {
+		if (binaryOffered) {
+			outbound.add(ByteBuffer.wrap(BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_PROTOCOL, id, 0,
+					WireProtocol.HEARTBEAT_MARKER.getBytes(charset), null)));
+		} else {
+			outbound.add(ByteBuffer.wrap((WireProtocol.HEARTBEAT_MARKER + System.lineSeparator()).getBytes(charset)));
 		}
+		outboundSize.incrementAndGet();
+		scheduleFlush();
 	}
 
-	private void printToChat(String message) {
-		System.out.println(message);
+	private void scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true)) {
+			eventLoop.execute(this::flushQuietly);
+		}
 	}
 
-	@Override
-	public void accept(String message) {
-		if (isClosing) {
-			throw new IllegalStateException();
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			broken(e);
 		}
-		if (message == null) {
-			throw new NullPointerException("message");
+	}
+
+	// event loop only; until connected the messages wait in the queue
+	private void flush() throws IOException {
+		if (key == null || !channel.isConnected()) {
+			flushScheduled.set(false);
+			return;
 		}
 
-		if (!message.isBlank()) {
-			writer.println(message);
+		while (batchOffset < batchLength || fillBatch()) {
+			channel.write(batch, batchOffset, batchLength - batchOffset);
+			while (batchOffset < batchLength && !batch[batchOffset].hasRemaining()) {
+				batch[batchOffset++] = null;
+			}
+			if (batchOffset < batchLength) {
+				// socket send buffer is full, wait for OP_WRITE
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				return;
+			}
+		}
+
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		flushScheduled.set(false);
+		if (!outbound.isEmpty()) {
+			scheduleFlush();
+		}
+	}
+
+	// false if there was nothing queued
+	private boolean fillBatch() {
+		batchOffset = batchLength = 0;
+		ByteBuffer next;
+		while (batchLength < batch.length && (next = greeting.poll()) != null) {
+			batch[batchLength++] = next;
+		}
+		batchGreeting = batchLength;
+		while (batchLength < batch.length && (next = unsent.poll()) != null) {
+			batch[batchLength++] = next;
+		}
+		while (batchLength < batch.length && (next = outbound.poll()) != null) {
+			batch[batchLength++] = next;
+			outboundSize.decrementAndGet();
 		}
+		return batchLength > 0;
 	}
 
 }
@@ -0,0 +1,59 @@
+package edu.alexey.juniorchat.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.zip.Inflater;
+
+// The shared selector loop on a daemon thread, with what the client's sessions of the loop share besides:
+// buffers for incomplete lines and frames, and the inflater.
+public class EventLoop extends edu.alexey.juniorchat.common.EventLoop {
+
+	// of incomplete lines and frames, which most sessions have none of most of the time
+	static final int POOLED_BUFFER_SIZE = 4 * 1024;
+	static final int MAX_POOLED_BUFFERS = 64;
+
+	// accessed by the loop thread only
+	private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+	private Inflater inflater;
+
+	public EventLoop(String name) throws IOException {
+		super(name, true);
+	}
+
+	// cleared, of at least the capacity given; loop thread only
+	ByteBuffer takeBuffer(int capacity) {
+		if (capacity > POOLED_BUFFER_SIZE) {
+			return ByteBuffer.allocate(capacity);
+		}
+		ByteBuffer buffer = freeBuffers.poll();
+		return buffer != null ? buffer : ByteBuffer.allocate(POOLED_BUFFER_SIZE);
+	}
+
+	// loop thread only
+	void returnBuffer(ByteBuffer buffer) {
+		if (buffer.capacity() == POOLED_BUFFER_SIZE && freeBuffers.size() < MAX_POOLED_BUFFERS) {
+			freeBuffers.push(buffer.clear());
+		}
+	}
+
+	int pooledBuffers() {
+		return freeBuffers.size();
+	}
+
+	// shared by all the sessions of the loop, since every deflated payload is inflated whole; loop thread only
+	Inflater inflater() {
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		return inflater;
+	}
+
+	@Override
+	protected void finished() {
+		if (inflater != null) {
+			inflater.end();
+		}
+		freeBuffers.clear();
+	}
+}
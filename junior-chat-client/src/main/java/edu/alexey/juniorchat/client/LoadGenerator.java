@@ -0,0 +1,308 @@
+package edu.alexey.juniorchat.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.alexey.juniorchat.common.Histogram;
+
+// headless mode: drives many Client sessions of one SessionHost and measures delivery latency;
+// arguments are key=value pairs, see Profile for the keys and their defaults
+public class LoadGenerator {
+
+	// marks the generated messages, followed by the kind ('b' or 'd') and System.nanoTime() of sending
+	static final String TAG = "~lg~";
+	private static final char BROADCAST = 'b';
+	private static final char DIRECT = 'd';
+	private static final long DRAIN_MILLIS = 2000;
+	private static final long CONNECT_TIMEOUT_MILLIS = 10000;
+
+	public record Profile(
+			int sessions,
+			double ratePerSession,
+			double directShare,
+			double churnPerSecond,
+			int warmupSeconds,
+			int durationSeconds,
+			Path report) {
+
+		public static Profile parse(String[] args) {
+			int sessions = 50;
+			double ratePerSession = 1;
+			double directShare = 0.2;
+			double churnPerSecond = 0;
+			int warmupSeconds = 5;
+			int durationSeconds = 30;
+			Path report = Path.of("load-report.json");
+
+			for (String arg : args) {
+				int eq = arg.indexOf('=');
+				if (eq < 0) {
+					throw new IllegalArgumentException("Expected key=value, got: " + arg);
+				}
+				String value = arg.substring(eq + 1).strip();
+				switch (arg.substring(0, eq).strip()) {
+					case "sessions" -> sessions = Integer.parseInt(value);
+					case "rate" -> ratePerSession = Double.parseDouble(value);
+					case "direct" -> directShare = Double.parseDouble(value);
+					case "churn" -> churnPerSecond = Double.parseDouble(value);
+					case "warmup" -> warmupSeconds = Integer.parseInt(value);
+					case "duration" -> durationSeconds = Integer.parseInt(value);
+					case "report" -> report = Path.of(value);
+					default -> throw new IllegalArgumentException("Unknown key: " + arg);
+				}
+			}
+
+			if (sessions < 2 || ratePerSession <= 0 || directShare < 0 || directShare > 1 || churnPerSecond < 0
+					|| warmupSeconds < 0 || durationSeconds <= 0) {
+				throw new IllegalArgumentException("Illegal load profile");
+			}
+			return new Profile(sessions, ratePerSession, directShare, churnPerSecond, warmupSeconds, durationSeconds,
+					report);
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final Profile profile;
+	private final AtomicReferenceArray<Client> sessions;
+	private final ScheduledExecutorService scheduler;
+	private final SessionHost host;
+
+	private final Histogram broadcastLatency = new Histogram();
+	private final Histogram directLatency = new Histogram();
+	private final LongAdder broadcastsSent = new LongAdder();
+	// a broadcast is due to every other session online when it is sent
+	private final LongAdder broadcastsExpected = new LongAdder();
+	private final LongAdder directsSent = new LongAdder();
+	// the sessions past the handshake
+	private final AtomicInteger online = new AtomicInteger();
+	private final LongAdder sendFailures = new LongAdder();
+	private final LongAdder joins = new LongAdder();
+	private final LongAdder leaves = new LongAdder();
+	private final LongAdder connectFailures = new LongAdder();
+
+	// messages sent before this moment are delivered but not measured
+	private volatile long measureFrom = Long.MAX_VALUE;
+
+	public LoadGenerator(Profile profile) throws IOException {
+		this.profile = profile;
+		this.sessions = new AtomicReferenceArray<>(profile.sessions());
+		this.scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		this.host = new SessionHost();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Profile profile = Profile.parse(args);
+		new LoadGenerator(profile).run();
+	}
+
+	public void run() throws IOException, InterruptedException {
+		System.out.println("Connecting " + profile.sessions() + " sessions...");
+		var handshakes = new CompletableFuture<?>[profile.sessions()];
+		for (int slot = 0; slot < profile.sessions(); ++slot) {
+			Client client = connect();
+			sessions.set(slot, client);
+			handshakes[slot] = client != null
+					? client.handshake().exceptionally(e -> 0)
+					: CompletableFuture.completedFuture(0);
+		}
+		// all of them connect at once
+		try {
+			CompletableFuture.allOf(handshakes).get(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException | TimeoutException e) {
+			System.out.println("Not every session has connected in " + CONNECT_TIMEOUT_MILLIS + " ms.");
+		}
+
+		long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / profile.ratePerSession());
+		for (int slot = 0; slot < profile.sessions(); ++slot) {
+			final int from = slot;
+			long initialDelay = ThreadLocalRandom.current().nextLong(periodNanos);
+			scheduler.scheduleAtFixedRate(() -> send(from), initialDelay, periodNanos, TimeUnit.NANOSECONDS);
+		}
+		if (profile.churnPerSecond() > 0) {
+			long churnNanos = (long) (TimeUnit.SECONDS.toNanos(1) / profile.churnPerSecond());
+			scheduler.scheduleAtFixedRate(this::churn, churnNanos, churnNanos, TimeUnit.NANOSECONDS);
+		}
+
+		System.out.println("Warming up for " + profile.warmupSeconds() + " s...");
+		Thread.sleep(TimeUnit.SECONDS.toMillis(profile.warmupSeconds()));
+		Instant start = Instant.now();
+		measureFrom = System.nanoTime();
+		System.out.println("Measuring for " + profile.durationSeconds() + " s...");
+		Thread.sleep(TimeUnit.SECONDS.toMillis(profile.durationSeconds()));
+		long elapsedNanos = System.nanoTime() - measureFrom;
+
+		scheduler.shutdownNow();
+		scheduler.awaitTermination(DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+		// let the messages in flight arrive
+		Thread.sleep(DRAIN_MILLIS);
+
+		host.close();
+
+		String report = report(start, elapsedNanos);
+		Files.writeString(profile.report(), report);
+		System.out.println(report);
+		System.out.println("Report is written to " + profile.report().toAbsolutePath());
+	}
+
+	// without waiting for the handshake
+	private Client connect() {
+		try {
+			// what was sent before the session is online reaches it, if at all, as the history replayed on joining
+			var onlineFrom = new AtomicLong(Long.MAX_VALUE);
+			Client client = host.open((fromId, body) -> onMessage(onlineFrom.get(), body));
+			client.handshake().whenComplete((id, e) -> {
+				if (e == null) {
+					onlineFrom.set(System.nanoTime());
+					online.incrementAndGet();
+					joins.increment();
+				} else {
+					connectFailures.increment();
+					logger.error("Unable to connect a session: {}", e.getMessage());
+				}
+			});
+			return client;
+		} catch (IOException | RuntimeException e) {
+			connectFailures.increment();
+			logger.error("Unable to connect a session: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private void send(int from) {
+		Client client = sessions.get(from);
+		if (client == null || client.isClosed()) {
+			return;
+		}
+		var random = ThreadLocalRandom.current();
+		try {
+			if (random.nextDouble() < profile.directShare()) {
+				Client target = sessions.get(random.nextInt(sessions.length()));
+				if (target == null || target == client || target.getId() == 0) {
+					return;
+				}
+				client.accept("@" + target.getId() + " " + TAG + DIRECT + System.nanoTime());
+				if (System.nanoTime() >= measureFrom) {
+					directsSent.increment();
+				}
+			} else {
+				int recipients = online.get() - 1;
+				client.accept(TAG + BROADCAST + System.nanoTime());
+				if (System.nanoTime() >= measureFrom) {
+					broadcastsSent.increment();
+					broadcastsExpected.add(Math.max(0, recipients));
+				}
+			}
+		} catch (IllegalStateException e) {
+			// the session has just left
+			sendFailures.increment();
+		}
+	}
+
+	private void churn() {
+		int slot = ThreadLocalRandom.current().nextInt(sessions.length());
+		Client leaving = sessions.getAndSet(slot, null);
+		if (leaving != null) {
+			if (leaving.getId() != 0) {
+				online.decrementAndGet();
+			}
+			leaving.close();
+			leaves.increment();
+		}
+		sessions.set(slot, connect());
+	}
+
+	// a sender never gets its own broadcast, so the echo of a message is its delivery to another session
+	private void onMessage(long onlineFrom, String body) {
+		long received = System.nanoTime();
+		if (!body.startsWith(TAG) || body.length() < TAG.length() + 2) {
+			return;
+		}
+		long sent;
+		try {
+			sent = Long.parseLong(body, TAG.length() + 1, body.length(), 10);
+		} catch (NumberFormatException e) {
+			return;
+		}
+		if (sent - measureFrom < 0 || sent - onlineFrom < 0) {
+			return;
+		}
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(received - sent));
+		if (body.charAt(TAG.length()) == DIRECT) {
+			directLatency.record(micros);
+		} else {
+			broadcastLatency.record(micros);
+		}
+	}
+
+	private String report(Instant start, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		var json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"start\": \"").append(start).append("\",\n");
+		json.append("  \"profile\": {")
+				.append("\"sessions\": ").append(profile.sessions())
+				.append(", \"ratePerSession\": ").append(format(profile.ratePerSession()))
+				.append(", \"directShare\": ").append(format(profile.directShare()))
+				.append(", \"churnPerSecond\": ").append(format(profile.churnPerSecond()))
+				.append(", \"warmupSeconds\": ").append(profile.warmupSeconds())
+				.append(", \"durationSeconds\": ").append(profile.durationSeconds())
+				.append(", \"binaryProtocol\": ").append(Settings.instance().isBinaryProtocol())
+				.append(", \"compression\": ").append(Settings.instance().isCompression())
+				.append("},\n");
+		json.append("  \"sessions\": {")
+				.append("\"joins\": ").append(joins.sum())
+				.append(", \"leaves\": ").append(leaves.sum())
+				.append(", \"connectFailures\": ").append(connectFailures.sum())
+				.append("},\n");
+		json.append("  \"broadcast\": ");
+		appendStats(json, broadcastsSent.sum(), broadcastsExpected.sum(), broadcastLatency, seconds);
+		json.append(",\n  \"direct\": ");
+		long directs = directsSent.sum();
+		appendStats(json, directs, directs, directLatency, seconds);
+		json.append(",\n  \"sendFailures\": ").append(sendFailures.sum());
+		json.append("\n}\n");
+		return json.toString();
+	}
+
+	// sent counts the messages, expected and delivered count them per recipient
+	private static void appendStats(StringBuilder json, long sent, long expected, Histogram latency,
+			double seconds) {
+		long delivered = latency.count();
+		json.append("{\"sent\": ").append(sent)
+				.append(", \"expected\": ").append(expected)
+				.append(", \"delivered\": ").append(delivered)
+				.append(", \"deliveredShare\": ").append(format(expected == 0 ? 0 : (double) delivered / expected))
+				.append(", \"deliveredPerSecond\": ").append(format(delivered / seconds))
+				.append(", \"latencyMicros\": {")
+				.append("\"min\": ").append(latency.min())
+				.append(", \"mean\": ").append(format(latency.mean()))
+				.append(", \"p50\": ").append(latency.percentile(50))
+				.append(", \"p90\": ").append(latency.percentile(90))
+				.append(", \"p99\": ").append(latency.percentile(99))
+				.append(", \"p999\": ").append(latency.percentile(99.9))
+				.append(", \"max\": ").append(latency.max())
+				.append("}}");
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+}
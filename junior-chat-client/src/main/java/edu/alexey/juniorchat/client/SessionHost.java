@@ -0,0 +1,95 @@
+package edu.alexey.juniorchat.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.alexey.juniorchat.client.Client.MessageListener;
+
+// Many chat sessions in one process, as bots and bridges need. The sessions are spread over a few event loops
+// and share their selectors, read buffers, pools of buffers for incomplete input and inflaters, so that an extra
+// session costs its socket and a few small objects rather than a thread; the server address is resolved once.
+public class SessionHost implements Closeable {
+
+	private final EventLoop[] eventLoops;
+	private final InetSocketAddress address;
+	private final Set<Client> sessions = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger nextEventLoop = new AtomicInteger();
+	private volatile boolean isClosed;
+
+	public SessionHost() throws IOException {
+		this(Settings.instance().getHostEventLoops());
+	}
+
+	// eventLoops == 0 - one per processor
+	public SessionHost(int eventLoops) throws IOException {
+		this(eventLoops, new InetSocketAddress(Settings.instance().getServerIp(), Settings.instance().getServerPort()));
+	}
+
+	SessionHost(int eventLoops, InetSocketAddress address) throws IOException {
+		if (eventLoops < 0) {
+			throw new IllegalArgumentException("Illegal number of event loops " + eventLoops);
+		}
+		int count = eventLoops == 0 ? Runtime.getRuntime().availableProcessors() : eventLoops;
+		this.address = address;
+		this.eventLoops = new EventLoop[count];
+		try {
+			for (int i = 0; i < count; ++i) {
+				this.eventLoops[i] = new EventLoop("client-host-" + i);
+			}
+		} catch (IOException e) {
+			closeEventLoops();
+			throw e;
+		}
+		for (var loop : this.eventLoops) {
+			loop.start();
+		}
+	}
+
+	// a new session, connecting already, see Client.handshake(); listener == null prints the messages
+	public Client open(MessageListener listener) throws IOException {
+		if (isClosed) {
+			throw new IllegalStateException("Session host is closed");
+		}
+		var loop = eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+		var client = new Client(loop, address, listener);
+		sessions.add(client);
+		client.setCloseListener(sessions::remove);
+		client.run();
+		return client;
+	}
+
+	// the sessions not closed yet
+	public Set<Client> sessions() {
+		return Collections.unmodifiableSet(sessions);
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	// the sessions are closed along with the loops, after what they have queued
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		for (var client : sessions) {
+			client.close();
+		}
+		closeEventLoops();
+	}
+
+	private void closeEventLoops() {
+		for (var loop : eventLoops) {
+			if (loop != null) {
+				loop.close();
+			}
+		}
+	}
+}
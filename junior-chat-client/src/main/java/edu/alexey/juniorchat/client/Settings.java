@@ -24,6 +24,14 @@ public class Settings {
 	public static final String SERVER_IP = "127.0.0.1";
 	public static final int SERVER_PORT = 8082;
 	public static final String CHAT_DATETIME_PATTERN = "HH:mm:ss";
+	public static final boolean BINARY_PROTOCOL = true;
+	public static final boolean COMPRESSION = true;
+	public static final int SEND_QUEUE_CAPACITY = 1024;
+	public static final int HOST_EVENT_LOOPS = 0;
+	public static final int RECONNECT_INITIAL_DELAY_MILLIS = 0;
+	public static final int RECONNECT_MAX_DELAY_MILLIS = 30000;
+	public static final int RENDER_FRAMES_PER_SECOND = 0;
+	public static final int RENDER_MAX_LINES_PER_FRAME = 100;
 
 	// keys
 
@@ -32,6 +40,14 @@ public class Settings {
 	private static final String SERVER_IP_KEY = "server.ip";
 	private static final String SERVER_PORT_KEY = "server.port";
 	private static final String CHAT_DATETIME_PATTERN_KEY = "client.chatDatetimePattern";
+	private static final String BINARY_PROTOCOL_KEY = "client.binaryProtocol";
+	private static final String COMPRESSION_KEY = "client.compression";
+	private static final String SEND_QUEUE_CAPACITY_KEY = "client.sendQueueCapacity";
+	private static final String HOST_EVENT_LOOPS_KEY = "client.host.eventLoops";
+	private static final String RECONNECT_INITIAL_DELAY_KEY = "client.reconnect.initialDelayMillis";
+	private static final String RECONNECT_MAX_DELAY_KEY = "client.reconnect.maxDelayMillis";
+	private static final String RENDER_FRAMES_PER_SECOND_KEY = "client.render.framesPerSecond";
+	private static final String RENDER_MAX_LINES_PER_FRAME_KEY = "client.render.maxLinesPerFrame";
 
 	// fields
 
@@ -40,6 +56,14 @@ public class Settings {
 	private String serverIp = SERVER_IP;
 	private int serverPort = SERVER_PORT;
 	private DateTimeFormatter chatDateTimeFormatter = DateTimeFormatter.ofPattern(CHAT_DATETIME_PATTERN);
+	private boolean binaryProtocol = BINARY_PROTOCOL;
+	private boolean compression = COMPRESSION;
+	private int sendQueueCapacity = SEND_QUEUE_CAPACITY;
+	private int hostEventLoops = HOST_EVENT_LOOPS;
+	private int reconnectInitialDelayMillis = RECONNECT_INITIAL_DELAY_MILLIS;
+	private int reconnectMaxDelayMillis = RECONNECT_MAX_DELAY_MILLIS;
+	private int renderFramesPerSecond = RENDER_FRAMES_PER_SECOND;
+	private int renderMaxLinesPerFrame = RENDER_MAX_LINES_PER_FRAME;
 
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 	private Properties properties = new Properties();
@@ -75,6 +99,48 @@ public class Settings {
 			if (properties.containsKey(CHAT_DATETIME_PATTERN_KEY)) {
 				chatDateTimeFormatter = DateTimeFormatter.ofPattern(properties.getProperty(CHAT_DATETIME_PATTERN_KEY));
 			}
+			if (properties.containsKey(BINARY_PROTOCOL_KEY)) {
+				binaryProtocol = Boolean.parseBoolean(properties.getProperty(BINARY_PROTOCOL_KEY).strip());
+			}
+			if (properties.containsKey(COMPRESSION_KEY)) {
+				compression = Boolean.parseBoolean(properties.getProperty(COMPRESSION_KEY).strip());
+			}
+			if (properties.containsKey(SEND_QUEUE_CAPACITY_KEY)) {
+				sendQueueCapacity = Integer.parseInt(properties.getProperty(SEND_QUEUE_CAPACITY_KEY).strip());
+				if (sendQueueCapacity < 1) {
+					throw new RuntimeException("Illegal send queue capacity " + sendQueueCapacity);
+				}
+			}
+			if (properties.containsKey(HOST_EVENT_LOOPS_KEY)) {
+				hostEventLoops = Integer.parseInt(properties.getProperty(HOST_EVENT_LOOPS_KEY).strip());
+				if (hostEventLoops < 0) {
+					throw new RuntimeException("Illegal number of session host event loops " + hostEventLoops);
+				}
+			}
+			if (properties.containsKey(RECONNECT_INITIAL_DELAY_KEY)) {
+				reconnectInitialDelayMillis = Integer.parseInt(properties.getProperty(RECONNECT_INITIAL_DELAY_KEY).strip());
+				if (reconnectInitialDelayMillis < 0) {
+					throw new RuntimeException("Illegal initial reconnect delay " + reconnectInitialDelayMillis);
+				}
+			}
+			if (properties.containsKey(RECONNECT_MAX_DELAY_KEY)) {
+				reconnectMaxDelayMillis = Integer.parseInt(properties.getProperty(RECONNECT_MAX_DELAY_KEY).strip());
+				if (reconnectMaxDelayMillis < 1) {
+					throw new RuntimeException("Illegal maximum reconnect delay " + reconnectMaxDelayMillis);
+				}
+			}
+			if (properties.containsKey(RENDER_FRAMES_PER_SECOND_KEY)) {
+				renderFramesPerSecond = Integer.parseInt(properties.getProperty(RENDER_FRAMES_PER_SECOND_KEY).strip());
+				if (renderFramesPerSecond < 0 || renderFramesPerSecond > 1000) {
+					throw new RuntimeException("Illegal render frame rate " + renderFramesPerSecond);
+				}
+			}
+			if (properties.containsKey(RENDER_MAX_LINES_PER_FRAME_KEY)) {
+				renderMaxLinesPerFrame = Integer.parseInt(properties.getProperty(RENDER_MAX_LINES_PER_FRAME_KEY).strip());
+				if (renderMaxLinesPerFrame < 2) {
+					throw new RuntimeException("Illegal number of lines per render frame " + renderMaxLinesPerFrame);
+				}
+			}
 		} catch (Exception e) {
 			logger.error("Exception occurred on loading application properties:", e);
 			throw new RuntimeException(e);
@@ -103,6 +169,45 @@ public class Settings {
 		return chatDateTimeFormatter;
 	}
 
+	public boolean isBinaryProtocol() {
+		return binaryProtocol;
+	}
+
+	// deflate of large payloads, with the binary protocol only
+	public boolean isCompression() {
+		return compression;
+	}
+
+	// messages accepted but not written to the socket yet, more are refused
+	public int getSendQueueCapacity() {
+		return sendQueueCapacity;
+	}
+
+	// of a SessionHost, 0 - one per processor
+	public int getHostEventLoops() {
+		return hostEventLoops;
+	}
+
+	// the first delay before reconnecting a broken session, doubled by every failed attempt; 0 - no reconnects
+	public int getReconnectInitialDelayMillis() {
+		return reconnectInitialDelayMillis;
+	}
+
+	// the delay stops doubling here
+	public int getReconnectMaxDelayMillis() {
+		return reconnectMaxDelayMillis;
+	}
+
+	// console writes per second at most, the lines received meanwhile go together; 0 - every line at once
+	public int getRenderFramesPerSecond() {
+		return renderFramesPerSecond;
+	}
+
+	// lines written per frame at most, the older ones beyond are collapsed into a count
+	public int getRenderMaxLinesPerFrame() {
+		return renderMaxLinesPerFrame;
+	}
+
 	private static class Holder {
 		static final Settings instance = new Settings();
 	}
@@ -2,6 +2,9 @@ package edu.alexey.juniorchat.client;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 class AppTest {
@@ -11,4 +14,14 @@ class AppTest {
 		assertTrue(true);
 	}
 
+	@Test
+	void fullSendQueueDoesNotEndTheConsole() {
+		List<String> sent = new ArrayList<>();
+		assertTrue(App.send(sent::add, "first"));
+		assertFalse(App.send(message -> {
+			throw new IllegalStateException("Send queue is full");
+		}, "second"));
+		assertEquals(List.of("first"), sent);
+	}
+
 }
@@ -0,0 +1,86 @@
+package edu.alexey.juniorchat.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.client.BinaryProtocol.Frame;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+class BinaryProtocolTest {
+
+	private static byte[] write(String body, Deflater deflater) throws IOException {
+		var os = new ByteArrayOutputStream();
+		FrameStreams.writeFrame(os, BinaryProtocol.TYPE_CHAT, 7, 42, body.getBytes(StandardCharsets.UTF_8), deflater);
+		return os.toByteArray();
+	}
+
+	private static Frame read(byte[] bytes, Inflater inflater) throws IOException {
+		return FrameStreams.readFrame(new DataInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8,
+				inflater);
+	}
+
+	@Test
+	void largePayloadGoesDeflated() throws IOException {
+		String body = "повтор ".repeat(200);
+
+		byte[] frame = write(body, new Deflater());
+
+		assertThat(frame[0] & WireProtocol.DEFLATED).isNotZero();
+		assertThat(frame.length).isLessThan(body.length());
+		assertThat(read(frame, new Inflater())).isEqualTo(new Frame(BinaryProtocol.TYPE_CHAT, 7, 42, body));
+	}
+
+	@Test
+	void shortPayloadGoesAsIs() throws IOException {
+		byte[] frame = write("привет", new Deflater());
+
+		assertThat(frame[0]).isEqualTo(BinaryProtocol.TYPE_CHAT);
+		assertThat(read(frame, null)).isEqualTo(new Frame(BinaryProtocol.TYPE_CHAT, 7, 42, "привет"));
+	}
+
+	@Test
+	void framesAreDecodedInPlace() throws IOException {
+		byte[] first = BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_CHAT, 3, 1L << 40, "раз".getBytes(StandardCharsets.UTF_8),
+				null);
+		byte[] second = write("два ".repeat(100), new Deflater());
+		byte[] stream = new byte[first.length + second.length];
+		System.arraycopy(first, 0, stream, 0, first.length);
+		System.arraycopy(second, 0, stream, first.length, second.length);
+
+		assertThat(WireProtocol.payloadLength(stream, 0)).isEqualTo(first.length - WireProtocol.HEADER_LENGTH);
+		assertThat(BinaryProtocol.decodeFrame(stream, 0, StandardCharsets.UTF_8, null))
+				.isEqualTo(new Frame(BinaryProtocol.TYPE_CHAT, 3, 1L << 40, "раз"));
+		assertThat(BinaryProtocol.decodeFrame(stream, first.length, StandardCharsets.UTF_8, new Inflater()))
+				.isEqualTo(new Frame(BinaryProtocol.TYPE_CHAT, 7, 42, "два ".repeat(100)));
+	}
+
+	@Test
+	void deflatersArePooledWithinBound() throws Exception {
+		String body = "повтор ".repeat(200);
+		var senders = new ArrayList<Thread>();
+		var frames = new ConcurrentLinkedQueue<byte[]>();
+		for (int i = 0; i < 200; ++i) {
+			senders.add(Thread.ofVirtual().start(() -> frames.add(BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_CHAT,
+					7, 42, body.getBytes(StandardCharsets.UTF_8), true))));
+		}
+		for (var sender : senders) {
+			sender.join();
+		}
+
+		assertThat(BinaryProtocol.pooledDeflaters()).isBetween(1, BinaryProtocol.MAX_POOLED_DEFLATERS);
+		assertThat(frames).hasSize(200).allSatisfy(frame -> assertThat(read(frame, new Inflater()))
+				.isEqualTo(new Frame(BinaryProtocol.TYPE_CHAT, 7, 42, body)));
+	}
+}
@@ -0,0 +1,57 @@
+package edu.alexey.juniorchat.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.jupiter.api.Test;
+
+class ChatRendererTest {
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final PrintStream out = new PrintStream(bytes, false, StandardCharsets.UTF_8);
+
+	private String[] written() {
+		String text = bytes.toString(StandardCharsets.UTF_8);
+		return text.isEmpty() ? new String[0] : text.split(System.lineSeparator());
+	}
+
+	@Test
+	void senderAndBodyShareTheLine() {
+		var renderer = new ChatRenderer(out, DateTimeFormatter.ofPattern("HH:mm:ss"), 0, 100);
+		renderer.print("Участник №5:", "hello");
+
+		assertThat(written()).hasSize(1);
+		assertThat(written()[0]).matches("\\d\\d:\\d\\d:\\d\\d Участник №5: hello");
+	}
+
+	@Test
+	void linesWaitForTheFrame() {
+		var renderer = new ChatRenderer(out, DateTimeFormatter.ofPattern("HH:mm:ss"), 30, 100);
+		renderer.print("Вы:", "one");
+		renderer.print("Вы:", "two");
+		assertThat(written()).isEmpty();
+
+		renderer.flush();
+
+		assertThat(written()).hasSize(2);
+		assertThat(written()[1]).endsWith("Вы: two");
+	}
+
+	@Test
+	void overloadSkipsToTheNewestLines() {
+		var renderer = new ChatRenderer(out, DateTimeFormatter.ofPattern("HH:mm:ss"), 30, 3);
+		for (int i = 0; i < 10; ++i) {
+			renderer.print("Сервер:", "message " + i);
+		}
+		renderer.close();
+
+		assertThat(written()).hasSize(4);
+		assertThat(written()[0]).isEqualTo("... пропущено сообщений: 7");
+		assertThat(written()[1]).endsWith("message 7");
+		assertThat(written()[3]).endsWith("message 9");
+	}
+}
@@ -0,0 +1,156 @@
+package edu.alexey.juniorchat.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.client.BinaryProtocol.Frame;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+class ClientTest {
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+	private static Client open(FakeServer server, BlockingQueue<String> delivered) throws Exception {
+		var client = new Client(null, server.address(), (fromId, body) -> delivered.add(body));
+		client.run();
+		client.handshake().get(5, TimeUnit.SECONDS);
+		return client;
+	}
+
+	@Test
+	void framesOfAnySizeGoOutWholeAndInOrder() throws Exception {
+		try (var server = new FakeServer(); var client = open(server, new LinkedBlockingQueue<>())) {
+			var bodies = new ArrayList<String>();
+			bodies.add("привет");
+			// past the compression threshold, deflated
+			bodies.add("повтор ".repeat(100));
+			// incompressible and close to the payload limit
+			var random = new StringBuilder();
+			while (random.length() < WireProtocol.MAX_PAYLOAD_LENGTH - 16) {
+				random.append(Long.toString(Double.doubleToLongBits(Math.random()), 36));
+			}
+			bodies.add(random.substring(0, WireProtocol.MAX_PAYLOAD_LENGTH - 16));
+
+			bodies.forEach(client);
+
+			for (int i = 0; i < bodies.size(); ++i) {
+				Frame frame = server.next();
+				assertThat(frame.body()).isEqualTo(bodies.get(i));
+				assertThat(frame.sequence()).isEqualTo(i + 1);
+				assertThat(frame.senderId()).isEqualTo(client.getId());
+			}
+		}
+	}
+
+	@Test
+	void frameSplitOverReadsIsDeliveredOnce() throws Exception {
+		BlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+		try (var server = new FakeServer(); var client = open(server, delivered)) {
+			server.sendAllInPieces("по кусочку");
+
+			assertThat(delivered.poll(5, TimeUnit.SECONDS)).isEqualTo("по кусочку");
+			assertThat(delivered.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		}
+	}
+
+	@Test
+	void fullSendQueueRefusesWithoutBlocking() throws Exception {
+		try (var server = new FakeServer();
+				var client = new Client(null, server.address(), (fromId, body) -> {})) {
+			int capacity = Settings.instance().getSendQueueCapacity();
+			// not connected yet, the messages wait in the queue
+			for (int i = 0; i < capacity; ++i) {
+				client.accept("message " + i);
+			}
+			assertThatThrownBy(() -> client.accept("one too many")).isInstanceOf(IllegalStateException.class);
+
+			client.run();
+			for (int i = 0; i < capacity; ++i) {
+				assertThat(server.next().body()).isEqualTo("message " + i);
+			}
+			client.accept("room for one more");
+			assertThat(server.next().body()).isEqualTo("room for one more");
+		}
+	}
+
+	@Test
+	void closeSendsWhatWasAcceptedBefore() throws Exception {
+		try (var server = new FakeServer()) {
+			var client = open(server, new LinkedBlockingQueue<>());
+			for (int i = 0; i < 10; ++i) {
+				client.accept("last words " + i);
+			}
+
+			client.close();
+
+			for (int i = 0; i < 10; ++i) {
+				assertThat(server.next().body()).isEqualTo("last words " + i);
+			}
+			await(client::isClosed);
+			assertThatThrownBy(() -> client.accept("too late")).isInstanceOf(IllegalStateException.class);
+		}
+	}
+
+	@Test
+	void goodbyeEndsTheSession() throws Exception {
+		try (var server = new FakeServer(); var client = open(server, new LinkedBlockingQueue<>())) {
+			server.sayGoodbye();
+
+			await(client::isClosed);
+			// well past the first reconnect delay
+			Thread.sleep(2 * Settings.instance().getReconnectInitialDelayMillis());
+			assertThat(server.connections()).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void brokenConnectionIsReconnected() throws Exception {
+		try (var server = new FakeServer(); var client = open(server, new LinkedBlockingQueue<>())) {
+			server.dropAll();
+
+			await(() -> server.connections() == 2);
+			assertThat(client.isClosed()).isFalse();
+			await(() -> {
+				try {
+					client.accept("after the reconnect");
+					return true;
+				} catch (IllegalStateException e) {
+					return false;
+				}
+			});
+			assertThat(server.next().body()).isEqualTo("after the reconnect");
+		}
+	}
+
+	@Test
+	void unreachableServerFailsTheHandshake() throws Exception {
+		InetSocketAddress address;
+		try (var server = new FakeServer()) {
+			address = server.address();
+		}
+		try (var client = new Client(null, address, (fromId, body) -> {})) {
+			client.run();
+
+			assertThatThrownBy(() -> client.handshake().get(5, TimeUnit.SECONDS))
+					.hasCauseInstanceOf(IOException.class);
+			await(client::isClosed);
+		}
+	}
+}
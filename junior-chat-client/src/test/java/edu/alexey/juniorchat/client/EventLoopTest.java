@@ -0,0 +1,55 @@
+package edu.alexey.juniorchat.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+class EventLoopTest {
+
+	// the buffer pool is the loop thread's only
+	private static <T> T onLoop(EventLoop loop, Supplier<T> action) throws Exception {
+		return CompletableFuture.supplyAsync(action, loop::execute).get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void returnedBufferIsTakenAgainCleared() throws Exception {
+		try (var loop = new EventLoop("test-loop")) {
+			loop.start();
+			ByteBuffer first = onLoop(loop, () -> loop.takeBuffer(100));
+			first.put((byte) 1);
+
+			ByteBuffer again = onLoop(loop, () -> {
+				loop.returnBuffer(first);
+				return loop.takeBuffer(10);
+			});
+
+			assertThat(again).isSameAs(first);
+			assertThat(again.position()).isZero();
+			assertThat(again.capacity()).isEqualTo(EventLoop.POOLED_BUFFER_SIZE);
+		}
+	}
+
+	@Test
+	void poolIsBoundedAndKeepsOnlyItsSize() throws Exception {
+		try (var loop = new EventLoop("test-loop")) {
+			loop.start();
+			int pooled = onLoop(loop, () -> {
+				var taken = new ArrayList<ByteBuffer>();
+				for (int i = 0; i < EventLoop.MAX_POOLED_BUFFERS + 10; ++i) {
+					taken.add(loop.takeBuffer(1));
+				}
+				taken.add(loop.takeBuffer(EventLoop.POOLED_BUFFER_SIZE + 1));
+				taken.forEach(loop::returnBuffer);
+				return loop.pooledBuffers();
+			});
+
+			assertThat(pooled).isEqualTo(EventLoop.MAX_POOLED_BUFFERS);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package edu.alexey.juniorchat.client;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+import edu.alexey.juniorchat.client.BinaryProtocol.Frame;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+// Stand-in for the chat server, binary protocol only: gives every connection the next id without a resume
+// token, records the chat frames the sessions send, and sends them what a test asks for.
+class FakeServer implements Closeable {
+
+	private final ServerSocket serverSocket;
+	private final AtomicInteger nextId = new AtomicInteger();
+	private final List<Socket> links = new CopyOnWriteArrayList<>();
+	private final BlockingQueue<Frame> received = new LinkedBlockingQueue<>();
+
+	FakeServer() throws IOException {
+		serverSocket = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+		Thread.ofVirtual().start(this::acceptLinks);
+	}
+
+	InetSocketAddress address() {
+		return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+	}
+
+	// accepted so far, reconnects included
+	int connections() {
+		return nextId.get();
+	}
+
+	// null if nothing comes in time
+	Frame next() throws InterruptedException {
+		return received.poll(5, TimeUnit.SECONDS);
+	}
+
+	// a chat frame from the server itself to every link open
+	void sendAll(String body) throws IOException {
+		byte[] frame = BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_CHAT, 0, 1,
+				body.getBytes(StandardCharsets.UTF_8), null);
+		for (var socket : links) {
+			write(socket, frame);
+		}
+	}
+
+	// a few bytes at a time, for the sessions to get the frame over several reads
+	void sendAllInPieces(String body) throws IOException, InterruptedException {
+		byte[] frame = BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_CHAT, 0, 1,
+				body.getBytes(StandardCharsets.UTF_8), null);
+		for (int i = 0; i < frame.length; i += 3) {
+			byte[] piece = Arrays.copyOfRange(frame, i, Math.min(frame.length, i + 3));
+			for (var socket : links) {
+				write(socket, piece);
+			}
+			Thread.sleep(1);
+		}
+	}
+
+	// the close on purpose, after which the sessions are not to reconnect
+	void sayGoodbye() throws IOException {
+		byte[] frame = BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_PROTOCOL, 0, 0,
+				WireProtocol.GOODBYE_MARKER.getBytes(StandardCharsets.UTF_8), null);
+		for (var socket : links) {
+			write(socket, frame);
+		}
+		dropAll();
+	}
+
+	// as a network failure would, without the goodbye
+	void dropAll() throws IOException {
+		for (var socket : links) {
+			socket.close();
+		}
+		links.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		dropAll();
+	}
+
+	private void acceptLinks() {
+		try {
+			while (true) {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				links.add(socket);
+				Thread.ofVirtual().start(() -> serve(socket));
+			}
+		} catch (IOException closed) {
+		}
+	}
+
+	private void serve(Socket socket) {
+		var inflater = new Inflater();
+		try (socket) {
+			var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			in.readNBytes(WireProtocol.PREAMBLE.length);
+			write(socket, (WireProtocol.SWITCH_MARKER + "\n").getBytes(StandardCharsets.UTF_8));
+			write(socket, BinaryProtocol.encodeFrame(BinaryProtocol.TYPE_PROTOCOL, nextId.incrementAndGet(), 0,
+					new byte[0], null));
+			Frame frame;
+			while ((frame = FrameStreams.readFrame(in, StandardCharsets.UTF_8, inflater)) != null) {
+				if (frame.type() == BinaryProtocol.TYPE_CHAT) {
+					received.add(frame);
+				}
+			}
+		} catch (IOException closed) {
+		} finally {
+			inflater.end();
+			links.remove(socket);
+		}
+	}
+
+	private static void write(Socket socket, byte[] bytes) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		synchronized (socket) {
+			out.write(bytes);
+			out.flush();
+		}
+	}
+}
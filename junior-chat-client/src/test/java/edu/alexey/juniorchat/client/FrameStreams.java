@@ -0,0 +1,49 @@
+package edu.alexey.juniorchat.client;
+
+import static edu.alexey.juniorchat.common.WireProtocol.*;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import edu.alexey.juniorchat.client.BinaryProtocol.Frame;
+
+// Blocking frame I/O over streams, for the tests and the fake server; the client itself frames on its event loop.
+final class FrameStreams {
+
+	private FrameStreams() {
+	}
+
+	// deflater == null - never deflated
+	static void writeFrame(OutputStream os, byte type, int senderId, long sequence, byte[] payload,
+			Deflater deflater) throws IOException {
+		os.write(BinaryProtocol.encodeFrame(type, senderId, sequence, payload, deflater));
+	}
+
+	// null at the end of stream; the type of the frame returned has no DEFLATED bit
+	static Frame readFrame(DataInputStream in, Charset charset, Inflater inflater) throws IOException {
+		int type = in.read();
+		if (type < 0) {
+			return null;
+		}
+		try {
+			byte[] header = new byte[HEADER_LENGTH];
+			header[0] = (byte) type;
+			in.readFully(header, 1, HEADER_LENGTH - 1);
+			int length = payloadLength(header, 0);
+			if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+				throw new IOException("Illegal frame length " + length);
+			}
+			byte[] frame = Arrays.copyOf(header, HEADER_LENGTH + length);
+			in.readFully(frame, HEADER_LENGTH, length);
+			return BinaryProtocol.decodeFrame(frame, 0, charset, inflater);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package edu.alexey.juniorchat.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class SessionHostTest {
+
+	private static final int SESSIONS = 20;
+
+	@Test
+	void sessionsShareTheLoops() throws Exception {
+		try (var server = new FakeServer(); var host = new SessionHost(2, server.address())) {
+			var delivered = new CountDownLatch(SESSIONS);
+			var sessions = new ArrayList<Client>();
+			for (int i = 0; i < SESSIONS; ++i) {
+				sessions.add(host.open((fromId, body) -> delivered.countDown()));
+			}
+			var ids = new HashSet<Integer>();
+			for (var session : sessions) {
+				ids.add(session.handshake().get(5, TimeUnit.SECONDS));
+			}
+			assertThat(ids).hasSize(SESSIONS);
+			assertThat(host.size()).isEqualTo(SESSIONS);
+
+			for (var session : sessions) {
+				session.accept("from " + session.getId());
+			}
+			var bodies = new HashSet<String>();
+			for (int i = 0; i < SESSIONS; ++i) {
+				bodies.add(server.next().body());
+			}
+			assertThat(bodies).hasSize(SESSIONS).contains("from " + sessions.get(0).getId());
+
+			server.sendAll("to everyone");
+			assertThat(delivered.await(5, TimeUnit.SECONDS)).isTrue();
+		}
+	}
+
+	@Test
+	void closedHostClosesItsSessions() throws Exception {
+		try (var server = new FakeServer()) {
+			var host = new SessionHost(1, server.address());
+			var session = host.open((fromId, body) -> {});
+			session.handshake().get(5, TimeUnit.SECONDS);
+
+			host.close();
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (!session.isClosed() && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(session.isClosed()).isTrue();
+			assertThat(host.size()).isZero();
+			assertThatThrownBy(() -> host.open(null)).isInstanceOf(IllegalStateException.class);
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package edu.alexey.juniorchat.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Single-threaded selector loop, owns all I/O of the channels registered with it: the server's connections,
+// the client's sessions. Tasks and timers submitted to it run on the loop thread too.
+public class EventLoop implements Runnable, Closeable {
+
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	// attachment of a registered SelectionKey
+	public interface Handler {
+		void handle(SelectionKey key) throws IOException;
+
+		// handle() has thrown unexpectedly: this key's channel alone is to be closed, the loop goes on
+		default void failed(SelectionKey key, RuntimeException e) {
+			key.cancel();
+			try {
+				key.channel().close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	private record Timer(long deadline, Runnable task) implements Comparable<Timer> {
+		@Override
+		public int compareTo(Timer other) {
+			return Long.compare(deadline, other.deadline);
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final String name;
+	private final boolean isDaemon;
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	// soonest first; accessed by the loop thread only
+	private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+	// shared by all the channels of the loop, since reads never interleave
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+	private volatile Thread thread;
+	private volatile boolean isClosing;
+
+	public EventLoop(String name) throws IOException {
+		this(name, false);
+	}
+
+	// a daemon loop does not keep the application alive
+	public EventLoop(String name, boolean isDaemon) throws IOException {
+		this.name = name;
+		this.isDaemon = isDaemon;
+		this.selector = Selector.open();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void start() {
+		Thread.ofPlatform().daemon(isDaemon).name(name).start(this);
+	}
+
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (!inEventLoop()) {
+			selector.wakeup();
+		}
+	}
+
+	// runs the task on the loop once the delay has passed; dropped if the loop closes first
+	public void schedule(Runnable task, long delay, TimeUnit unit) {
+		var timer = new Timer(System.nanoTime() + unit.toNanos(delay), task);
+		if (inEventLoop()) {
+			timers.add(timer);
+		} else {
+			execute(() -> timers.add(timer));
+		}
+	}
+
+	public void register(SelectableChannel channel, int ops, Handler handler) {
+		execute(() -> {
+			try {
+				channel.register(selector, ops, handler);
+			} catch (IOException e) {
+				logger.error("Unable to register channel in {}:", name, e);
+			}
+		});
+	}
+
+	// loop thread only
+	public Selector selector() {
+		return selector;
+	}
+
+	// loop thread only
+	public ByteBuffer readBuffer() {
+		return readBuffer;
+	}
+
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+		logger.debug("Event loop {} started.", name);
+
+		while (!isClosing) {
+			try {
+				select();
+				processSelectedKeys();
+				runTimers();
+				// also picks up tasks submitted by the handlers and timers just run
+				runTasks();
+			} catch (IOException e) {
+				logger.error("Error occurred in event loop {}:", name, e);
+			}
+		}
+
+		runTasks();
+		timers.clear();
+		finished();
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.error("Error occurred on Selector close attempt:", e);
+		}
+		logger.debug("Event loop {} finished.", name);
+	}
+
+	// on the loop thread, once the tasks left are run, for a subclass to release what its channels shared
+	protected void finished() {
+	}
+
+	private void select() throws IOException {
+		Timer next = timers.peek();
+		if (next == null) {
+			selector.select();
+			return;
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(next.deadline() - System.nanoTime() + 999_999);
+		if (millis <= 0) {
+			selector.selectNow();
+		} else {
+			selector.select(millis);
+		}
+	}
+
+	private void runTimers() {
+		long now = System.nanoTime();
+		Timer timer;
+		while ((timer = timers.peek()) != null && timer.deadline() - now <= 0) {
+			timers.poll();
+			try {
+				timer.task().run();
+			} catch (RuntimeException e) {
+				logger.error("Unhandled exception in event loop {} timer:", name, e);
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("Unhandled exception in event loop {} task:", name, e);
+			}
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+		while (it.hasNext()) {
+			SelectionKey key = it.next();
+			it.remove();
+			if (!key.isValid()) {
+				continue;
+			}
+			var handler = (Handler) key.attachment();
+			try {
+				handler.handle(key);
+			} catch (CancelledKeyException ignore) {
+			} catch (IOException e) {
+				logger.error("I/O error in event loop {}:", name, e);
+				key.cancel();
+			} catch (RuntimeException e) {
+				logger.error("Unhandled exception in event loop {} handler, closing its channel:", name, e);
+				try {
+					handler.failed(key, e);
+				} catch (RuntimeException again) {
+					logger.error("Unable to close the failed channel in event loop {}:", name, again);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		if (isClosing) {
+			return;
+		}
+		isClosing = true;
+		selector.wakeup();
+	}
+}
@@ -0,0 +1,129 @@
+package edu.alexey.juniorchat.common;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// log-linear histogram in the manner of HdrHistogram: each power of two range is split into
+// SUB_BUCKETS linear buckets, so any recorded value is reported within 1/SUB_BUCKETS of itself.
+// Recording is lock-free and may be done from any number of threads: every count is striped, so threads
+// hitting the same bucket, as latencies mostly do, do not fight over one word.
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// values below 2 * SUB_BUCKETS are counted exactly, each next power of two takes SUB_BUCKETS slots
+	private static final int BUCKETS = SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS);
+
+	// created with the first value of the bucket, as most of them never get one
+	private final AtomicReferenceArray<LongAdder> counts = new AtomicReferenceArray<>(BUCKETS);
+	private final LongAdder totalCount = new LongAdder();
+	private final LongAdder totalSum = new LongAdder();
+	private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public void record(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative value " + value);
+		}
+		bucket(indexOf(value)).increment();
+		totalCount.increment();
+		totalSum.add(value);
+		min.accumulate(value);
+		max.accumulate(value);
+	}
+
+	private LongAdder bucket(int index) {
+		LongAdder bucket = counts.get(index);
+		if (bucket == null) {
+			LongAdder created = new LongAdder();
+			bucket = counts.compareAndExchange(index, null, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+
+	public long count() {
+		return totalCount.sum();
+	}
+
+	public long sum() {
+		return totalSum.sum();
+	}
+
+	public long min() {
+		return count() == 0 ? 0 : min.get();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public double mean() {
+		long count = count();
+		return count == 0 ? 0 : (double) totalSum.sum() / count;
+	}
+
+	// the smallest recorded value such that the given percentage of all values is not above it
+	public long percentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Illegal percentile " + percentile);
+		}
+		long count = count();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			LongAdder bucket = counts.get(i);
+			if (bucket != null) {
+				seen += bucket.sum();
+			}
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(i), max());
+			}
+		}
+		return max();
+	}
+
+	// the values of another histogram counted in this one as well, e.g. to merge the slices of a time window
+	public void add(Histogram other) {
+		long count = other.count();
+		if (count == 0) {
+			return;
+		}
+		for (int i = 0; i < BUCKETS; ++i) {
+			LongAdder bucket = other.counts.get(i);
+			if (bucket != null) {
+				long n = bucket.sum();
+				if (n > 0) {
+					bucket(i).add(n);
+				}
+			}
+		}
+		totalCount.add(count);
+		totalSum.add(other.sum());
+		min.accumulate(other.min());
+		max.accumulate(other.max());
+	}
+
+	static int indexOf(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - 1 - SUB_BUCKET_BITS;
+		return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
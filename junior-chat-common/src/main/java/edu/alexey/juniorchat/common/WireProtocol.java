@@ -0,0 +1,53 @@
+package edu.alexey.juniorchat.common;
+
+// The binary framing as both sides of a connection see it, defined once for the server and the client.
+// A client asks for frames by sending PREAMBLE, or PREAMBLE_DEFLATE to accept deflated payloads as well, before
+// anything else; the server answers with the SWITCH_MARKER text line, after which both directions carry frames:
+// type(1) senderId(4) sequence(8) payloadLength(4) payload(payloadLength), big-endian. A deflated payload is
+// flagged by the DEFLATED bit of the type. HEARTBEAT_MARKER is a ping or its answer, GOODBYE_MARKER precedes
+// a close on purpose; either is a text line, or a PROTOCOL frame with it once the connection is switched.
+public final class WireProtocol {
+
+	public static final byte[] PREAMBLE = { 0, 'J', 'C', 'B', 1 };
+	public static final byte[] PREAMBLE_DEFLATE = { 0, 'J', 'C', 'B', 2 };
+	public static final byte DEFLATED = (byte) 0x80;
+	public static final String SWITCH_MARKER = "\0JCB1";
+	public static final String HEARTBEAT_MARKER = "\0JCH1";
+	public static final String GOODBYE_MARKER = "\0JCQ1";
+	public static final int HEADER_LENGTH = 17;
+	public static final int MAX_PAYLOAD_LENGTH = 64 * 1024;
+	// shorter payloads are not worth deflating; each side decides only for what it sends, and any payload may
+	// come deflated or not, so the two need not agree on it
+	public static final int COMPRESSION_THRESHOLD = 256;
+
+	private WireProtocol() {
+	}
+
+	// from the header at the offset, not checked
+	public static int payloadLength(byte[] header, int offset) {
+		return readInt(header, offset + 13);
+	}
+
+	public static void writeInt(byte[] array, int offset, int value) {
+		array[offset] = (byte) (value >>> 24);
+		array[offset + 1] = (byte) (value >>> 16);
+		array[offset + 2] = (byte) (value >>> 8);
+		array[offset + 3] = (byte) value;
+	}
+
+	public static void writeLong(byte[] array, int offset, long value) {
+		writeInt(array, offset, (int) (value >>> 32));
+		writeInt(array, offset + 4, (int) value);
+	}
+
+	public static int readInt(byte[] array, int offset) {
+		return (array[offset] & 0xFF) << 24
+				| (array[offset + 1] & 0xFF) << 16
+				| (array[offset + 2] & 0xFF) << 8
+				| (array[offset + 3] & 0xFF);
+	}
+
+	public static long readLong(byte[] array, int offset) {
+		return (long) readInt(array, offset) << 32 | (readInt(array, offset + 4) & 0xFFFFFFFFL);
+	}
+}
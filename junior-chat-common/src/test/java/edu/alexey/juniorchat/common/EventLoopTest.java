@@ -0,0 +1,115 @@
+package edu.alexey.juniorchat.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class EventLoopTest {
+
+	@Test
+	void tasksRunOnTheLoopInOrder() throws Exception {
+		try (var loop = new EventLoop("test-loop")) {
+			loop.start();
+			List<Integer> ran = new ArrayList<>();
+			var done = new CompletableFuture<Boolean>();
+
+			for (int i = 0; i < 100; ++i) {
+				int task = i;
+				loop.execute(() -> ran.add(task));
+			}
+			loop.execute(() -> done.complete(loop.inEventLoop()));
+
+			assertThat(done.get(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(ran).hasSize(100).isSorted();
+		}
+	}
+
+	@Test
+	void timersFireAfterTheirDelaySoonestFirst() throws Exception {
+		try (var loop = new EventLoop("test-loop")) {
+			loop.start();
+			List<Long> fired = new ArrayList<>();
+			var done = new CompletableFuture<Void>();
+			long start = System.nanoTime();
+
+			loop.schedule(() -> {
+				fired.add(100L);
+				done.complete(null);
+			}, 100, TimeUnit.MILLISECONDS);
+			loop.schedule(() -> fired.add(50L), 50, TimeUnit.MILLISECONDS);
+
+			done.get(5, TimeUnit.SECONDS);
+			assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+			assertThat(fired).containsExactly(50L, 100L);
+		}
+	}
+
+	@Test
+	void registeredChannelIsHandledOnTheLoop() throws Exception {
+		var pipe = Pipe.open();
+		try (var loop = new EventLoop("test-loop"); var sink = pipe.sink(); var source = pipe.source()) {
+			loop.start();
+			source.configureBlocking(false);
+			var read = new CompletableFuture<String>();
+
+			loop.register(source, SelectionKey.OP_READ, key -> {
+				ByteBuffer buffer = loop.readBuffer().clear();
+				source.read(buffer);
+				read.complete(new String(buffer.array(), 0, buffer.position()));
+			});
+			sink.write(ByteBuffer.wrap("ready".getBytes()));
+
+			assertThat(read.get(5, TimeUnit.SECONDS)).isEqualTo("ready");
+		}
+	}
+
+	@Test
+	void failingHandlerClosesItsChannelOnly() throws Exception {
+		var failing = Pipe.open();
+		var healthy = Pipe.open();
+		try (var loop = new EventLoop("test-loop"); var failingSink = failing.sink(); var sink = healthy.sink();
+				var failingSource = failing.source(); var source = healthy.source()) {
+			loop.start();
+			failingSource.configureBlocking(false);
+			source.configureBlocking(false);
+			var read = new CompletableFuture<String>();
+
+			loop.register(failingSource, SelectionKey.OP_READ, key -> {
+				throw new IllegalStateException("handler bug");
+			});
+			loop.register(source, SelectionKey.OP_READ, key -> {
+				ByteBuffer buffer = loop.readBuffer().clear();
+				source.read(buffer);
+				read.complete(new String(buffer.array(), 0, buffer.position()));
+			});
+			failingSink.write(ByteBuffer.wrap("boom".getBytes()));
+			Thread.sleep(100);
+			sink.write(ByteBuffer.wrap("still here".getBytes()));
+
+			assertThat(read.get(5, TimeUnit.SECONDS)).isEqualTo("still here");
+			assertThat(failingSource.isOpen()).isFalse();
+			assertThat(source.isOpen()).isTrue();
+		}
+	}
+
+	@Test
+	void closedLoopDropsItsTimers() throws IOException, InterruptedException {
+		var fired = new CompletableFuture<Void>();
+		try (var loop = new EventLoop("test-loop")) {
+			loop.start();
+			loop.schedule(() -> fired.complete(null), 200, TimeUnit.MILLISECONDS);
+		}
+
+		Thread.sleep(400);
+		assertThat(fired).isNotDone();
+	}
+}
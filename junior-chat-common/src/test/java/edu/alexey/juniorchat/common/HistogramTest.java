@@ -0,0 +1,99 @@
+package edu.alexey.juniorchat.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+
+	@Test
+	void smallValuesAreExact() {
+		var histogram = new Histogram();
+		for (int value = 1; value <= 100; ++value) {
+			histogram.record(value);
+		}
+
+		assertThat(histogram.count()).isEqualTo(100);
+		assertThat(histogram.min()).isEqualTo(1);
+		assertThat(histogram.max()).isEqualTo(100);
+		assertThat(histogram.percentile(50)).isEqualTo(50);
+		assertThat(histogram.percentile(99)).isEqualTo(99);
+		assertThat(histogram.percentile(100)).isEqualTo(100);
+		assertThat(histogram.mean()).isEqualTo(50.5);
+	}
+
+	@Test
+	void largeValuesStayWithinPrecision() {
+		var histogram = new Histogram();
+		for (long value = 1; value <= 1_000_000; ++value) {
+			histogram.record(value * 1000);
+		}
+
+		assertThat((double) histogram.percentile(50)).isCloseTo(500_000_000, within(500_000_000 / 128.0));
+		assertThat((double) histogram.percentile(99.9)).isCloseTo(999_000_000, within(999_000_000 / 128.0));
+		assertThat(histogram.percentile(100)).isEqualTo(1_000_000_000);
+	}
+
+	@Test
+	void bucketsAreContiguous() {
+		for (long value = 0; value < 1 << 16; ++value) {
+			int index = Histogram.indexOf(value);
+			assertThat(Histogram.highestEquivalentValue(index)).isGreaterThanOrEqualTo(value);
+			assertThat(Histogram.indexOf(value + 1)).isBetween(index, index + 1);
+		}
+		assertThat(Histogram.indexOf(Long.MAX_VALUE)).isEqualTo(7295);
+	}
+
+	@Test
+	void emptyHistogramReportsZeros() {
+		var histogram = new Histogram();
+
+		assertThat(histogram.percentile(99)).isZero();
+		assertThat(histogram.min()).isZero();
+		assertThat(histogram.mean()).isZero();
+	}
+
+	@Test
+	void addedHistogramIsMerged() {
+		var histogram = new Histogram();
+		var other = new Histogram();
+		for (int value = 1; value <= 50; ++value) {
+			histogram.record(value);
+			other.record(value + 50);
+		}
+
+		histogram.add(other);
+		histogram.add(new Histogram());
+
+		assertThat(histogram.count()).isEqualTo(100);
+		assertThat(histogram.min()).isEqualTo(1);
+		assertThat(histogram.max()).isEqualTo(100);
+		assertThat(histogram.percentile(99)).isEqualTo(99);
+		assertThat(histogram.mean()).isEqualTo(50.5);
+	}
+
+	@Test
+	void concurrentRecordsAreAllCounted() throws InterruptedException {
+		var histogram = new Histogram();
+		var threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; ++t) {
+			threads.add(Thread.ofPlatform().start(() -> {
+				for (int value = 1; value <= 100_000; ++value) {
+					histogram.record(value % 1000);
+				}
+			}));
+		}
+		for (var thread : threads) {
+			thread.join();
+		}
+
+		assertThat(histogram.count()).isEqualTo(800_000);
+		assertThat(histogram.sum()).isEqualTo(8 * 100 * 499_500L);
+		assertThat(histogram.min()).isZero();
+		assertThat(histogram.max()).isEqualTo(999);
+		assertThat(histogram.percentile(100)).isEqualTo(999);
+	}
+}
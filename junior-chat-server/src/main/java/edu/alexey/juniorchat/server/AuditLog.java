@@ -0,0 +1,332 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Record of what the participants did, one JSON object per line, e.g.
+// {"ts":1760000000000,"ev":"chat","id":7,"seq":42,"room":"lobby","body":"..."}.
+// A caller only fills a slot of a preallocated ring with a reference to the shared message, allocating nothing;
+// a single background thread formats and writes whatever has been queued, flushing once per batch, and rolls
+// the file over at maxBytes, keeping file.1 .. file.N. When the writer falls behind by the ring's capacity,
+// queueCapacity rounded up to a power of two, the new records are dropped and counted.
+public class AuditLog implements Closeable {
+
+	public enum Event {
+		CONNECT, DISCONNECT, CHAT, DIRECT, JOIN, KICK, ADMIN, FLOOD, RESUME;
+
+		private final String name = name().toLowerCase(Locale.ROOT);
+	}
+
+	// A slot of the ring, reused lap after lap. For the records numbered index, index + capacity, ... it is free
+	// to a producer while sequence == index and holds the record for the writer once sequence == index + 1
+	// (a bounded multi-producer queue after D. Vyukov): the fields are published by the release of sequence.
+	private static final class Slot {
+		@SuppressWarnings("unused") // through SEQUENCE
+		private long sequence;
+		private long timestamp;
+		private Event event;
+		private int id;
+		private int targetId;
+		private String detail;
+		private EncodedMessage message;
+
+		Slot(long sequence) {
+			this.sequence = sequence;
+		}
+	}
+
+	private static final VarHandle SEQUENCE;
+
+	static {
+		try {
+			SEQUENCE = MethodHandles.lookup().findVarHandle(Slot.class, "sequence", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_QUEUE_CAPACITY = 1 << 30;
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final Path file;
+	private final long maxBytes;
+	private final int files;
+	private final Slot[] slots;
+	private final int mask;
+	// the number of the next record to be claimed by a producer
+	private final AtomicLong claimed = new AtomicLong();
+	// counted on the overload path only, so by the contended cells of an adder
+	private final LongAdder dropped = new LongAdder();
+	private final Thread writer;
+	// the writer's own: the number of the next record to be written
+	private long taken;
+	// the writer's own, reused for every record
+	private final StringBuilder line = new StringBuilder(256);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private CharBuffer chars = CharBuffer.allocate(256);
+	private ByteBuffer encoded = ByteBuffer.allocate(1024);
+
+	private OutputStream output;
+	private long written;
+	private volatile boolean isClosed;
+
+	private AuditLog(Path file, long maxBytes, int files, int queueCapacity) throws IOException {
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.files = files;
+		// a single slot could not tell a free one from a full one
+		int capacity = Math.max(2, Integer.highestOneBit(queueCapacity - 1) << 1);
+		this.slots = new Slot[capacity];
+		for (int i = 0; i < capacity; ++i) {
+			slots[i] = new Slot(i);
+		}
+		this.mask = capacity - 1;
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		openFile();
+		this.writer = Thread.ofPlatform().daemon().name("audit-writer").start(this::writeRecords);
+	}
+
+	public static AuditLog open(Path file, long maxBytes, int files, int queueCapacity) throws IOException {
+		if (maxBytes < 1 || files < 1 || queueCapacity < 1 || queueCapacity > MAX_QUEUE_CAPACITY) {
+			throw new IllegalArgumentException("Illegal audit log size " + maxBytes + " x " + files
+					+ " or queue capacity " + queueCapacity);
+		}
+		return new AuditLog(file, maxBytes, files, queueCapacity);
+	}
+
+	public static AuditLog fromSettings() throws IOException {
+		var settings = Settings.instance();
+		return open(Path.of(settings.getAuditFile()), settings.getAuditMaxBytes(), settings.getAuditFiles(),
+				settings.getAuditQueueCapacity());
+	}
+
+	// a chat message to the room, or a direct one to recipientId when room is null
+	public void message(EncodedMessage message, Room room, int recipientId) {
+		enqueue(room == null ? Event.DIRECT : Event.CHAT, message.senderId(), recipientId,
+				room == null ? null : room.getName(), message);
+	}
+
+	// targetId is 0 when there is no other participant involved, detail may be null
+	public void event(Event event, int id, int targetId, String detail) {
+		enqueue(event, id, targetId, detail, null);
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	private void enqueue(Event event, int id, int targetId, String detail, EncodedMessage message) {
+		if (isClosed) {
+			return;
+		}
+		long index = claimed.get();
+		Slot slot;
+		while (true) {
+			slot = slots[(int) index & mask];
+			long sequence = (long) SEQUENCE.getAcquire(slot);
+			if (sequence == index) {
+				if (claimed.compareAndSet(index, index + 1)) {
+					break;
+				}
+				index = claimed.get();
+			} else if (sequence < index) {
+				// the slot still holds the record of the previous lap: the ring is full
+				dropped.increment();
+				return;
+			} else {
+				// another producer has claimed it meanwhile
+				index = claimed.get();
+			}
+		}
+		slot.timestamp = System.currentTimeMillis();
+		slot.event = event;
+		slot.id = id;
+		slot.targetId = targetId;
+		slot.detail = detail;
+		slot.message = message;
+		SEQUENCE.setRelease(slot, index + 1);
+	}
+
+	// null when nothing has been published at the head of the ring
+	private Slot peek() {
+		Slot slot = slots[(int) taken & mask];
+		return (long) SEQUENCE.getAcquire(slot) == taken + 1 ? slot : null;
+	}
+
+	// hands the slot back to the producers of the next lap, not keeping the message alive
+	private void release(Slot slot) {
+		slot.detail = null;
+		slot.message = null;
+		SEQUENCE.setRelease(slot, taken + slots.length);
+		++taken;
+	}
+
+	// everything queued is written before the file is closed
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long droppedRecords = dropped.sum();
+		if (droppedRecords > 0) {
+			logger.warn("Audit log {} dropped {} records as the writer fell behind.", file, droppedRecords);
+		}
+	}
+
+	private void writeRecords() {
+		try {
+			while (true) {
+				boolean closing = isClosed;
+				Slot slot = peek();
+				if (slot == null) {
+					if (closing) {
+						break;
+					}
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+					continue;
+				}
+				do {
+					write(slot);
+					release(slot);
+				} while ((slot = peek()) != null);
+				output.flush();
+			}
+		} catch (IOException e) {
+			logger.error("Audit log " + file + " is not writable, records are discarded from now on:", e);
+			isClosed = true;
+		} finally {
+			try {
+				output.close();
+			} catch (IOException e) {
+				logger.error("Exception occurred on audit log close attempt:", e);
+			}
+		}
+	}
+
+	private void write(Slot slot) throws IOException {
+		line.setLength(0);
+		line.append("{\"ts\":").append(slot.timestamp)
+				.append(",\"ev\":\"").append(slot.event.name).append('"')
+				.append(",\"id\":").append(slot.id);
+		if (slot.targetId != 0) {
+			line.append(",\"to\":").append(slot.targetId);
+		}
+		EncodedMessage message = slot.message;
+		if (message != null) {
+			line.append(",\"seq\":").append(message.sequence());
+		}
+		if (slot.detail != null) {
+			appendString(slot.event == Event.CONNECT ? ",\"address\":" : ",\"room\":", slot.detail);
+		}
+		if (message != null) {
+			appendString(",\"body\":", message.body());
+		}
+		line.append("}\n");
+
+		int length = encode();
+		if (written > 0 && written + length > maxBytes) {
+			roll();
+		}
+		output.write(encoded.array(), 0, length);
+		written += length;
+	}
+
+	private int encode() {
+		if (chars.capacity() < line.length()) {
+			chars = CharBuffer.allocate(line.capacity());
+		}
+		line.getChars(0, line.length(), chars.array(), 0);
+		while (true) {
+			encoded.clear();
+			encoder.reset();
+			chars.clear().limit(line.length());
+			CoderResult result = encoder.encode(chars, encoded, true);
+			if (!result.isOverflow()) {
+				result = encoder.flush(encoded);
+			}
+			if (!result.isOverflow()) {
+				return encoded.position();
+			}
+			encoded = ByteBuffer.allocate(Math.max(encoded.capacity() * 2, line.length() * 3));
+		}
+	}
+
+	private void appendString(String key, String value) {
+		line.append(key).append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"' -> line.append("\\\"");
+			case '\\' -> line.append("\\\\");
+			case '\n' -> line.append("\\n");
+			case '\r' -> line.append("\\r");
+			case '\t' -> line.append("\\t");
+			default -> {
+				if (c < 0x20) {
+					line.append(String.format("\\u%04x", (int) c));
+				} else {
+					line.append(c);
+				}
+			}
+			}
+		}
+		line.append('"');
+	}
+
+	private void roll() throws IOException {
+		output.close();
+		Files.deleteIfExists(numbered(files));
+		for (int n = files - 1; n >= 1; --n) {
+			Path source = numbered(n);
+			if (Files.exists(source)) {
+				Files.move(source, numbered(n + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		Files.move(file, numbered(1), StandardCopyOption.REPLACE_EXISTING);
+		openFile();
+	}
+
+	private Path numbered(int n) {
+		return file.resolveSibling(file.getFileName() + "." + n);
+	}
+
+	private void openFile() throws IOException {
+		output = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND), BUFFER_SIZE);
+		written = Files.size(file);
+	}
+}
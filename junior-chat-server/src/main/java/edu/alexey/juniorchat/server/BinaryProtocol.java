@@ -0,0 +1,62 @@
+package edu.alexey.juniorchat.server;
+
+import static edu.alexey.juniorchat.common.WireProtocol.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Server side of the optional length-prefixed framing defined by WireProtocol.
+// A heartbeat, the server's ping and the client's pong alike, is the HEARTBEAT_MARKER text line, or a PROTOCOL
+// frame with it for the payload once the connection is switched to frames. GOODBYE_MARKER, in the same forms,
+// precedes a close on purpose, after which the client is not to reconnect. Deflated payloads are only sent to
+// a client that asked for them by PREAMBLE_DEFLATE; either side may send them once the preamble is through.
+public final class BinaryProtocol {
+
+	private static final byte[] HEARTBEAT_LINE = HEARTBEAT_MARKER.getBytes(StandardCharsets.US_ASCII);
+
+	private BinaryProtocol() {
+	}
+
+	public static boolean isPreamble(byte[] array, int offset) {
+		return Arrays.equals(array, offset, offset + PREAMBLE.length, PREAMBLE, 0, PREAMBLE.length);
+	}
+
+	// what the client asked for by its preamble, null for an unknown one; TEXT for a text client
+	// whose first line is a pong, as long as the preamble
+	public static WireFormat preambleFormat(byte[] array, int offset) {
+		if (Arrays.equals(array, offset, offset + HEARTBEAT_LINE.length, HEARTBEAT_LINE, 0, HEARTBEAT_LINE.length)) {
+			return WireFormat.TEXT;
+		}
+		if (isPreamble(array, offset)) {
+			return WireFormat.BINARY;
+		}
+		if (Arrays.equals(array, offset, offset + PREAMBLE_DEFLATE.length, PREAMBLE_DEFLATE, 0,
+				PREAMBLE_DEFLATE.length)) {
+			return Settings.instance().isCompression() ? WireFormat.DEFLATE : WireFormat.BINARY;
+		}
+		return null;
+	}
+
+	public static boolean isDeflated(byte type) {
+		return (type & DEFLATED) != 0;
+	}
+
+	// from a client such a frame is a pong, nothing else is defined for it
+	public static boolean isProtocol(byte type) {
+		return (type & ~DEFLATED) == MessageType.PROTOCOL.code();
+	}
+
+	public static MessageType typeOf(byte type) {
+		return MessageType.fromCode((byte) (type & ~DEFLATED));
+	}
+
+	public static byte[] encode(MessageType type, int senderId, long sequence, byte[] payload) {
+		byte[] frame = new byte[HEADER_LENGTH + payload.length];
+		frame[0] = type.code();
+		writeInt(frame, 1, senderId);
+		writeLong(frame, 5, sequence);
+		writeInt(frame, 13, payload.length);
+		System.arraycopy(payload, 0, frame, HEADER_LENGTH, payload.length);
+		return frame;
+	}
+}
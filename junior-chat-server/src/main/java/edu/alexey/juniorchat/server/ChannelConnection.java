@@ -0,0 +1,416 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+
+import edu.alexey.juniorchat.common.EventLoop;
+import edu.alexey.juniorchat.common.WireProtocol;
+
+// non-blocking connection, all of its I/O is performed by the owning EventLoop
+public class ChannelConnection extends Connection implements EventLoop.Handler {
+
+	private static final long serialVersionUID = 1L; // to conform JavaBeans Spec.
+	private static final int MAX_PENDING_SIZE = WireProtocol.HEADER_LENGTH + WireProtocol.MAX_PAYLOAD_LENGTH;
+	private static final int INITIAL_PENDING_SIZE = 256;
+	private static final int MAX_GATHER = 64;
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private final SocketChannel channel;
+	private final EventLoop eventLoop;
+	private final Charset charset;
+
+	private final OutboundQueue<EncodedMessage> outbound;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final long coalesceNanos;
+	private final int coalesceBytes;
+	private volatile long flushRequestedAt;
+
+	private enum Inbound {
+		UNKNOWN, TEXT, BINARY
+	}
+
+	// accessed by the event loop only
+	private SelectionKey key;
+	private Inbound inbound = Inbound.UNKNOWN;
+	// bytes of an incomplete line or frame
+	private ByteBuffer pending;
+	// taken off the queue, so that DROP_OLDEST never cuts a message half-written
+	private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+	private int batchOffset;
+	private int batchLength;
+	private int batchMessages;
+	private int batchWriteCalls;
+	private long batchHeldOpen;
+	private long batchBytes;
+	private long batchWriteNanos;
+	private WireFormat requestedFormat = WireFormat.TEXT;
+	private WireFormat outFormat = WireFormat.TEXT;
+	private EncodedMessage[] replaying;
+	private int replayIndex;
+
+	public ChannelConnection(SocketChannel channel, EventLoop eventLoop, BiConsumer<Connection, String> messageConsumer)
+			throws IOException {
+
+		super(remoteAddressOf(channel), messageConsumer, RateLimiter.fromSettings());
+		this.channel = channel;
+		this.eventLoop = Objects.requireNonNull(eventLoop);
+		this.charset = Settings.instance().getCharset();
+		this.outbound = OutboundQueue.fromSettings();
+		this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(Settings.instance().getOutboundCoalesceMillis());
+		this.coalesceBytes = Settings.instance().getOutboundCoalesceBytes();
+
+		channel.configureBlocking(false);
+	}
+
+	private static String remoteAddressOf(SocketChannel channel) throws IOException {
+		var address = (InetSocketAddress) Objects.requireNonNull(channel).getRemoteAddress();
+		return address.getAddress().getHostAddress() + ":" + address.getPort();
+	}
+
+	public EventLoop getEventLoop() {
+		return eventLoop;
+	}
+
+	public void register() {
+		ensureReadyState();
+		eventLoop.execute(() -> {
+			try {
+				key = channel.register(eventLoop.selector(), SelectionKey.OP_READ, this);
+				// messages queued before registration may still wait for OP_WRITE
+				flush();
+			} catch (IOException e) {
+				logger.error("Unable to register connection with {}:", getRemoteAddress(), e);
+				close();
+			}
+		});
+	}
+
+	@Override
+	public void handle(SelectionKey key) throws IOException {
+		try {
+			if (key.isReadable()) {
+				read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				flush();
+			}
+		} catch (IOException e) {
+			logger.info("Connection with {} is broken: {}", getRemoteAddress(), e.getMessage());
+			close();
+		}
+	}
+
+	// a message handler has thrown: this connection is closed, the others on the loop go on
+	@Override
+	public void failed(SelectionKey key, RuntimeException e) {
+		close();
+	}
+
+	private void read() throws IOException {
+		ByteBuffer buffer = eventLoop.readBuffer();
+		buffer.clear();
+		int n = channel.read(buffer);
+		if (n < 0) {
+			close();
+			return;
+		}
+		ServerMetrics.instance().bytesReceived(n);
+		markRead();
+		buffer.flip();
+
+		if (pending == null || pending.position() == 0) {
+			int consumed = frame(buffer.array(), 0, buffer.limit());
+			if (consumed < buffer.limit() && !isClosing()) {
+				appendPending(buffer.array(), consumed, buffer.limit() - consumed);
+			}
+		} else {
+			appendPending(buffer.array(), 0, buffer.limit());
+			if (!isClosing()) {
+				pending.flip();
+				pending.position(frame(pending.array(), 0, pending.limit()));
+				pending.compact();
+			}
+		}
+		suspendIfThrottled();
+	}
+
+	// what is left of the last read waits in pending, the rest in the socket buffers, until reading resumes
+	private void suspendIfThrottled() {
+		long nanos = takeReadPause();
+		if (nanos > 0 && !isClosing() && key.isValid()) {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			eventLoop.schedule(this::resumeReading, nanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void resumeReading() {
+		if (isClosing() || !key.isValid()) {
+			return;
+		}
+		if (pending != null && pending.position() > 0) {
+			pending.flip();
+			pending.position(frame(pending.array(), 0, pending.limit()));
+			pending.compact();
+		}
+		if (isReadPaused()) {
+			suspendIfThrottled();
+		} else {
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		}
+	}
+
+	// dispatches every complete line or frame in array[from, to), returns the offset of the first unconsumed byte
+	private int frame(byte[] array, int from, int to) {
+		int i = from;
+		while (i < to && !isClosing() && !isReadPaused()) {
+			switch (inbound) {
+			case UNKNOWN -> {
+				if (array[i] != WireProtocol.PREAMBLE[0]) {
+					inbound = Inbound.TEXT;
+				} else if (to - i < WireProtocol.PREAMBLE.length) {
+					return i;
+				} else if ((requestedFormat = BinaryProtocol.preambleFormat(array, i)) == WireFormat.TEXT) {
+					inbound = Inbound.TEXT;
+				} else if (requestedFormat != null) {
+					inbound = Inbound.BINARY;
+					i += WireProtocol.PREAMBLE.length;
+					scheduleFlush();
+				} else {
+					requestedFormat = WireFormat.TEXT;
+					logger.warn("Unsupported protocol preamble from {}, dropping connection.", getRemoteAddress());
+					close();
+				}
+			}
+			case TEXT -> {
+				int lf = i;
+				while (lf < to && array[lf] != LF) {
+					++lf;
+				}
+				if (lf == to) {
+					return i;
+				}
+				dispatchLine(array, i, lf - i);
+				i = lf + 1;
+			}
+			case BINARY -> {
+				if (to - i < WireProtocol.HEADER_LENGTH) {
+					return i;
+				}
+				int length = WireProtocol.payloadLength(array, i);
+				if (length < 0 || length > WireProtocol.MAX_PAYLOAD_LENGTH) {
+					logger.warn("Illegal frame length {} from {}, dropping connection.", length, getRemoteAddress());
+					close();
+					return to;
+				}
+				if (to - i < WireProtocol.HEADER_LENGTH + length) {
+					return i;
+				}
+				dispatchFrame(array, i, length);
+				i += WireProtocol.HEADER_LENGTH + length;
+			}
+			}
+		}
+		return i;
+	}
+
+	private void appendPending(byte[] src, int offset, int length) {
+		if (pending == null) {
+			pending = ByteBuffer.allocate(Math.max(INITIAL_PENDING_SIZE, length));
+		}
+		if (pending.remaining() < length) {
+			int required = pending.position() + length;
+			if (required > MAX_PENDING_SIZE) {
+				logger.warn("Message from {} exceeds {} bytes, dropping connection.", getRemoteAddress(), MAX_PENDING_SIZE);
+				close();
+				return;
+			}
+			ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_PENDING_SIZE, Math.max(required, pending.capacity() * 2)));
+			pending.flip();
+			grown.put(pending);
+			pending = grown;
+		}
+		pending.put(src, offset, length);
+	}
+
+	private void dispatchFrame(byte[] array, int offset, int length) {
+		if (BinaryProtocol.isProtocol(array[offset])) {
+			return;
+		}
+		int payload = offset + WireProtocol.HEADER_LENGTH;
+		if (!BinaryProtocol.isDeflated(array[offset])) {
+			messageConsumer.accept(this, new String(array, payload, length, charset));
+			return;
+		}
+		try {
+			messageConsumer.accept(this, new String(PayloadCompression.inflate(array, payload, length), charset));
+		} catch (DataFormatException e) {
+			logger.warn("Malformed deflated frame from {}, dropping connection: {}", getRemoteAddress(), e.getMessage());
+			close();
+		}
+	}
+
+	private void dispatchLine(byte[] array, int offset, int length) {
+		if (length > 0 && array[offset + length - 1] == CR) {
+			--length;
+		}
+		String line = new String(array, offset, length, charset);
+		if (!line.equals(WireProtocol.HEARTBEAT_MARKER)) {
+			messageConsumer.accept(this, line);
+		}
+	}
+
+	@Override
+	public void acceptMessage(EncodedMessage message) {
+		if (isClosing()) {
+			return;
+		}
+		// producers are event loop threads here, which must never wait for another connection:
+		// BLOCK is DISCONNECT in this mode, as the server warns at startup
+		if (!outbound.offer(message, false)) {
+			outbound.clear();
+			dropSlowConsumer();
+			return;
+		}
+		scheduleFlush();
+	}
+
+	@Override
+	public OutboundStats getOutboundStats() {
+		return outbound.stats();
+	}
+
+	private void scheduleFlush() {
+		if (flushScheduled.compareAndSet(false, true)) {
+			flushRequestedAt = System.nanoTime();
+			if (coalesceNanos > 0) {
+				// give more messages the chance to join the batch
+				eventLoop.schedule(this::flushQuietly, coalesceNanos, TimeUnit.NANOSECONDS);
+			} else {
+				eventLoop.execute(this::flushQuietly);
+			}
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			logger.info("Connection with {} is broken: {}", getRemoteAddress(), e.getMessage());
+			close();
+		}
+	}
+
+	// event loop only
+	private void flush() throws IOException {
+		if (!channel.isOpen()) {
+			clearBatch();
+			outbound.clear();
+			return;
+		}
+
+		while (batchOffset < batchLength || fillBatch()) {
+			// one gathering write for the whole batch
+			long writeStart = System.nanoTime();
+			batchBytes += channel.write(batch, batchOffset, batchLength - batchOffset);
+			batchWriteNanos += System.nanoTime() - writeStart;
+			++batchWriteCalls;
+			while (batchOffset < batchLength && !batch[batchOffset].hasRemaining()) {
+				batch[batchOffset++] = null;
+			}
+			if (batchOffset < batchLength) {
+				// socket send buffer is full, wait for OP_WRITE
+				if (key != null && key.isValid()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+				return;
+			}
+			outbound.recordFlush(batchMessages, batchWriteCalls, batchHeldOpen);
+			ServerMetrics.instance().batchWritten(batchMessages, batchWriteCalls, batchBytes, batchWriteNanos,
+					batchHeldOpen);
+		}
+
+		if (key != null && key.isValid()) {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+		flushScheduled.set(false);
+		if (!outbound.isEmpty()) {
+			scheduleFlush();
+		}
+	}
+
+	// takes queued messages up to the gathering limits, false if there was nothing to take
+	private boolean fillBatch() {
+		batchOffset = batchLength = batchMessages = batchWriteCalls = 0;
+		batchBytes = batchWriteNanos = 0;
+		int bytes = 0;
+
+		if (outFormat != requestedFormat) {
+			batch[batchLength++] = EncodedMessage.BINARY_SWITCH.buffer(WireFormat.TEXT);
+			outFormat = requestedFormat;
+		}
+		EncodedMessage next;
+		while (batchLength < batch.length && bytes < coalesceBytes && (next = nextOutbound()) != null) {
+			ByteBuffer buffer = next.buffer(outFormat);
+			bytes += buffer.remaining();
+			batch[batchLength++] = buffer;
+			++batchMessages;
+		}
+		batchHeldOpen = System.nanoTime() - flushRequestedAt;
+		return batchLength > 0;
+	}
+
+	// queued messages, with a replay expanded in place
+	private EncodedMessage nextOutbound() {
+		while (true) {
+			if (replaying != null) {
+				if (replayIndex < replaying.length) {
+					return replaying[replayIndex++];
+				}
+				replaying = null;
+			}
+			EncodedMessage next = outbound.poll();
+			if (next != EncodedMessage.REPLAY) {
+				return next;
+			}
+			replaying = takeReplay();
+			replayIndex = 0;
+		}
+	}
+
+	private void clearBatch() {
+		for (int i = batchOffset; i < batchLength; ++i) {
+			batch[i] = null;
+		}
+		batchOffset = batchLength = 0;
+	}
+
+	@Override
+	protected void closeTransport() throws IOException {
+		// let the event loop send what was queued before the close request, then close
+		eventLoop.execute(() -> {
+			try {
+				flush();
+			} catch (IOException ignore) {
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.error("Error occurred on SocketChannel close attempt:", e);
+			}
+			clearBatch();
+			replaying = null;
+			outbound.clear();
+		});
+	}
+
+}
@@ -0,0 +1,384 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+// Link of this server to the other nodes of a cluster. Every node listens for the others and dials each of them,
+// so a connection carries frames one way only and needs no arbitration. The dialing node sends the hello
+// magic(4) nodeId(4), is answered with a random challenge(16) and proves it knows the cluster secret with
+// HMAC-SHA256(secret, challenge nodeId)(32); a link is accepted only from the address listed for the node.
+// Then go the frames: kind(1) targetId(4) roomLength(2) room(roomLength) frame, big-endian,
+// where frame is the message's shared binary encoding, as in the message log, sequence number of the origin node
+// included.
+// Delivery is at most once: frames queued for a node that is down wait up to the outbound queue capacity,
+// the oldest are dropped, and a frame being written when the link breaks is lost.
+public class ClusterNode implements Closeable {
+
+	// What the other nodes relay to this one. A relayed message keeps the sequence number given by its origin node,
+	// which means nothing here: every node numbers its messages on its own. The receiver numbers it anew before
+	// delivering it or keeping it in a history, so that the sequence numbers a participant is given, and resumes
+	// from, all come from the node it is connected to.
+	public interface Receiver {
+
+		// a broadcast to the room of the given name
+		void relayedBroadcast(String room, EncodedMessage message);
+
+		// to a participant connected to this node
+		void relayedDirect(int recipientId, EncodedMessage message);
+
+		// the participant is to be disconnected, having been sent the notice
+		void relayedKick(int id, EncodedMessage notice);
+	}
+
+	static final int HELLO_MAGIC = 0x4A434E31; // "JCN1"
+
+	private static final byte BROADCAST = 1;
+	private static final byte DIRECT = 2;
+	private static final byte KICK = 3;
+	private static final byte[] NO_ROOM = new byte[0];
+	private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+	private static final long RECONNECT_MIN_MILLIS = 100;
+	private static final long RECONNECT_MAX_MILLIS = 5000;
+	private static final long WRITER_POLL_MILLIS = 100;
+	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int CHALLENGE_LENGTH = 16;
+
+	private record Frame(byte kind, int targetId, byte[] room, EncodedMessage message) {
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final int nodeId;
+	private final Receiver receiver;
+	private final InetSocketAddress own;
+	private final SecretKeySpec secret;
+	private final SecureRandom random = new SecureRandom();
+	private final ServerSocket serverSocket;
+	// by node id, the other nodes only
+	private final Map<Integer, Peer> peers = new HashMap<>();
+	private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+	private volatile boolean isClosed;
+
+	// nodes maps every node id of the cluster to its link address, this node's entry tells the port to listen on
+	public ClusterNode(int nodeId, Map<Integer, InetSocketAddress> nodes, String secret, Receiver receiver)
+			throws IOException {
+		InetSocketAddress own = nodes.get(nodeId);
+		if (own == null) {
+			throw new IllegalArgumentException("Node " + nodeId + " is not among the cluster nodes " + nodes);
+		}
+		if (secret.isEmpty()) {
+			throw new IllegalArgumentException("Cluster secret is empty");
+		}
+		this.nodeId = nodeId;
+		this.receiver = receiver;
+		this.own = own;
+		this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+		for (var entry : nodes.entrySet()) {
+			if (entry.getKey() != nodeId) {
+				peers.put(entry.getKey(), new Peer(entry.getKey(), entry.getValue()));
+			}
+		}
+
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(own);
+		Thread.ofPlatform().daemon().name("cluster-accept").start(this::acceptLinks);
+		for (var peer : peers.values()) {
+			Thread.ofPlatform().daemon().name("cluster-peer-" + peer.nodeId).start(peer);
+		}
+		logger.info("Cluster node {} is listening on {} for {} other nodes.", nodeId, own, peers.size());
+	}
+
+	public static ClusterNode fromSettings(Receiver receiver) throws IOException {
+		var settings = Settings.instance();
+		return new ClusterNode(settings.getClusterNodeId(), settings.getClusterNodes(), settings.getClusterSecret(),
+				receiver);
+	}
+
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	public boolean isLocal(int participantId) {
+		return IdFactory.nodeOf(participantId) == nodeId;
+	}
+
+	// to every other node
+	public void relayBroadcast(Room room, EncodedMessage message) {
+		var frame = new Frame(BROADCAST, 0, room.getEncodedName(), message);
+		for (var peer : peers.values()) {
+			peer.offer(frame);
+		}
+	}
+
+	// to the node of the recipient; false if there is no such node
+	public boolean relayDirect(int recipientId, EncodedMessage message) {
+		return relay(new Frame(DIRECT, recipientId, NO_ROOM, message));
+	}
+
+	public boolean relayKick(int id, EncodedMessage notice) {
+		return relay(new Frame(KICK, id, NO_ROOM, notice));
+	}
+
+	private boolean relay(Frame frame) {
+		Peer peer = peers.get(IdFactory.nodeOf(frame.targetId()));
+		if (peer == null) {
+			return false;
+		}
+		peer.offer(frame);
+		return true;
+	}
+
+	// totals over the links to the other nodes
+	public OutboundStats getOutboundStats() {
+		var total = OutboundStats.EMPTY;
+		for (var peer : peers.values()) {
+			total = total.plus(peer.outbound.stats());
+		}
+		return total;
+	}
+
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		closeQuietly(serverSocket);
+		for (var socket : inbound) {
+			closeQuietly(socket);
+		}
+		for (var peer : peers.values()) {
+			Socket socket = peer.socket;
+			if (socket != null) {
+				closeQuietly(socket);
+			}
+		}
+		logger.info("Cluster node {} is closed.", nodeId);
+	}
+
+	private void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			logger.error("Exception occurred on cluster link close attempt:", e);
+		}
+	}
+
+	private void acceptLinks() {
+		while (!isClosed) {
+			try {
+				Socket socket = serverSocket.accept();
+				inbound.add(socket);
+				Thread.ofPlatform().daemon().name("cluster-link").start(() -> readLink(socket));
+			} catch (IOException e) {
+				if (!isClosed) {
+					logger.error("Exception occurred on accepting a cluster link:", e);
+				}
+			}
+		}
+	}
+
+	private void readLink(Socket socket) {
+		int from = -1;
+		try (socket) {
+			var in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+			from = admit(socket, in);
+			if (from < 0) {
+				return;
+			}
+			logger.info("Linked from node {} at {}.", from, socket.getRemoteSocketAddress());
+
+			byte[] header = new byte[WireProtocol.HEADER_LENGTH];
+			while (!isClosed) {
+				byte kind = in.readByte();
+				int targetId = in.readInt();
+				byte[] room = new byte[in.readUnsignedShort()];
+				in.readFully(room);
+				in.readFully(header);
+				int length = WireProtocol.payloadLength(header, 0);
+				if (length < 0 || length > WireProtocol.MAX_PAYLOAD_LENGTH) {
+					throw new IOException("Illegal payload length " + length);
+				}
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				var message = EncodedMessage.of(MessageType.fromCode(header[0]), WireProtocol.readInt(header, 1),
+						WireProtocol.readLong(header, 5), new String(payload, Settings.instance().getCharset()));
+				dispatch(kind, targetId, room, message);
+			}
+		} catch (EOFException | SocketException e) {
+			if (!isClosed) {
+				logger.info("Link from node {} is closed.", from);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			logger.error("Link from node " + from + " is broken:", e);
+		} finally {
+			inbound.remove(socket);
+		}
+	}
+
+	// the id of a listed node linking from its own address and proving it knows the secret, -1 for anyone else
+	private int admit(Socket socket, DataInputStream in) throws IOException {
+		// a stranger holding the link open must not keep the thread
+		socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+		if (in.readInt() != HELLO_MAGIC) {
+			logger.warn("Not a cluster node at {}, link refused.", socket.getRemoteSocketAddress());
+			return -1;
+		}
+		int from = in.readInt();
+		Peer peer = peers.get(from);
+		if (peer == null || !socket.getInetAddress().equals(peer.address.getAddress())) {
+			logger.warn("Node {} is not expected at {}, link refused.", from, socket.getRemoteSocketAddress());
+			return -1;
+		}
+		byte[] challenge = new byte[CHALLENGE_LENGTH];
+		random.nextBytes(challenge);
+		var out = socket.getOutputStream();
+		out.write(challenge);
+		out.flush();
+		byte[] expected = prove(challenge, from);
+		byte[] proof = new byte[expected.length];
+		in.readFully(proof);
+		if (!MessageDigest.isEqual(proof, expected)) {
+			logger.warn("Node {} at {} does not know the cluster secret, link refused.", from,
+					socket.getRemoteSocketAddress());
+			return -1;
+		}
+		socket.setSoTimeout(0);
+		return from;
+	}
+
+	private byte[] prove(byte[] challenge, int from) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(secret);
+			mac.update(challenge);
+			return mac.doFinal(ByteBuffer.allocate(Integer.BYTES).putInt(from).array());
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+		}
+	}
+
+	private void dispatch(byte kind, int targetId, byte[] room, EncodedMessage message) {
+		switch (kind) {
+		case BROADCAST -> receiver.relayedBroadcast(new String(room, StandardCharsets.UTF_8), message);
+		case DIRECT -> receiver.relayedDirect(targetId, message);
+		case KICK -> receiver.relayedKick(targetId, message);
+		default -> throw new IllegalArgumentException("Unknown cluster frame kind " + kind);
+		}
+	}
+
+	// the outgoing link to one node, dialed again with a growing delay while the node is unreachable
+	private final class Peer implements Runnable {
+
+		final int nodeId;
+		final InetSocketAddress address;
+		// never blocks a broadcasting thread, nor disconnects a node
+		final OutboundQueue<Frame> outbound = new OutboundQueue<>(Settings.instance().getOutboundQueueCapacity(),
+				OverflowPolicy.DROP_OLDEST, 0);
+		volatile Socket socket;
+
+		Peer(int nodeId, InetSocketAddress address) {
+			this.nodeId = nodeId;
+			this.address = address;
+		}
+
+		void offer(Frame frame) {
+			outbound.offer(frame, false);
+		}
+
+		@Override
+		public void run() {
+			long delay = RECONNECT_MIN_MILLIS;
+			while (!isClosed) {
+				try (Socket s = new Socket()) {
+					socket = s;
+					// from the address the other node expects this one at
+					if (!own.getAddress().isAnyLocalAddress()) {
+						s.bind(new InetSocketAddress(own.getAddress(), 0));
+					}
+					s.connect(address, CONNECT_TIMEOUT_MILLIS);
+					s.setTcpNoDelay(true);
+					var out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+					out.writeInt(HELLO_MAGIC);
+					out.writeInt(ClusterNode.this.nodeId);
+					out.flush();
+					s.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+					byte[] challenge = s.getInputStream().readNBytes(CHALLENGE_LENGTH);
+					if (challenge.length < CHALLENGE_LENGTH) {
+						throw new EOFException("Link refused by node " + nodeId);
+					}
+					out.write(prove(challenge, ClusterNode.this.nodeId));
+					out.flush();
+					s.setSoTimeout(0);
+					logger.info("Linked to node {} at {}.", nodeId, address);
+					delay = RECONNECT_MIN_MILLIS;
+					writeFrames(out);
+				} catch (IOException e) {
+					if (!isClosed) {
+						logger.warn("Node {} at {} is unreachable: {}", nodeId, address, e.getMessage());
+					}
+				}
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					return;
+				}
+				delay = Math.min(delay * 2, RECONNECT_MAX_MILLIS);
+			}
+		}
+
+		// everything queued meanwhile goes in one flush
+		private void writeFrames(DataOutputStream out) throws IOException {
+			while (!isClosed) {
+				Frame frame;
+				try {
+					frame = outbound.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (frame == null) {
+					continue;
+				}
+				int count = 0;
+				do {
+					out.writeByte(frame.kind());
+					out.writeInt(frame.targetId());
+					out.writeShort(frame.room().length);
+					out.write(frame.room());
+					out.write(frame.message().encoded(WireFormat.BINARY));
+					++count;
+				} while ((frame = outbound.poll()) != null);
+				out.flush();
+				outbound.recordFlush(count, 1, 0);
+			}
+		}
+	}
+}
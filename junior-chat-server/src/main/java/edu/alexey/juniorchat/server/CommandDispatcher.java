@@ -0,0 +1,146 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// single pass recognition of "@name", "@name N" and "@N" commands, without regex and copies
+public class CommandDispatcher {
+
+	public enum Arity {
+		// nothing but whitespace may follow the name
+		NONE,
+		// the name is followed by whitespace and a number, the rest of the line is the body
+		NUMBER,
+		// the name is followed by whitespace and a non-empty body, argument is 0
+		TEXT,
+		// as NUMBER, or nothing but whitespace with argument 0
+		OPTIONAL_NUMBER
+	}
+
+	@FunctionalInterface
+	public interface Handler {
+		// argument is 0 for Arity.NONE, body is line.subSequence(bodyStart, line.length());
+		// false means the command is not applicable and the line is to be treated as a plain message
+		boolean handle(Connection connection, String line, int argument, int bodyStart);
+	}
+
+	private record Entry(String name, Arity arity, Handler handler) {
+	}
+
+	private final char prefix;
+	// copy-on-write, dispatch() reads it without locking
+	private volatile Entry[] entries = new Entry[0];
+	private volatile Handler numericHandler;
+
+	public CommandDispatcher(char prefix) {
+		this.prefix = prefix;
+	}
+
+	public synchronized CommandDispatcher register(String name, Arity arity, Handler handler) {
+		Objects.requireNonNull(name);
+		if (name.isEmpty() || Character.isDigit(name.charAt(0)) || name.chars().anyMatch(Character::isWhitespace)) {
+			throw new IllegalArgumentException("Illegal command name: " + name);
+		}
+		var entry = new Entry(name, Objects.requireNonNull(arity), Objects.requireNonNull(handler));
+
+		Entry[] updated = Arrays.copyOf(entries, entries.length + 1);
+		updated[entries.length] = entry;
+		entries = updated;
+		return this;
+	}
+
+	// handler of "@N ..." lines, argument is N
+	public synchronized CommandDispatcher registerNumeric(Handler handler) {
+		numericHandler = Objects.requireNonNull(handler);
+		return this;
+	}
+
+	// false if the line is not a recognised command, or its handler declined it
+	public boolean dispatch(Connection connection, String line) {
+		int length = line.length();
+		int i = skipWhitespace(line, 0, length);
+		if (i == length || line.charAt(i) != prefix) {
+			return false;
+		}
+		++i;
+
+		if (i < length && Character.isDigit(line.charAt(i))) {
+			Handler handler = numericHandler;
+			if (handler == null) {
+				return false;
+			}
+			long number = parseNumber(line, i, length);
+			if (number < 0) {
+				return false;
+			}
+			int bodyStart = skipWhitespace(line, skipDigits(line, i, length), length);
+			return handler.handle(connection, line, (int) number, bodyStart);
+		}
+
+		int nameStart = i;
+		while (i < length && !Character.isWhitespace(line.charAt(i))) {
+			++i;
+		}
+		Entry entry = find(line, nameStart, i - nameStart);
+		if (entry == null) {
+			return false;
+		}
+
+		int rest = skipWhitespace(line, i, length);
+		if (entry.arity() == Arity.NONE || entry.arity() == Arity.OPTIONAL_NUMBER && rest == length) {
+			return rest == length && entry.handler().handle(connection, line, 0, length);
+		}
+
+		if (rest == i || rest == length) {
+			return false;
+		}
+		if (entry.arity() == Arity.TEXT) {
+			return entry.handler().handle(connection, line, 0, rest);
+		}
+		if (!Character.isDigit(line.charAt(rest))) {
+			return false;
+		}
+		long number = parseNumber(line, rest, length);
+		if (number < 0) {
+			return false;
+		}
+		int bodyStart = skipWhitespace(line, skipDigits(line, rest, length), length);
+		return entry.handler().handle(connection, line, (int) number, bodyStart);
+	}
+
+	private Entry find(String line, int offset, int length) {
+		for (Entry entry : entries) {
+			String name = entry.name();
+			if (name.length() == length && line.regionMatches(offset, name, 0, length)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private static int skipWhitespace(String line, int from, int to) {
+		while (from < to && Character.isWhitespace(line.charAt(from))) {
+			++from;
+		}
+		return from;
+	}
+
+	private static int skipDigits(String line, int from, int to) {
+		while (from < to && Character.isDigit(line.charAt(from))) {
+			++from;
+		}
+		return from;
+	}
+
+	// -1 if the digits do not fit into an int
+	private static long parseNumber(String line, int from, int to) {
+		long value = 0;
+		while (from < to && Character.isDigit(line.charAt(from))) {
+			value = value * 10 + Character.digit(line.charAt(from++), 10);
+			if (value > Integer.MAX_VALUE) {
+				return -1;
+			}
+		}
+		return value;
+	}
+}
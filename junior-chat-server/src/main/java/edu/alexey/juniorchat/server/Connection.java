@@ -0,0 +1,250 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// common part of a chat participant connection, independent of the I/O model
+public abstract class Connection implements Closeable, Serializable {
+
+	// told of the close once, on the thread that closed the connection
+	@FunctionalInterface
+	public interface CloseListener {
+		void connectionClosed(Connection connection);
+	}
+
+	private static final long serialVersionUID = 1L; // to conform JavaBeans Spec.
+	private static final EncodedMessage[] NO_REPLAY = new EncodedMessage[0];
+
+	protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	// changed by a resume, which gives the connection the id of the session it takes over, or by the registration
+	// when the id handed out is still held, after the ids have wrapped around
+	private volatile int id;
+	private final String remoteAddress;
+	protected final BiConsumer<Connection, String> messageConsumer;
+
+	// not a monitor: close() may run on a virtual thread, which must not get pinned
+	private final AtomicBoolean isClosing = new AtomicBoolean();
+	private volatile boolean isClosed;
+	// maintained by RoomRegistry
+	private volatile Room room;
+	// slot among the members of the room, maintained by Room under its lock
+	private int roomIndex = -1;
+	private transient volatile CloseListener closeListener;
+	// history to be sent at the position of EncodedMessage.REPLAY in the outbound queue
+	private final AtomicReference<EncodedMessage[]> replay = new AtomicReference<>();
+	// null - not limited
+	private final RateLimiter rateLimiter;
+	// requested while a message is handled, taken by the reader before it reads on; reader thread only
+	private long readPauseNanos;
+	// System.nanoTime() of the last input
+	private volatile long lastReadNanos = System.nanoTime();
+	// maintained by Heartbeats
+	private volatile TimingWheel.Timeout heartbeat;
+	// presented by the client to resume the session after a broken connection; 0 - not resumable
+	private volatile long resumeToken;
+	// false once the session is ended on purpose, by a quit, kick or the server
+	private volatile boolean resumable = true;
+
+	protected Connection(String remoteAddress, BiConsumer<Connection, String> messageConsumer) {
+		this(remoteAddress, messageConsumer, null);
+	}
+
+	protected Connection(String remoteAddress, BiConsumer<Connection, String> messageConsumer,
+			RateLimiter rateLimiter) {
+		this.messageConsumer = Objects.requireNonNull(messageConsumer);
+		this.remoteAddress = Objects.requireNonNull(remoteAddress);
+		this.rateLimiter = rateLimiter;
+		this.id = IdFactory.instance().getAsInt();
+		this.isClosed = false;
+	}
+
+	// stands in for a participant without a connection of its own
+	protected Connection(int id, String remoteAddress) {
+		this.id = id;
+		this.remoteAddress = Objects.requireNonNull(remoteAddress);
+		this.messageConsumer = null;
+		this.rateLimiter = null;
+		this.isClosed = false;
+	}
+
+	protected Connection() {
+		this.isClosed = true;
+		this.isClosing.set(true);
+		this.id = 0;
+		this.remoteAddress = "";
+		this.messageConsumer = null;
+		this.rateLimiter = null;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	void reassignId(int id) {
+		this.id = id;
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public Room getRoom() {
+		return room;
+	}
+
+	void setRoom(Room room) {
+		this.room = room;
+	}
+
+	int getRoomIndex() {
+		return roomIndex;
+	}
+
+	void setRoomIndex(int roomIndex) {
+		this.roomIndex = roomIndex;
+	}
+
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	protected boolean isClosing() {
+		return isClosing.get();
+	}
+
+	// a single listener, replacing the previous one
+	public void setCloseListener(CloseListener listener) {
+		ensureReadyState();
+		closeListener = listener;
+	}
+
+	@Override
+	public void close() {
+
+		if (!isClosing.compareAndSet(false, true)) {
+			return;
+		}
+
+		logger.info("Connection to {} is closing...", remoteAddress);
+
+		try {
+			closeTransport();
+		} catch (IOException e) {
+			logger.error("Error occurred on Connection close attempt:", e);
+		}
+
+		if (!isClosed) {
+			isClosed = true;
+			CloseListener listener = closeListener;
+			if (listener != null) {
+				listener.connectionClosed(this);
+			}
+			logger.info("Connection closed with {}.", remoteAddress);
+		}
+	}
+
+	public abstract void acceptMessage(EncodedMessage message);
+
+	public abstract OutboundStats getOutboundStats();
+
+	// the messages are written by the connection's writer, after whatever is queued already;
+	// a replay not started yet is replaced
+	public void replay(EncodedMessage[] history) {
+		if (history.length > 0) {
+			replay.set(history);
+			acceptMessage(EncodedMessage.REPLAY);
+		}
+	}
+
+	protected EncodedMessage[] takeReplay() {
+		EncodedMessage[] history = replay.getAndSet(null);
+		return history == null ? NO_REPLAY : history;
+	}
+
+	RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	// the reader is not to read anything more for the given time
+	void pauseReading(long nanos) {
+		readPauseNanos = Math.max(readPauseNanos, nanos);
+	}
+
+	protected boolean isReadPaused() {
+		return readPauseNanos > 0;
+	}
+
+	protected long takeReadPause() {
+		long nanos = readPauseNanos;
+		readPauseNanos = 0;
+		return nanos;
+	}
+
+	// anything read from the client, a message or a pong
+	protected void markRead() {
+		lastReadNanos = System.nanoTime();
+	}
+
+	long getLastReadNanos() {
+		return lastReadNanos;
+	}
+
+	TimingWheel.Timeout getHeartbeat() {
+		return heartbeat;
+	}
+
+	void setHeartbeat(TimingWheel.Timeout heartbeat) {
+		this.heartbeat = heartbeat;
+	}
+
+	// queues a heartbeat ping, never waiting for room in the outbound queue
+	void ping() {
+		acceptMessage(EncodedMessage.HEARTBEAT);
+	}
+
+	long getResumeToken() {
+		return resumeToken;
+	}
+
+	void setResumeToken(long resumeToken) {
+		this.resumeToken = resumeToken;
+	}
+
+	boolean isResumable() {
+		return resumable && resumeToken != 0;
+	}
+
+	void setResumable(boolean resumable) {
+		this.resumable = resumable;
+	}
+
+	// a session this far behind is not resumed either
+	protected void dropSlowConsumer() {
+		logger.warn("Outbound queue of {} overflowed, disconnecting.", remoteAddress);
+		resumable = false;
+		close();
+	}
+
+	// never waits for the transport to deliver what is queued, see awaitClosed()
+	protected abstract void closeTransport() throws IOException;
+
+	// after close(), until the transport is closed, which it is by its own linger at the latest
+	public void awaitClosed() throws InterruptedException {
+	}
+
+	protected void ensureReadyState() throws IllegalStateException {
+		if (isClosing.get()) {
+			throw new IllegalStateException();
+		}
+	}
+
+}
@@ -1,122 +1,106 @@
 package edu.alexey.juniorchat.server;
 
-import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
-import java.io.BufferedReader;
-import java.io.Closeable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.io.Serializable;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import edu.alexey.juniorchat.common.WireProtocol;
 
-public class ConnectionHandler implements Runnable, Closeable, Serializable {
+public class ConnectionHandler extends Connection implements Runnable {
 
 	private static final long serialVersionUID = 1L; // to conform JavaBeans Spec.
 	private static final int MAX_ERRORS = 10;
-
-	private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
-	private final Logger logger = LoggerFactory.getLogger(this.getClass());
-
-	private final Integer id;
-	private final String remoteAddress;
+	private static final long WRITER_POLL_MILLIS = 100;
+	private static final long CLOSE_LINGER_MILLIS = 1000;
+	private static final int READ_CHUNK_SIZE = 8 * 1024;
+	private static final int INITIAL_LINE_SIZE = 256;
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
 
 	private final Socket clientSocket;
-	private final BufferedReader reader;
-	private final PrintWriter writer;
-	private final BiConsumer<ConnectionHandler, String> messageConsumer;
+	private final InputStream input;
+	private final OutputStream output;
+	private final OutboundQueue<EncodedMessage> outbound;
+	private final CountDownLatch writerFinished = new CountDownLatch(1);
+	private final CountDownLatch socketClosed = new CountDownLatch(1);
 
-	private volatile boolean isClosing;
-	private boolean isClosed;
+	private volatile Thread writerThread;
+	// TEXT until the client's preamble asks for frames
+	private volatile WireFormat requestedFormat = WireFormat.TEXT;
 
-	public ConnectionHandler(Socket clientSocket, BiConsumer<ConnectionHandler, String> messageConsumer)
+	public ConnectionHandler(Socket clientSocket, BiConsumer<Connection, String> messageConsumer)
 			throws IOException {
 
-		this.messageConsumer = Objects.requireNonNull(messageConsumer);
-		this.clientSocket = Objects.requireNonNull(clientSocket);
-
-		this.remoteAddress = clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort();
-		InputStream is = clientSocket.getInputStream();
-		this.reader = new BufferedReader(new InputStreamReader(is));
-		OutputStream os = clientSocket.getOutputStream();
-		this.writer = new PrintWriter(os, true);
-		this.id = IdFactory.instance().getAsInt();
-		this.isClosed = false;
-		this.isClosing = false;
+		super(Objects.requireNonNull(clientSocket).getInetAddress().getHostAddress() + ":" + clientSocket.getPort(),
+				messageConsumer, RateLimiter.fromSettings());
+		this.clientSocket = clientSocket;
+
+		this.input = new BufferedInputStream(new CountingInputStream(clientSocket.getInputStream()));
+		this.output = new BufferedOutputStream(clientSocket.getOutputStream(),
+				Settings.instance().getOutboundCoalesceBytes());
+		this.outbound = OutboundQueue.fromSettings();
 	}
 
 	public ConnectionHandler() throws IOException {
-
-		this.isClosed = true;
-		this.isClosing = true;
-		this.id = 0;
-		this.remoteAddress = "";
+		super();
 		this.clientSocket = null;
-		this.reader = null;
-		this.writer = null;
-		this.messageConsumer = null;
-	}
-
-	public Integer getId() {
-		return id;
-	}
-
-	public String getRemoteAddress() {
-		return remoteAddress;
-	}
-
-	public boolean isClosed() {
-		return isClosed;
-	}
-
-	public void addPropertyChangeListener(PropertyChangeListener listener) {
-		ensureReadyState();
-		pcs.addPropertyChangeListener(listener);
-	}
-
-	public void removePropertyChangeListener(PropertyChangeListener listener) {
-		pcs.removePropertyChangeListener(listener);
+		this.input = null;
+		this.output = null;
+		this.outbound = null;
 	}
 
+	// the reader stops at once, the writer is given up to CLOSE_LINGER_MILLIS to deliver what was queued
+	// before the close request; the caller does not wait for it, so a kick or a shutdown closing any number
+	// of connections takes no longer than a single one
 	@Override
-	public void close() {
-
-		if (isClosing) {
+	protected void closeTransport() throws IOException {
+		if (outbound.isEmpty() || writerThread == null || Thread.currentThread() == writerThread) {
+			closeSocket();
 			return;
 		}
-		synchronized (this) {
-			if (isClosing) {
-				return;
-			}
-			isClosing = true;
-		}
-
-		logger.info("Connection to {} is closing...", remoteAddress);
-
 		if (!clientSocket.isClosed()) {
+			clientSocket.shutdownInput();
+		}
+		Thread.ofVirtual().name("linger-" + getId()).start(() -> {
 			try {
+				writerFinished.await(CLOSE_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			closeSocket();
+		});
+	}
 
+	private void closeSocket() {
+		try {
+			if (!clientSocket.isClosed()) {
 				clientSocket.close();
-				if (!isClosed) {
-					isClosed = true;
-					pcs.firePropertyChange("isClosed", false, true);
-					logger.info("Connection closed with {}.", remoteAddress);
-				}
-
-			} catch (IOException e) {
-				logger.error("Error occurred on ConnectionHandler close attempt:", e);
 			}
+		} catch (IOException e) {
+			logger.error("Error occurred on ClientSocket close attempt:", e);
+		} finally {
+			socketClosed.countDown();
 		}
 	}
 
+	@Override
+	public void awaitClosed() throws InterruptedException {
+		socketClosed.await();
+	}
+
 	@Override
 	public void run() {
 		ensureReadyState();
@@ -124,9 +108,12 @@ public class ConnectionHandler implements Runnable, Closeable, Serializable {
 		int errorsCount = 0;
 		try {
 
-			String message;
-			while (!isClosing && (message = reader.readLine()) != null) {
-				messageConsumer.accept(this, message);
+			WireFormat format = readPreamble();
+			if (format != WireFormat.TEXT) {
+				requestedFormat = format;
+				readFrames(new DataInputStream(input));
+			} else {
+				readLines(input);
 			}
 		} catch (SocketException e) {
 			logger.info("ClientSocket is closing...");
@@ -137,20 +124,221 @@ public class ConnectionHandler implements Runnable, Closeable, Serializable {
 			}
 		}
 
-		if (!isClosed) {
+		if (!isClosed()) {
+			close();
+		}
+	}
+
+	private WireFormat readPreamble() throws IOException {
+		input.mark(WireProtocol.PREAMBLE.length);
+		if (input.read() != WireProtocol.PREAMBLE[0]) {
+			input.reset();
+			return WireFormat.TEXT;
+		}
+		input.reset();
+		byte[] preamble = input.readNBytes(WireProtocol.PREAMBLE.length);
+		WireFormat format = preamble.length < WireProtocol.PREAMBLE.length ? null
+				: BinaryProtocol.preambleFormat(preamble, 0);
+		if (format == null) {
+			throw new IOException("Unsupported protocol preamble from " + getRemoteAddress());
+		}
+		if (format == WireFormat.TEXT) {
+			input.reset();
+		}
+		return format;
+	}
+
+	// a line is capped as a frame payload is, an incomplete last line is dropped
+	private void readLines(InputStream in) throws IOException {
+		Charset charset = Settings.instance().getCharset();
+		byte[] chunk = new byte[READ_CHUNK_SIZE];
+		byte[] line = new byte[INITIAL_LINE_SIZE];
+		int length = 0;
+		int count;
+		while (!isClosing() && (count = in.read(chunk)) >= 0) {
+			for (int i = 0; i < count && !isClosing(); ++i) {
+				byte b = chunk[i];
+				if (b != LF) {
+					if (length == line.length) {
+						if (length == WireProtocol.MAX_PAYLOAD_LENGTH) {
+							throw new IOException("Line from " + getRemoteAddress() + " exceeds "
+									+ WireProtocol.MAX_PAYLOAD_LENGTH + " bytes");
+						}
+						line = Arrays.copyOf(line, Math.min(WireProtocol.MAX_PAYLOAD_LENGTH, length * 2));
+					}
+					line[length++] = b;
+					continue;
+				}
+				if (length > 0 && line[length - 1] == CR) {
+					--length;
+				}
+				String message = new String(line, 0, length, charset);
+				length = 0;
+				markRead();
+				if (message.equals(WireProtocol.HEARTBEAT_MARKER)) {
+					continue;
+				}
+				messageConsumer.accept(this, message);
+				pauseIfThrottled();
+			}
+		}
+	}
+
+	private void readFrames(DataInputStream in) throws IOException {
+		byte[] header = new byte[WireProtocol.HEADER_LENGTH];
+		while (!isClosing()) {
+			if (in.read(header, 0, 1) < 0) {
+				return;
+			}
+			in.readFully(header, 1, header.length - 1);
+			int length = WireProtocol.payloadLength(header, 0);
+			if (length < 0 || length > WireProtocol.MAX_PAYLOAD_LENGTH) {
+				throw new IOException("Illegal frame length " + length + " from " + getRemoteAddress());
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			markRead();
+			if (BinaryProtocol.isProtocol(header[0])) {
+				continue;
+			}
+			if (BinaryProtocol.isDeflated(header[0])) {
+				try {
+					payload = PayloadCompression.inflate(payload, 0, length);
+				} catch (DataFormatException e) {
+					throw new IOException("Malformed deflated frame from " + getRemoteAddress(), e);
+				}
+			}
+			messageConsumer.accept(this, new String(payload, Settings.instance().getCharset()));
+			pauseIfThrottled();
+		}
+	}
+
+	// the client's further input waits in the socket buffers, then TCP flow control stops the client
+	private void pauseIfThrottled() {
+		long nanos = takeReadPause();
+		if (nanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(nanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+			}
+		}
+	}
+
+	// drains the outbound queue, to be run on its own thread next to run()
+	public void runWriter() {
+		writerThread = Thread.currentThread();
+		long coalesceNanos = TimeUnit.MILLISECONDS.toNanos(Settings.instance().getOutboundCoalesceMillis());
+		int coalesceBytes = Settings.instance().getOutboundCoalesceBytes();
+		WireFormat format = WireFormat.TEXT;
+		try {
+			while (!isClosing() || !outbound.isEmpty()) {
+				EncodedMessage message = outbound.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				// the reader may have switched meanwhile, what is written from now on takes the new format
+				if (format != requestedFormat) {
+					EncodedMessage.BINARY_SWITCH.writeTo(output, WireFormat.TEXT);
+					output.flush();
+					format = requestedFormat;
+				}
+				if (message == null) {
+					continue;
+				}
+
+				// batch whatever follows within the time and byte budget into a single socket write
+				long batchStart = System.nanoTime();
+				int messages = 0;
+				int bytes = 0;
+				do {
+					if (message == EncodedMessage.REPLAY) {
+						for (EncodedMessage past : takeReplay()) {
+							past.writeTo(output, format);
+							++messages;
+							bytes += past.length(format);
+						}
+					} else {
+						message.writeTo(output, format);
+						++messages;
+						bytes += message.length(format);
+					}
+					if (bytes >= coalesceBytes) {
+						break;
+					}
+					message = outbound.poll();
+					if (message == null && coalesceNanos > 0) {
+						long left = batchStart + coalesceNanos - System.nanoTime();
+						if (left > 0) {
+							message = outbound.poll(left, TimeUnit.NANOSECONDS);
+						}
+					}
+				} while (message != null);
+
+				long flushStart = System.nanoTime();
+				output.flush();
+				long flushEnd = System.nanoTime();
+				outbound.recordFlush(messages, 1, flushStart - batchStart);
+				ServerMetrics.instance().batchWritten(messages, 1, bytes, flushEnd - flushStart,
+						flushStart - batchStart);
+			}
+		} catch (IOException e) {
+			logger.info("Unable to write to {}: {}", getRemoteAddress(), e.getMessage());
+			outbound.clear();
 			close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			writerFinished.countDown();
+		}
+	}
+
+	@Override
+	public void acceptMessage(EncodedMessage message) {
+		if (isClosing()) {
+			return;
+		}
+		if (!outbound.offer(message, true)) {
+			outbound.clear();
+			dropSlowConsumer();
 		}
 	}
 
-	public synchronized void acceptMessage(String message) {
-		if (!isClosing) {
-			writer.println(message);
+	// a reader or a broadcaster may wait for room in the queue, the heartbeat timer never does
+	@Override
+	void ping() {
+		if (!isClosing() && !outbound.offer(EncodedMessage.HEARTBEAT, false)) {
+			outbound.clear();
+			dropSlowConsumer();
 		}
 	}
 
-	private void ensureReadyState() throws IllegalStateException {
-		if (isClosing) {
-			throw new IllegalStateException();
+	@Override
+	public OutboundStats getOutboundStats() {
+		return outbound == null ? OutboundStats.EMPTY : outbound.stats();
+	}
+
+	// feeds the bytes read from the socket into the metrics, below the buffering
+	private static class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				ServerMetrics.instance().bytesReceived(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				ServerMetrics.instance().bytesReceived(n);
+			}
+			return n;
 		}
 	}
 
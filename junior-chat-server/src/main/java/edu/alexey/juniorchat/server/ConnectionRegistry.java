@@ -0,0 +1,174 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Live connections by their int id, in an open-addressing table probed linearly, so that no key is boxed.
+// Lookups read the table without locking; changes are made under the lock, a grown table is published whole.
+// The array of all the connections is copied from the table on the first request after a change.
+public class ConnectionRegistry {
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final Connection[] NO_CONNECTIONS = new Connection[0];
+	// left in place of a removed connection, for the probes to go on past it
+	private static final Object REMOVED = new Object();
+
+	// not a monitor: connections are registered and closed on threads that may be virtual
+	private final ReentrantLock lock = new ReentrantLock();
+	// a power of two long, never more than three quarters used, so that every probe ends at a null
+	private volatile AtomicReferenceArray<Object> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+	private volatile int size;
+	// connections and REMOVED marks, under the lock
+	private int used;
+	// null when stale
+	private volatile Connection[] snapshot = NO_CONNECTIONS;
+
+	public Connection get(int id) {
+		AtomicReferenceArray<Object> t = table;
+		int mask = t.length() - 1;
+		for (int i = slotOf(id, mask);; i = (i + 1) & mask) {
+			Object entry = t.get(i);
+			if (entry == null) {
+				return null;
+			}
+			if (entry instanceof Connection connection && connection.getId() == id) {
+				return connection;
+			}
+		}
+	}
+
+	// false, with nothing changed, if another connection holds the id
+	public boolean add(Connection connection) {
+		lock.lock();
+		try {
+			if ((used + 1) * 4L > table.length() * 3L) {
+				// plain rehash when it is the REMOVED marks that fill the table
+				rehash(size * 2 + 2 > table.length() ? table.length() * 2 : table.length());
+			}
+			AtomicReferenceArray<Object> t = table;
+			int mask = t.length() - 1;
+			int free = -1;
+			int i = slotOf(connection.getId(), mask);
+			for (Object entry; (entry = t.get(i)) != null; i = (i + 1) & mask) {
+				if (entry == REMOVED) {
+					if (free < 0) {
+						free = i;
+					}
+				} else if (((Connection) entry).getId() == connection.getId()) {
+					return entry == connection;
+				}
+			}
+			if (free < 0) {
+				free = i;
+				++used;
+			}
+			t.set(free, connection);
+			size = size + 1;
+			snapshot = null;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// false if the connection is not registered
+	public boolean remove(Connection connection) {
+		lock.lock();
+		try {
+			AtomicReferenceArray<Object> t = table;
+			int mask = t.length() - 1;
+			for (int i = slotOf(connection.getId(), mask);; i = (i + 1) & mask) {
+				Object entry = t.get(i);
+				if (entry == null) {
+					return false;
+				}
+				if (entry == connection) {
+					t.set(i, REMOVED);
+					size = size - 1;
+					snapshot = null;
+					return true;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// in the slot of the registered one with the same id; false if that one is not registered
+	public boolean replace(Connection connection, Connection replacement) {
+		if (connection.getId() != replacement.getId()) {
+			throw new IllegalArgumentException("Ids differ: " + connection.getId() + ", " + replacement.getId());
+		}
+		lock.lock();
+		try {
+			AtomicReferenceArray<Object> t = table;
+			int mask = t.length() - 1;
+			for (int i = slotOf(connection.getId(), mask);; i = (i + 1) & mask) {
+				Object entry = t.get(i);
+				if (entry == null) {
+					return false;
+				}
+				if (entry == connection) {
+					t.set(i, replacement);
+					snapshot = null;
+					return true;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// all the connections at the moment, not to be modified
+	public Connection[] snapshot() {
+		Connection[] result = snapshot;
+		if (result != null) {
+			return result;
+		}
+		lock.lock();
+		try {
+			if (snapshot == null) {
+				AtomicReferenceArray<Object> t = table;
+				result = new Connection[size];
+				int n = 0;
+				for (int i = 0; i < t.length(); ++i) {
+					if (t.get(i) instanceof Connection connection) {
+						result[n++] = connection;
+					}
+				}
+				snapshot = result;
+			}
+			return snapshot;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// under the lock
+	private void rehash(int capacity) {
+		AtomicReferenceArray<Object> old = table;
+		var t = new AtomicReferenceArray<Object>(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < old.length(); ++j) {
+			if (old.get(j) instanceof Connection connection) {
+				int i = slotOf(connection.getId(), mask);
+				while (t.get(i) != null) {
+					i = (i + 1) & mask;
+				}
+				t.set(i, connection);
+			}
+		}
+		used = size;
+		table = t;
+	}
+
+	// consecutive ids would cluster otherwise
+	private static int slotOf(int id, int mask) {
+		int h = id * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
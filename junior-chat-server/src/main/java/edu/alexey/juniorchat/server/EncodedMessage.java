@@ -0,0 +1,127 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+// A message encoded once per wire format and shared by every recipient, never modified afterwards.
+// Text form is the header line "**id**" followed by the body line; line breaks of the body, which a binary
+// client may send, are turned into spaces there, or the rest would pass for header and body lines of their own.
+public final class EncodedMessage {
+
+	private static final String USER_ID_FORMAT = "**%d**";//"\0\0%d\0\0";
+	private static final Charset CHARSET = Settings.instance().getCharset();
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	private static final int COMPRESSION_THRESHOLD = Settings.instance().getCompressionThreshold();
+
+	// raw text line, switches the connection to binary frames for whatever is written after it
+	public static final EncodedMessage BINARY_SWITCH = new EncodedMessage(MessageType.PROTOCOL, 0, 0,
+			(WireProtocol.SWITCH_MARKER + LINE_SEPARATOR).getBytes(CHARSET), null);
+
+	// ping, a raw text line or a PROTOCOL frame
+	public static final EncodedMessage HEARTBEAT = new EncodedMessage(MessageType.PROTOCOL, 0, 0,
+			(WireProtocol.HEARTBEAT_MARKER + LINE_SEPARATOR).getBytes(CHARSET), WireProtocol.HEARTBEAT_MARKER);
+
+	// precedes a close of the session on purpose, a raw text line or a PROTOCOL frame
+	public static final EncodedMessage GOODBYE = new EncodedMessage(MessageType.PROTOCOL, 0, 0,
+			(WireProtocol.GOODBYE_MARKER + LINE_SEPARATOR).getBytes(CHARSET), WireProtocol.GOODBYE_MARKER);
+
+	// placeholder in an outbound queue, stands for the connection's pending history replay; never written as is
+	public static final EncodedMessage REPLAY = new EncodedMessage(MessageType.PROTOCOL, 0, 0, new byte[0], null);
+
+	private final MessageType type;
+	private final int senderId;
+	private final long sequence;
+	private final String body;
+
+	// encoded lazily, racing threads would produce equal arrays
+	private volatile byte[] text;
+	private volatile byte[] binary;
+	// the binary frame itself when deflate is of no use
+	private volatile byte[] deflated;
+
+	private EncodedMessage(MessageType type, int senderId, long sequence, byte[] text, String body) {
+		this.type = type;
+		this.senderId = senderId;
+		this.sequence = sequence;
+		this.text = text;
+		this.body = body;
+	}
+
+	public static EncodedMessage of(MessageType type, int senderId, long sequence, String body) {
+		return new EncodedMessage(Objects.requireNonNull(type), senderId, sequence, null, Objects.requireNonNull(body));
+	}
+
+	public MessageType type() {
+		return type;
+	}
+
+	public int senderId() {
+		return senderId;
+	}
+
+	public long sequence() {
+		return sequence;
+	}
+
+	public String body() {
+		return body;
+	}
+
+	public int length(WireFormat format) {
+		return bytes(format).length;
+	}
+
+	// read-only view with its own position and limit over the shared content, no bytes are copied
+	public ByteBuffer buffer(WireFormat format) {
+		return ByteBuffer.wrap(bytes(format)).asReadOnlyBuffer();
+	}
+
+	public void writeTo(OutputStream os, WireFormat format) throws IOException {
+		os.write(bytes(format));
+	}
+
+	// the shared encoding itself, for copying without a wrapper; not to be modified
+	byte[] encoded(WireFormat format) {
+		return bytes(format);
+	}
+
+	private byte[] bytes(WireFormat format) {
+		if (format == WireFormat.DEFLATE && body != null) {
+			byte[] result = deflated;
+			if (result == null) {
+				// compressed by the first writer to need it, once for all the recipients
+				result = bytes(WireFormat.BINARY);
+				if (result.length - WireProtocol.HEADER_LENGTH >= COMPRESSION_THRESHOLD) {
+					result = PayloadCompression.deflateFrame(result);
+				}
+				deflated = result;
+			}
+			return result;
+		}
+		if (format != WireFormat.TEXT && body != null) {
+			byte[] result = binary;
+			if (result == null) {
+				binary = result = BinaryProtocol.encode(type, senderId, sequence, body.getBytes(CHARSET));
+			}
+			return result;
+		}
+		byte[] result = text;
+		if (result == null) {
+			text = result = (String.format(USER_ID_FORMAT, senderId) + LINE_SEPARATOR + singleLine(body) + LINE_SEPARATOR)
+					.getBytes(CHARSET);
+		}
+		return result;
+	}
+
+	private static String singleLine(String body) {
+		if (body.indexOf('\n') < 0 && body.indexOf('\r') < 0) {
+			return body;
+		}
+		return body.replace('\n', ' ').replace('\r', ' ');
+	}
+}
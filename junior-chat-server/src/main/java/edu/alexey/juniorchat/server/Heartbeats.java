@@ -0,0 +1,81 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Application-level keepalive of all the connections on a single timing wheel. Any input counts as a sign of life;
+// a connection silent for the interval is sent a ping, which the client answers with a pong, and one still silent
+// the timeout after is closed as dead, so that it leaves the server by the usual close notification.
+// Every connection has a single timeout on the wheel at a time, re-armed when it fires rather than on every read.
+public class Heartbeats implements Closeable {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final long intervalNanos;
+	private final long timeoutNanos;
+	private final TimingWheel wheel;
+
+	public Heartbeats(long intervalMillis, long timeoutMillis, long tickMillis, int wheelSize) {
+		if (intervalMillis < 1 || timeoutMillis < 1) {
+			throw new IllegalArgumentException("Illegal heartbeat interval " + intervalMillis
+					+ " or timeout " + timeoutMillis);
+		}
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.wheel = new TimingWheel("heartbeats", tickMillis, TimeUnit.MILLISECONDS, wheelSize);
+	}
+
+	// null when heartbeats are off
+	public static Heartbeats fromSettings() {
+		var settings = Settings.instance();
+		if (settings.getHeartbeatIntervalMillis() == 0) {
+			return null;
+		}
+		return new Heartbeats(settings.getHeartbeatIntervalMillis(), settings.getHeartbeatTimeoutMillis(),
+				settings.getHeartbeatTickMillis(), settings.getHeartbeatWheelSize());
+	}
+
+	public void watch(Connection connection) {
+		arm(connection, intervalNanos);
+	}
+
+	public void unwatch(Connection connection) {
+		TimingWheel.Timeout timeout = connection.getHeartbeat();
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
+
+	@Override
+	public void close() {
+		wheel.close();
+	}
+
+	private void arm(Connection connection, long delayNanos) {
+		connection.setHeartbeat(wheel.schedule(() -> check(connection), delayNanos, TimeUnit.NANOSECONDS));
+	}
+
+	// on the wheel thread
+	private void check(Connection connection) {
+		if (connection.isClosing()) {
+			return;
+		}
+		long silence = System.nanoTime() - connection.getLastReadNanos();
+		if (silence < intervalNanos) {
+			arm(connection, intervalNanos - silence);
+		} else if (silence < intervalNanos + timeoutNanos) {
+			// fires again no earlier than the timeout, unless the pong or anything else comes
+			connection.ping();
+			arm(connection, intervalNanos + timeoutNanos - silence);
+		} else {
+			logger.warn("No heartbeat from {} for {} ms, disconnecting.", connection.getRemoteAddress(),
+					TimeUnit.NANOSECONDS.toMillis(silence));
+			ServerMetrics.instance().heartbeatEviction();
+			// the close may linger for the connection's writer, which the wheel must not wait for
+			Thread.ofVirtual().start(connection::close);
+		}
+	}
+}
@@ -4,21 +4,37 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntSupplier;
 
 // lazy init singleton
+// Ids are unique across a cluster: node N hands out N * NODE_ID_RANGE + 1, + 2, ..., so the node of a participant
+// is told by the id alone. A standalone server is node 0 and keeps the plain 1, 2, ...
 public class IdFactory implements IntSupplier {
 
+	public static final int NODE_ID_RANGE = 10_000_000;
+	public static final int MAX_NODE_ID = Integer.MAX_VALUE / NODE_ID_RANGE - 1;
+
 	public static IdFactory instance() {
 		return Holder.instance;
 	}
 
+	public static int nodeOf(int id) {
+		return id / NODE_ID_RANGE;
+	}
+
+	private final int first;
 	private AtomicInteger nextId;
 
 	private IdFactory() {
-		this.nextId = new AtomicInteger(1);
+		this(Settings.instance().getClusterNodeId());
+	}
+
+	IdFactory(int nodeId) {
+		this.first = nodeId * NODE_ID_RANGE + 1;
+		this.nextId = new AtomicInteger(first);
 	}
 
+	// wraps around within the node's range; an id still held by then is skipped by the server's registration
 	@Override
 	public int getAsInt() {
-		return nextId.getAndIncrement();
+		return nextId.getAndUpdate(id -> id - first == NODE_ID_RANGE - 2 ? first : id + 1);
 	}
 
 	private static class Holder {
@@ -0,0 +1,157 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// last messages of a room in a ring buffer preallocated up to capacity, bounded by count and approximate bytes;
+// the messages are kept encoded, so a replay shares them with the original recipients
+public class MessageHistory {
+
+	private static final EncodedMessage[] NO_MESSAGES = new EncodedMessage[0];
+	// per-message overhead of the object, its body String and a cached encoding
+	private static final int MESSAGE_OVERHEAD = 96;
+
+	// not a monitor: appends happen on the reader threads, which may be virtual
+	private final ReentrantLock lock = new ReentrantLock();
+	private final EncodedMessage[] messages;
+	private final long[] timestamps;
+	private final int[] sizes;
+	private final long maxBytes;
+
+	// guarded by lock
+	private int head;
+	private int count;
+	private long bytes;
+
+	public MessageHistory(int capacity, long maxBytes) {
+		if (capacity < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.messages = new EncodedMessage[capacity];
+		this.timestamps = new long[capacity];
+		this.sizes = new int[capacity];
+		this.maxBytes = maxBytes;
+	}
+
+	public static MessageHistory fromSettings() {
+		var settings = Settings.instance();
+		return new MessageHistory(settings.getHistoryCapacity(), settings.getHistoryMaxBytes());
+	}
+
+	// approximate heap held by a message, the encodings are counted once, as the text form
+	static int footprint(EncodedMessage message) {
+		return MESSAGE_OVERHEAD + 3 * message.body().length();
+	}
+
+	public void append(EncodedMessage message) {
+		if (messages.length == 0) {
+			return;
+		}
+		int size = footprint(message);
+		if (size > maxBytes) {
+			return;
+		}
+		int evicted = 0;
+		long released = 0;
+		lock.lock();
+		try {
+			while (count > 0 && (count == messages.length || bytes + size > maxBytes)) {
+				int oldest = (head - count + messages.length) % messages.length;
+				released += sizes[oldest];
+				bytes -= sizes[oldest];
+				messages[oldest] = null;
+				--count;
+				++evicted;
+			}
+			messages[head] = message;
+			timestamps[head] = System.nanoTime();
+			sizes[head] = size;
+			head = (head + 1) % messages.length;
+			++count;
+			bytes += size;
+		} finally {
+			lock.unlock();
+		}
+		ServerMetrics.instance().historyChanged(1 - evicted, size - released);
+	}
+
+	// the last messages, oldest first, no more than limit and not older than maxAge (0 - any age)
+	public EncodedMessage[] last(int limit, long maxAge, TimeUnit unit) {
+		long now = System.nanoTime();
+		long maxAgeNanos = unit.toNanos(maxAge);
+		lock.lock();
+		try {
+			int n = 0;
+			while (n < count && n < limit) {
+				int i = (head - 1 - n + messages.length) % messages.length;
+				if (maxAgeNanos > 0 && now - timestamps[i] > maxAgeNanos) {
+					break;
+				}
+				++n;
+			}
+			if (n == 0) {
+				return NO_MESSAGES;
+			}
+			var result = new EncodedMessage[n];
+			for (int k = 0; k < n; ++k) {
+				result[k] = messages[(head - n + k + messages.length) % messages.length];
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// the messages kept with sequence numbers in (after, upTo], oldest first
+	public EncodedMessage[] between(long after, long upTo) {
+		var result = new ArrayList<EncodedMessage>();
+		lock.lock();
+		try {
+			for (int k = 0; k < count; ++k) {
+				EncodedMessage message = messages[(head - count + k + messages.length) % messages.length];
+				if (message.sequence() > after && message.sequence() <= upTo) {
+					result.add(message);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return result.isEmpty() ? NO_MESSAGES : result.toArray(NO_MESSAGES);
+	}
+
+	public void clear() {
+		int cleared;
+		long released;
+		lock.lock();
+		try {
+			cleared = count;
+			released = bytes;
+			Arrays.fill(messages, null);
+			head = count = 0;
+			bytes = 0;
+		} finally {
+			lock.unlock();
+		}
+		ServerMetrics.instance().historyChanged(-cleared, -released);
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long bytes() {
+		lock.lock();
+		try {
+			return bytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
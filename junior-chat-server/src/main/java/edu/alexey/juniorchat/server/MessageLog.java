@@ -0,0 +1,376 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+// Append-only log of the routed messages in memory-mapped segment files of a fixed size.
+// Record: length(4) crc32c(4) timestamp(8) recipientId(4) roomLength(2) room(roomLength) frame, big-endian,
+// where frame is the message's shared binary encoding and the crc covers everything after itself.
+// A zero length ends the records of a segment. The writes are forced to disk by a background thread every
+// syncMillis, so that one fsync covers all the messages appended meanwhile; a JVM crash loses nothing,
+// since the mapped pages belong to the OS, a power loss may cost the last syncMillis.
+public class MessageLog implements Closeable {
+
+	// a record read back
+	public record Entry(long sequence, long timestamp, MessageType type, int senderId, int recipientId,
+			String room, String body) {
+
+		public EncodedMessage toMessage() {
+			return EncodedMessage.of(type, senderId, sequence, body);
+		}
+	}
+
+	private static final int RECORD_HEADER_LENGTH = 22;
+	private static final int MIN_SEGMENT_BYTES = 1024 * 1024;
+	private static final int INDEX_INTERVAL_BYTES = 4096;
+	private static final String SUFFIX = ".log";
+	private static final byte[] NO_ROOM = new byte[0];
+
+	// messages are not appended in the order of their sequence numbers, since these are assigned before routing;
+	// an index entry keeps the largest sequence number found before its offset to stay correct anyway
+	private static final class Segment {
+		final Path path;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		// end of the valid records, published after each append
+		volatile int end;
+		int synced;
+		long maxSequence;
+		long[] indexMaxBefore = new long[16];
+		int[] indexOffset = new int[16];
+		int indexSize;
+		int nextIndexAt;
+
+		Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+			this.path = path;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+
+		void added(int offset, int length, long sequence) {
+			if (offset >= nextIndexAt) {
+				if (indexSize == indexOffset.length) {
+					indexOffset = Arrays.copyOf(indexOffset, indexSize * 2);
+					indexMaxBefore = Arrays.copyOf(indexMaxBefore, indexSize * 2);
+				}
+				indexOffset[indexSize] = offset;
+				indexMaxBefore[indexSize] = maxSequence;
+				++indexSize;
+				nextIndexAt = offset + INDEX_INTERVAL_BYTES;
+			}
+			maxSequence = Math.max(maxSequence, sequence);
+			end = offset + length;
+		}
+
+		// where to start looking for the records of fromSequence and later
+		int seek(long fromSequence) {
+			int result = 0;
+			for (int i = 0; i < indexSize && indexMaxBefore[i] < fromSequence; ++i) {
+				result = indexOffset[i];
+			}
+			return result;
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final int retainSegments;
+
+	// not a monitor: appends happen on the reader threads, which may be virtual
+	private final ReentrantLock lock = new ReentrantLock();
+	// for the recovery scan only, appends have their own
+	private final CRC32C crc = new CRC32C();
+	private final List<Segment> segments = new ArrayList<>();
+	private Segment active;
+	private long lastSequence;
+
+	private final ScheduledExecutorService syncer;
+
+	private MessageLog(Path directory, int segmentBytes, int retainSegments) {
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.retainSegments = retainSegments;
+		this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "message-log-sync");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public static MessageLog open(Path directory, int segmentBytes, int retainSegments, long syncMillis)
+			throws IOException {
+
+		if (segmentBytes < MIN_SEGMENT_BYTES || retainSegments < 1 || syncMillis < 1) {
+			throw new IllegalArgumentException("Illegal message log configuration");
+		}
+		Files.createDirectories(directory);
+		var log = new MessageLog(directory, segmentBytes, retainSegments);
+		log.recover();
+		log.syncer.scheduleWithFixedDelay(log::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+		return log;
+	}
+
+	public static MessageLog fromSettings() throws IOException {
+		var settings = Settings.instance();
+		return open(Path.of(settings.getLogDirectory()), settings.getLogSegmentBytes(),
+				settings.getLogRetainSegments(), settings.getLogSyncMillis());
+	}
+
+	private void recover() throws IOException {
+		List<Path> files;
+		try (Stream<Path> list = Files.list(directory)) {
+			files = list.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+		}
+		for (Path path : files) {
+			Segment segment = map(path);
+			scan(segment);
+			segments.add(segment);
+			lastSequence = Math.max(lastSequence, segment.maxSequence);
+		}
+		if (segments.isEmpty() || last().end + RECORD_HEADER_LENGTH >= segmentBytes) {
+			segments.add(map(nextSegmentPath()));
+		}
+		active = last();
+		active.synced = active.end;
+		logger.info("Message log {}: {} segments, last sequence {}.", directory, segments.size(), lastSequence);
+	}
+
+	private Segment last() {
+		return segments.get(segments.size() - 1);
+	}
+
+	// named after the sequence number it is expected to start with
+	private Path nextSegmentPath() {
+		long base = lastSequence + 1;
+		Path path;
+		while (Files.exists(path = directory.resolve(String.format("%020d%s", base, SUFFIX)))) {
+			++base;
+		}
+		return path;
+	}
+
+	private Segment map(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				Math.max(segmentBytes, channel.size()));
+		return new Segment(path, channel, buffer);
+	}
+
+	// rebuilds the index, stops at the first incomplete or damaged record
+	private void scan(Segment segment) {
+		ByteBuffer buffer = segment.buffer;
+		int offset = 0;
+		while (offset + RECORD_HEADER_LENGTH <= buffer.capacity()) {
+			int length = buffer.getInt(offset);
+			if (length < RECORD_HEADER_LENGTH + WireProtocol.HEADER_LENGTH || offset + length > buffer.capacity()) {
+				break;
+			}
+			crc.reset();
+			crc.update(buffer.slice(offset + 8, length - 8));
+			if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+				logger.warn("Damaged record in {} at {}, the rest of the segment is ignored.", segment.path, offset);
+				break;
+			}
+			int frame = offset + RECORD_HEADER_LENGTH + buffer.getShort(offset + 20);
+			segment.added(offset, length, buffer.getLong(frame + 5));
+			offset += length;
+		}
+	}
+
+	public long lastSequence() {
+		lock.lock();
+		try {
+			return lastSequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// room is null for a direct message to recipientId; a record not fitting a segment is not logged
+	public void append(EncodedMessage message, Room room, int recipientId) {
+		byte[] frame = message.encoded(WireFormat.BINARY);
+		byte[] roomName = room == null ? NO_ROOM : room.getEncodedName();
+		int length = RECORD_HEADER_LENGTH + roomName.length + frame.length;
+		// room for the zero length ending the segment
+		if (length > segmentBytes - 4) {
+			logger.warn("Message {} of {} bytes does not fit a log segment, not logged.", message.sequence(), length);
+			return;
+		}
+		// everything the crc covers is known before the lock, which every room's broadcast takes
+		byte[] fields = ByteBuffer.allocate(RECORD_HEADER_LENGTH - 8)
+				.putLong(System.currentTimeMillis())
+				.putInt(recipientId)
+				.putShort((short) roomName.length)
+				.array();
+		var crc = new CRC32C();
+		crc.update(fields);
+		crc.update(roomName);
+		crc.update(frame);
+		int checksum = (int) crc.getValue();
+
+		lock.lock();
+		try {
+			if (active == null) {
+				return;
+			}
+			if (active.end + length + 4 > segmentBytes) {
+				roll();
+			}
+			MappedByteBuffer buffer = active.buffer;
+			int offset = active.end;
+			buffer.put(offset + 8, fields);
+			buffer.put(offset + RECORD_HEADER_LENGTH, roomName);
+			buffer.put(offset + RECORD_HEADER_LENGTH + roomName.length, frame);
+			buffer.putInt(offset + 4, checksum);
+			// the length goes last, a record without it does not exist
+			buffer.putInt(offset, length);
+
+			active.added(offset, length, message.sequence());
+			lastSequence = Math.max(lastSequence, message.sequence());
+		} catch (IOException e) {
+			logger.error("Unable to roll message log segment, logging stopped:", e);
+			active = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// under the lock
+	private void roll() throws IOException {
+		Segment full = active;
+		full.buffer.force(0, full.end);
+		full.synced = full.end;
+		full.channel.close();
+
+		active = map(nextSegmentPath());
+		segments.add(active);
+
+		while (segments.size() > retainSegments) {
+			Segment oldest = segments.remove(0);
+			oldest.channel.close();
+			Files.deleteIfExists(oldest.path);
+			logger.info("Message log segment {} is deleted by retention.", oldest.path.getFileName());
+		}
+	}
+
+	private void sync() {
+		Segment segment;
+		int from;
+		int to;
+		lock.lock();
+		try {
+			segment = active;
+			if (segment == null || segment.synced == segment.end) {
+				return;
+			}
+			from = segment.synced;
+			to = segment.end;
+			segment.synced = to;
+		} finally {
+			lock.unlock();
+		}
+		// outside of the lock, appends go on meanwhile
+		segment.buffer.force(from, to - from);
+	}
+
+	// the records of fromSequence and later in the order they were appended
+	public void replay(long fromSequence, Consumer<Entry> consumer) {
+		List<Segment> snapshot;
+		lock.lock();
+		try {
+			snapshot = List.copyOf(segments);
+		} finally {
+			lock.unlock();
+		}
+
+		for (Segment segment : snapshot) {
+			int offset;
+			int end;
+			lock.lock();
+			try {
+				if (segment.maxSequence < fromSequence) {
+					continue;
+				}
+				offset = segment.seek(fromSequence);
+				end = segment.end;
+			} finally {
+				lock.unlock();
+			}
+			ByteBuffer buffer = segment.buffer.duplicate();
+			while (offset < end) {
+				int length = buffer.getInt(offset);
+				Entry entry = read(buffer, offset, length);
+				if (entry.sequence() >= fromSequence) {
+					consumer.accept(entry);
+				}
+				offset += length;
+			}
+		}
+	}
+
+	private static Entry read(ByteBuffer buffer, int offset, int length) {
+		long timestamp = buffer.getLong(offset + 8);
+		int recipientId = buffer.getInt(offset + 16);
+		int roomLength = buffer.getShort(offset + 20);
+		String room = null;
+		if (roomLength > 0) {
+			byte[] bytes = new byte[roomLength];
+			buffer.get(offset + RECORD_HEADER_LENGTH, bytes);
+			room = new String(bytes, StandardCharsets.UTF_8);
+		}
+		int frame = offset + RECORD_HEADER_LENGTH + roomLength;
+		MessageType type = MessageType.fromCode(buffer.get(frame));
+		int senderId = buffer.getInt(frame + 1);
+		long sequence = buffer.getLong(frame + 5);
+		byte[] payload = new byte[buffer.getInt(frame + 13)];
+		buffer.get(frame + WireProtocol.HEADER_LENGTH, payload);
+		return new Entry(sequence, timestamp, type, senderId, recipientId, room,
+				new String(payload, Settings.instance().getCharset()));
+	}
+
+	@Override
+	public void close() {
+		syncer.shutdownNow();
+		lock.lock();
+		try {
+			for (Segment segment : segments) {
+				if (segment.channel.isOpen()) {
+					segment.buffer.force(0, segment.end);
+					try {
+						segment.channel.close();
+					} catch (IOException e) {
+						logger.error("Error occurred on message log segment close attempt:", e);
+					}
+				}
+			}
+			active = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package edu.alexey.juniorchat.server;
+
+// kind of a message, carried in the header of a binary frame
+public enum MessageType {
+	// protocol control, not shown to the user
+	PROTOCOL(0),
+	// broadcast from a participant
+	CHAT(1),
+	// "@N" message from one participant to another
+	DIRECT(2),
+	// notice from the server itself
+	SERVICE(3);
+
+	private final byte code;
+
+	private MessageType(int code) {
+		this.code = (byte) code;
+	}
+
+	public byte code() {
+		return code;
+	}
+
+	public static MessageType fromCode(byte code) {
+		for (var type : values()) {
+			if (type.code == code) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("Unknown message type " + code);
+	}
+}
@@ -0,0 +1,108 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// bounded queue of messages waiting to be written to one connection
+public class OutboundQueue<E> {
+
+	private final ArrayBlockingQueue<E> queue;
+	private final OverflowPolicy policy;
+	private final long blockTimeoutMillis;
+
+	private final AtomicInteger highWaterMark = new AtomicInteger();
+	private final AtomicLong enqueued = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong writeCalls = new AtomicLong();
+	private final AtomicLong coalesceDelayNanos = new AtomicLong();
+
+	public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.policy = Objects.requireNonNull(policy);
+		this.blockTimeoutMillis = blockTimeoutMillis;
+	}
+
+	public static <E> OutboundQueue<E> fromSettings() {
+		var settings = Settings.instance();
+		return new OutboundQueue<>(settings.getOutboundQueueCapacity(),
+				settings.getOutboundOverflowPolicy(),
+				settings.getOutboundBlockTimeoutMillis());
+	}
+
+	// false means the consumer is too slow and must be disconnected
+	public boolean offer(E message, boolean mayBlock) {
+		Objects.requireNonNull(message);
+
+		if (!queue.offer(message)) {
+			switch (policy) {
+			case DROP_OLDEST -> {
+				do {
+					if (queue.poll() != null) {
+						dropped.incrementAndGet();
+					}
+				} while (!queue.offer(message));
+			}
+			case BLOCK -> {
+				if (!mayBlock || !offerWaiting(message)) {
+					dropped.incrementAndGet();
+					return false;
+				}
+			}
+			default -> {
+				dropped.incrementAndGet();
+				return false;
+			}
+			}
+		}
+
+		enqueued.incrementAndGet();
+		highWaterMark.accumulateAndGet(queue.size(), Math::max);
+		return true;
+	}
+
+	private boolean offerWaiting(E message) {
+		try {
+			return queue.offer(message, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public E poll() {
+		return queue.poll();
+	}
+
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return queue.poll(timeout, unit);
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	public void clear() {
+		queue.clear();
+	}
+
+	// called by the writer after every flushed batch
+	public void recordFlush(int messages, int calls, long delayNanos) {
+		written.addAndGet(messages);
+		writeCalls.addAndGet(calls);
+		coalesceDelayNanos.addAndGet(delayNanos);
+	}
+
+	public OutboundStats stats() {
+		return new OutboundStats(queue.size(), queue.size() + queue.remainingCapacity(),
+				highWaterMark.get(), enqueued.get(), dropped.get(),
+				written.get(), writeCalls.get(), coalesceDelayNanos.get());
+	}
+}
@@ -0,0 +1,28 @@
+package edu.alexey.juniorchat.server;
+
+// written / writeCalls count the messages and the socket writes that carried them,
+// coalesceDelayNanos is the total time batches were held open waiting for more messages
+public record OutboundStats(int depth, int capacity, int highWaterMark, long enqueued, long dropped,
+		long written, long writeCalls, long coalesceDelayNanos) {
+
+	public static final OutboundStats EMPTY = new OutboundStats(0, 0, 0, 0, 0, 0, 0, 0);
+
+	public long syscallsSaved() {
+		return written - writeCalls;
+	}
+
+	public long averageAddedLatencyNanos() {
+		return writeCalls == 0 ? 0 : coalesceDelayNanos / writeCalls;
+	}
+
+	public OutboundStats plus(OutboundStats other) {
+		return new OutboundStats(depth + other.depth,
+				capacity + other.capacity,
+				Math.max(highWaterMark, other.highWaterMark),
+				enqueued + other.enqueued,
+				dropped + other.dropped,
+				written + other.written,
+				writeCalls + other.writeCalls,
+				coalesceDelayNanos + other.coalesceDelayNanos);
+	}
+}
@@ -0,0 +1,11 @@
+package edu.alexey.juniorchat.server;
+
+// what to do with a message when the recipient's outbound queue is full
+public enum OverflowPolicy {
+	// discard the oldest queued message to make room
+	DROP_OLDEST,
+	// drop the slow consumer
+	DISCONNECT,
+	// make the sender wait for room, then drop the consumer on timeout
+	BLOCK
+}
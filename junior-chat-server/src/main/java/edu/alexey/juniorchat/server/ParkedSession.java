@@ -0,0 +1,145 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Stands in for a participant whose connection has broken, under the same id and in the same room, until
+// the client resumes the session or the window passes. Keeps what is delivered meanwhile, up to a capacity;
+// a session falling further behind expires at once, as the client would miss messages anyway.
+// Once resumed, a message still delivered to it through a stale snapshot goes on to the new connection.
+class ParkedSession extends Connection {
+
+	private static final long serialVersionUID = 1L;
+
+	private enum State {
+		PARKED, RESUMING, RESUMED, EXPIRED
+	}
+
+	private final long token;
+	// the last sequence number signed before the connection broke
+	private final long parkedSequence;
+	private final int capacity;
+	private final transient Consumer<ParkedSession> onOverflow;
+
+	// not a monitor: messages are delivered on the reader threads, which may be virtual
+	private final ReentrantLock lock = new ReentrantLock();
+	// guarded by lock
+	private final ArrayList<EncodedMessage> kept = new ArrayList<>();
+	private State state = State.PARKED;
+	private Connection successor;
+
+	private volatile TimingWheel.Timeout expiry;
+
+	ParkedSession(Connection connection, long parkedSequence, int capacity, Consumer<ParkedSession> onOverflow) {
+		super(connection.getId(), connection.getRemoteAddress());
+		this.token = connection.getResumeToken();
+		this.parkedSequence = parkedSequence;
+		this.capacity = capacity;
+		this.onOverflow = onOverflow;
+	}
+
+	long getParkedSequence() {
+		return parkedSequence;
+	}
+
+	void setExpiry(TimingWheel.Timeout expiry) {
+		this.expiry = expiry;
+	}
+
+	@Override
+	public void acceptMessage(EncodedMessage message) {
+		// pings and placeholders are not messages
+		if (message.sequence() == 0) {
+			return;
+		}
+		Connection forward = null;
+		boolean overflow = false;
+		lock.lock();
+		try {
+			switch (state) {
+			case PARKED -> {
+				if (kept.size() < capacity) {
+					kept.add(message);
+				} else {
+					overflow = true;
+				}
+			}
+			// only for the moment of switching over
+			case RESUMING -> kept.add(message);
+			case RESUMED -> forward = successor;
+			case EXPIRED -> {
+			}
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (forward != null) {
+			forward.acceptMessage(message);
+		} else if (overflow) {
+			onOverflow.accept(this);
+		}
+	}
+
+	// the first one presenting the right token takes the session over, false for anyone else
+	boolean claim(long token) {
+		lock.lock();
+		try {
+			if (state != State.PARKED || token != this.token) {
+				return false;
+			}
+			state = State.RESUMING;
+		} finally {
+			lock.unlock();
+		}
+		cancelExpiry();
+		return true;
+	}
+
+	// what has been kept, in the order delivered; whatever comes later goes to the successor
+	EncodedMessage[] resumedBy(Connection successor) {
+		lock.lock();
+		try {
+			state = State.RESUMED;
+			this.successor = successor;
+			var result = kept.toArray(EncodedMessage[]::new);
+			kept.clear();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// false if it is being resumed or has ended already
+	boolean expire() {
+		lock.lock();
+		try {
+			if (state != State.PARKED) {
+				return false;
+			}
+			state = State.EXPIRED;
+			kept.clear();
+		} finally {
+			lock.unlock();
+		}
+		cancelExpiry();
+		return true;
+	}
+
+	private void cancelExpiry() {
+		TimingWheel.Timeout timeout = expiry;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
+
+	@Override
+	public OutboundStats getOutboundStats() {
+		return OutboundStats.EMPTY;
+	}
+
+	// there is no transport, the close listener ends the session
+	@Override
+	protected void closeTransport() {
+	}
+}
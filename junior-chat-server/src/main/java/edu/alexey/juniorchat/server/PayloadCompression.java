@@ -0,0 +1,95 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+// Per-message deflate of binary frame payloads, zlib format. Every message is compressed on its own, so that
+// the result can be shared by all the recipients. Deflaters and Inflaters hold native memory, hence the pools
+// instead of one per connection or per thread, which would be one per connection with virtual threads.
+final class PayloadCompression {
+
+	private static final int LEVEL = Deflater.BEST_SPEED;
+	private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+	private static final int INFLATE_CHUNK = 4096;
+
+	private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+	private PayloadCompression() {
+	}
+
+	// the frame with its payload deflated and the type flagged, or the very same frame if deflate does not shrink it
+	static byte[] deflateFrame(byte[] frame) {
+		int length = frame.length - WireProtocol.HEADER_LENGTH;
+		if (length < 2) {
+			return frame;
+		}
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(LEVEL);
+		}
+		try {
+			deflater.setInput(frame, WireProtocol.HEADER_LENGTH, length);
+			deflater.finish();
+			// no room for a result that is not shorter
+			byte[] result = new byte[frame.length - 1];
+			int deflated = deflater.deflate(result, WireProtocol.HEADER_LENGTH, length - 1);
+			if (!deflater.finished()) {
+				return frame;
+			}
+			System.arraycopy(frame, 0, result, 0, WireProtocol.HEADER_LENGTH);
+			result[0] |= WireProtocol.DEFLATED;
+			WireProtocol.writeInt(result, 13, deflated);
+			return Arrays.copyOf(result, WireProtocol.HEADER_LENGTH + deflated);
+		} finally {
+			deflater.reset();
+			release(deflaters, deflater);
+		}
+	}
+
+	// a deflated payload, inflated to no more than WireProtocol.MAX_PAYLOAD_LENGTH bytes
+	static byte[] inflate(byte[] array, int offset, int length) throws DataFormatException {
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		try {
+			inflater.setInput(array, offset, length);
+			byte[] result = new byte[Math.min(WireProtocol.MAX_PAYLOAD_LENGTH, Math.max(INFLATE_CHUNK, 4 * length))];
+			int size = 0;
+			while (!inflater.finished()) {
+				if (size == result.length) {
+					if (size == WireProtocol.MAX_PAYLOAD_LENGTH) {
+						throw new DataFormatException("Inflated payload exceeds " + size + " bytes");
+					}
+					result = Arrays.copyOf(result, Math.min(WireProtocol.MAX_PAYLOAD_LENGTH, size * 2));
+				}
+				int n = inflater.inflate(result, size, result.length - size);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Truncated deflated payload");
+				}
+				size += n;
+			}
+			return size == result.length ? result : Arrays.copyOf(result, size);
+		} finally {
+			inflater.reset();
+			release(inflaters, inflater);
+		}
+	}
+
+	private static <T> void release(ConcurrentLinkedQueue<T> pool, T coder) {
+		// the size is only an estimate under contention, which is good enough to keep the pool small
+		if (pool.size() < MAX_POOLED) {
+			pool.offer(coder);
+		} else if (coder instanceof Deflater deflater) {
+			deflater.end();
+		} else if (coder instanceof Inflater inflater) {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Joins and leaves of the rooms gathered over a window and told to the members as a single digest per room,
+// "+37 joined, -4 left", rather than a notice per event: a crowd reconnecting to a restarted server would
+// otherwise cost a notice to every member for every other member. The first event after a quiet spell opens
+// the window, so an idle server schedules nothing.
+public class PresenceDigests implements Closeable {
+
+	public interface Sink {
+
+		// on the wheel thread, which must not be held up
+		void digest(Room room, int joined, int left);
+	}
+
+	// the counts of a room packed into one value, to be taken away atomically
+	private static final long JOINED = 1L << 32;
+	private static final long LEFT = 1L;
+	private static final int WHEEL_SIZE = 64;
+
+	private final long windowMillis;
+	private final Sink sink;
+	private final TimingWheel wheel;
+	private final ConcurrentHashMap<Room, Long> pending = new ConcurrentHashMap<>();
+	private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+	public PresenceDigests(long windowMillis, Sink sink) {
+		if (windowMillis < 1) {
+			throw new IllegalArgumentException("Illegal presence window " + windowMillis);
+		}
+		this.windowMillis = windowMillis;
+		this.sink = sink;
+		this.wheel = new TimingWheel("presence", Math.max(1, windowMillis / 10), TimeUnit.MILLISECONDS, WHEEL_SIZE);
+	}
+
+	// null when every join and leave is told at once
+	public static PresenceDigests fromSettings(Sink sink) {
+		var settings = Settings.instance();
+		if (settings.getPresenceWindowMillis() == 0) {
+			return null;
+		}
+		return new PresenceDigests(settings.getPresenceWindowMillis(), sink);
+	}
+
+	public void joined(Room room) {
+		record(room, JOINED);
+	}
+
+	public void left(Room room) {
+		record(room, LEFT);
+	}
+
+	private void record(Room room, long count) {
+		pending.merge(room, count, Long::sum);
+		if (isScheduled.compareAndSet(false, true)) {
+			wheel.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// an event recorded meanwhile is either taken now or opens the next window
+	void flush() {
+		isScheduled.set(false);
+		for (Room room : pending.keySet()) {
+			Long counts = pending.remove(room);
+			if (counts != null) {
+				sink.digest(room, (int) (counts >>> 32), (int) (counts & 0xFFFFFFFFL));
+			}
+		}
+	}
+
+	// the events not told yet are dropped
+	@Override
+	public void close() {
+		wheel.close();
+	}
+}
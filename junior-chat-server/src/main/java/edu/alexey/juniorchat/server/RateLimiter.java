@@ -0,0 +1,88 @@
+package edu.alexey.juniorchat.server;
+
+// Per-connection token buckets of messages and bytes, one pair for broadcasts and another for direct messages.
+// A message is never rejected: it takes its tokens, possibly running the bucket into debt, and the reader of the
+// connection pauses until the debt is paid, so an offender is slowed down to the rate by TCP flow control.
+// Every pause costs a strike; strikes come back one per second, and the connection running out of them is
+// to be disconnected. Used by the connection's reader thread only.
+public class RateLimiter {
+
+	// acquire() result for an offender to be disconnected
+	public static final long DISCONNECT = -1;
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	// capacity of rate * burstSeconds tokens, full at start
+	static final class TokenBucket {
+
+		private final double perNano;
+		private final double capacity;
+		private double tokens;
+		private long updated;
+
+		TokenBucket(double perSecond, double burstSeconds, long now) {
+			this.perNano = perSecond / NANOS_PER_SECOND;
+			this.capacity = Math.max(1, perSecond * burstSeconds);
+			this.tokens = capacity;
+			this.updated = now;
+		}
+
+		// nanos until the bucket is out of debt, 0 if there were enough tokens
+		long take(double amount, long now) {
+			if (now - updated > 0) {
+				tokens = Math.min(capacity, tokens + (now - updated) * perNano);
+				updated = now;
+			}
+			tokens -= amount;
+			return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / perNano);
+		}
+	}
+
+	// null - not limited
+	private final TokenBucket broadcastMessages;
+	private final TokenBucket broadcastBytes;
+	private final TokenBucket directMessages;
+	private final TokenBucket directBytes;
+	private final TokenBucket strikes;
+
+	// rates of 0 are not limited, strikes of 0 never disconnect
+	public RateLimiter(double broadcastMessagesPerSecond, double broadcastBytesPerSecond,
+			double directMessagesPerSecond, double directBytesPerSecond, double burstSeconds, int strikes) {
+		long now = System.nanoTime();
+		this.broadcastMessages = bucket(broadcastMessagesPerSecond, burstSeconds, now);
+		this.broadcastBytes = bucket(broadcastBytesPerSecond, burstSeconds, now);
+		this.directMessages = bucket(directMessagesPerSecond, burstSeconds, now);
+		this.directBytes = bucket(directBytesPerSecond, burstSeconds, now);
+		this.strikes = strikes > 0 ? new TokenBucket(1, strikes, now) : null;
+	}
+
+	private static TokenBucket bucket(double perSecond, double burstSeconds, long now) {
+		return perSecond > 0 ? new TokenBucket(perSecond, burstSeconds, now) : null;
+	}
+
+	// null when nothing is limited
+	public static RateLimiter fromSettings() {
+		var settings = Settings.instance();
+		if (settings.getRateBroadcastMessagesPerSecond() == 0 && settings.getRateBroadcastBytesPerSecond() == 0
+				&& settings.getRateDirectMessagesPerSecond() == 0 && settings.getRateDirectBytesPerSecond() == 0) {
+			return null;
+		}
+		return new RateLimiter(settings.getRateBroadcastMessagesPerSecond(), settings.getRateBroadcastBytesPerSecond(),
+				settings.getRateDirectMessagesPerSecond(), settings.getRateDirectBytesPerSecond(),
+				settings.getRateBurstSeconds(), settings.getRateStrikes());
+	}
+
+	// nanos for the reader to pause after this message, or DISCONNECT
+	public long acquire(boolean direct, int bytes, long now) {
+		long pause = Math.max(take(direct ? directMessages : broadcastMessages, 1, now),
+				take(direct ? directBytes : broadcastBytes, bytes, now));
+		if (pause > 0 && strikes != null && strikes.take(1, now) > 0) {
+			return DISCONNECT;
+		}
+		return pause;
+	}
+
+	private static long take(TokenBucket bucket, double amount, long now) {
+		return bucket == null ? 0 : bucket.take(amount, now);
+	}
+}
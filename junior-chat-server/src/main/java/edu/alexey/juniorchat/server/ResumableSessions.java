@@ -0,0 +1,61 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Sessions of broken connections waiting to be resumed. Every connection is given a random token with its id,
+// which only the client knows; a broken connection leaves a ParkedSession in its place, whose deadline is
+// on a timing wheel of its own, so that a crowd dropped by a network failure costs nothing more to expire.
+public class ResumableSessions implements Closeable {
+
+	// a window is some seconds long, it needs no finer resolution
+	private static final long TICK_MILLIS = 250;
+	private static final int WHEEL_SIZE = 256;
+
+	private final SecureRandom random = new SecureRandom();
+	private final long windowMillis;
+	private final int capacity;
+	private final TimingWheel wheel;
+
+	public ResumableSessions(long windowMillis, int capacity) {
+		if (windowMillis < 1 || capacity < 1) {
+			throw new IllegalArgumentException("Illegal resume window " + windowMillis + " or capacity " + capacity);
+		}
+		this.windowMillis = windowMillis;
+		this.capacity = capacity;
+		this.wheel = new TimingWheel("session-resume", TICK_MILLIS, TimeUnit.MILLISECONDS, WHEEL_SIZE);
+	}
+
+	// null when resume is off
+	public static ResumableSessions fromSettings() {
+		var settings = Settings.instance();
+		if (settings.getResumeSeconds() == 0) {
+			return null;
+		}
+		return new ResumableSessions(TimeUnit.SECONDS.toMillis(settings.getResumeSeconds()),
+				settings.getResumeMessages());
+	}
+
+	// never 0
+	public long newToken() {
+		long token;
+		do {
+			token = random.nextLong();
+		} while (token == 0);
+		return token;
+	}
+
+	// the stand-in, expiring by itself once the window passes unless it is resumed
+	ParkedSession park(Connection connection, long parkedSequence, Consumer<ParkedSession> onExpiry) {
+		var parked = new ParkedSession(connection, parkedSequence, capacity, onExpiry);
+		parked.setExpiry(wheel.schedule(() -> onExpiry.accept(parked), windowMillis, TimeUnit.MILLISECONDS));
+		return parked;
+	}
+
+	@Override
+	public void close() {
+		wheel.close();
+	}
+}
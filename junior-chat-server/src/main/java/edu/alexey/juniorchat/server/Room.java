@@ -0,0 +1,126 @@
+package edu.alexey.juniorchat.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// members of a chat room; broadcasts read the array without locking, changes are made by RoomRegistry
+public class Room {
+
+	private static final Connection[] NO_MEMBERS = new Connection[0];
+	private static final int INITIAL_CAPACITY = 8;
+
+	private final String name;
+	// UTF-8, as written to the message log
+	private final byte[] encodedName;
+	private final MessageHistory history = MessageHistory.fromSettings();
+	// not a monitor, like the locks of the registry
+	private final ReentrantLock lock = new ReentrantLock();
+	// under the lock: members in its first size slots, each knowing its own slot, so that any leaves in O(1)
+	private Connection[] dense = new Connection[INITIAL_CAPACITY];
+	private volatile int size;
+	// what broadcasts iterate, copied from dense by the first of them after a change; null when stale,
+	// so that a crowd joining or leaving costs a single copy
+	private volatile Connection[] members = NO_MEMBERS;
+
+	Room(String name) {
+		this.name = name;
+		this.encodedName = name.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	byte[] getEncodedName() {
+		return encodedName;
+	}
+
+	public MessageHistory getHistory() {
+		return history;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// a snapshot, not to be modified
+	Connection[] members() {
+		Connection[] snapshot = members;
+		return snapshot != null ? snapshot : copyMembers();
+	}
+
+	private Connection[] copyMembers() {
+		lock.lock();
+		try {
+			if (members == null) {
+				members = size == 0 ? NO_MEMBERS : Arrays.copyOf(dense, size);
+			}
+			return members;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// under the lock of the room's shard
+
+	void add(Connection connection) {
+		lock.lock();
+		try {
+			if (size == dense.length) {
+				dense = Arrays.copyOf(dense, size * 2);
+			}
+			connection.setRoomIndex(size);
+			dense[size] = connection;
+			size = size + 1;
+			members = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// the last member takes the slot of the one leaving
+	boolean remove(Connection connection) {
+		lock.lock();
+		try {
+			int i = connection.getRoomIndex();
+			if (i < 0 || i >= size || dense[i] != connection) {
+				return false;
+			}
+			int last = size - 1;
+			Connection moved = dense[last];
+			dense[i] = moved;
+			moved.setRoomIndex(i);
+			dense[last] = null;
+			size = last;
+			connection.setRoomIndex(-1);
+			members = null;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// the replacement takes the slot of the member, so that no broadcast finds both or neither of them
+	boolean replace(Connection member, Connection replacement) {
+		lock.lock();
+		try {
+			int i = member.getRoomIndex();
+			if (i < 0 || i >= size || dense[i] != member) {
+				return false;
+			}
+			dense[i] = replacement;
+			replacement.setRoomIndex(i);
+			member.setRoomIndex(-1);
+			members = null;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,134 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+// rooms by name, spread over independently locked shards so that joins to different rooms do not contend;
+// the lobby always exists, any other room is created by the first join and removed with its last member
+public class RoomRegistry {
+
+	private static final int SHARDS = 16;
+
+	private static class Shard {
+		// not a monitor: joins happen on the reader threads, which may be virtual
+		final ReentrantLock lock = new ReentrantLock();
+		final Map<String, Room> rooms = new HashMap<>();
+	}
+
+	private final Shard[] shards = new Shard[SHARDS];
+	private final Room lobby;
+
+	public RoomRegistry(String lobbyName) {
+		for (int i = 0; i < SHARDS; ++i) {
+			shards[i] = new Shard();
+		}
+		this.lobby = new Room(Objects.requireNonNull(lobbyName));
+		shardOf(lobbyName).rooms.put(lobbyName, lobby);
+	}
+
+	public Room lobby() {
+		return lobby;
+	}
+
+	public Room find(String name) {
+		Shard shard = shardOf(name);
+		shard.lock.lock();
+		try {
+			return shard.rooms.get(name);
+		} finally {
+			shard.lock.unlock();
+		}
+	}
+
+	// moves the connection from its current room, returns the room joined
+	public Room join(Connection connection, String name) {
+		Room current = connection.getRoom();
+		if (current != null && current.getName().equals(name)) {
+			return current;
+		}
+		leave(connection);
+
+		Shard shard = shardOf(name);
+		Room room;
+		shard.lock.lock();
+		try {
+			room = shard.rooms.computeIfAbsent(name, Room::new);
+			room.add(connection);
+		} finally {
+			shard.lock.unlock();
+		}
+		connection.setRoom(room);
+
+		// closed meanwhile, so its leave() may have missed the room
+		if (connection.isClosed()) {
+			leave(connection);
+		}
+		return room;
+	}
+
+	public void leave(Connection connection) {
+		Room room = connection.getRoom();
+		if (room == null) {
+			return;
+		}
+		Shard shard = shardOf(room.getName());
+		shard.lock.lock();
+		try {
+			if (room.remove(connection) && room != lobby && room.size() == 0) {
+				shard.rooms.remove(room.getName(), room);
+				room.getHistory().clear();
+			}
+		} finally {
+			shard.lock.unlock();
+		}
+		connection.setRoom(null);
+	}
+
+	// the replacement, in no room itself, takes the place of the member; false if the member is in no room
+	public boolean replace(Connection member, Connection replacement) {
+		Room room = member.getRoom();
+		if (room == null) {
+			return false;
+		}
+		Shard shard = shardOf(room.getName());
+		shard.lock.lock();
+		try {
+			if (!room.replace(member, replacement)) {
+				return false;
+			}
+		} finally {
+			shard.lock.unlock();
+		}
+		replacement.setRoom(room);
+		member.setRoom(null);
+		return true;
+	}
+
+	// snapshot of all rooms, lobby first
+	public List<Room> rooms() {
+		var result = new ArrayList<Room>();
+		result.add(lobby);
+		for (Shard shard : shards) {
+			shard.lock.lock();
+			try {
+				for (Room room : shard.rooms.values()) {
+					if (room != lobby) {
+						result.add(room);
+					}
+				}
+			} finally {
+				shard.lock.unlock();
+			}
+		}
+		return result;
+	}
+
+	private Shard shardOf(String name) {
+		int h = name.hashCode();
+		return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+	}
+}
@@ -1,40 +1,122 @@
 package edu.alexey.juniorchat.server;
 
-import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.SocketException;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class Server implements Runnable, Closeable, PropertyChangeListener {
-
-	private static final String USER_ID_FORMAT = "**%d**";//"\0\0%d\0\0";
-	private static final String CMD_PFX = "@";
-	private static final String TO_ADMIN_CMD = CMD_PFX + "wantBeAdmin";
-	private static final String KICK_CMD = CMD_PFX + "kick";
-	private static final String QUIT_CMD = CMD_PFX + "quit";
+import edu.alexey.juniorchat.common.EventLoop;
+import edu.alexey.juniorchat.server.AuditLog.Event;
+import edu.alexey.juniorchat.server.CommandDispatcher.Arity;
+
+public class Server implements Runnable, Closeable, Connection.CloseListener, ClusterNode.Receiver {
+
+	private static final char CMD_PFX = '@';
+	private static final String TO_ADMIN_CMD = "wantBeAdmin";
+	private static final String KICK_CMD = "kick";
+	private static final String QUIT_CMD = "quit";
+	private static final String JOIN_CMD = "join";
+	private static final String LEAVE_CMD = "leave";
+	private static final String ROOMS_CMD = "rooms";
+	private static final String RESUME_CMD = "resume";
+	private static final String WHO_CMD = "who";
+	private static final String LOBBY = "lobby";
+	// ids per @who reply, well within a frame's payload even with the longest ids
+	static final int WHO_PAGE_SIZE = 1000;
+	private static final int MAX_ROOM_NAME_LENGTH = 32;
+	// sequence numbers to look back for the lobby history, per message kept, as service notices take numbers too
+	private static final int LOG_RESTORE_WINDOW = 8;
 
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-	private final ConcurrentHashMap<Integer, ConnectionHandler> connections;
+	// all the connections, for direct messages and administration
+	private final ConnectionRegistry connections = new ConnectionRegistry();
+	// broadcasts go to the members of the sender's room only
+	private final RoomRegistry rooms = new RoomRegistry(LOBBY);
+	private final CommandDispatcher commands;
+	private final AtomicInteger peakConnections = new AtomicInteger();
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile MessageLog messageLog;
+	private volatile AuditLog auditLog;
+	// null for a standalone server
+	private volatile ClusterNode cluster;
+	// null when heartbeats are off
+	private volatile Heartbeats heartbeats;
+	// null when resume is off
+	private volatile ResumableSessions resumableSessions;
+	// null when every join and leave is told at once
+	private volatile PresenceDigests presenceDigests;
 	private Integer admin;
 
-	private ServerSocket serverSocket;
+	private volatile ServerSocket[] serverSockets;
+	private volatile ServerSocketChannel[] serverChannels;
+	private EventLoop[] eventLoops;
+	// taken by the accepting loops
+	private final AtomicInteger nextEventLoop = new AtomicInteger();
 	private boolean isClosing;
 	private boolean isClosed;
 
 	public Server() {
-		this.connections = new ConcurrentHashMap<Integer, ConnectionHandler>();
+		this.commands = new CommandDispatcher(CMD_PFX)
+				.register(QUIT_CMD, Arity.NONE, (connection, line, arg, body) -> {
+					quit(connection);
+					return true;
+				})
+				.register(KICK_CMD, Arity.NUMBER, (connection, line, arg, body) -> {
+					if (!isAdmin(connection)) {
+						return false;
+					}
+					kick(arg, connection);
+					return true;
+				})
+				.register(TO_ADMIN_CMD, Arity.NONE, (connection, line, arg, body) -> {
+					if (!isAdmin(connection)) {
+						madeAdmin(connection);
+					}
+					return true;
+				})
+				.register(JOIN_CMD, Arity.TEXT, (connection, line, arg, body) -> {
+					joinRoom(connection, line.substring(body).strip());
+					return true;
+				})
+				.register(LEAVE_CMD, Arity.NONE, (connection, line, arg, body) -> {
+					joinRoom(connection, LOBBY);
+					return true;
+				})
+				.register(ROOMS_CMD, Arity.NONE, (connection, line, arg, body) -> {
+					listRooms(connection);
+					return true;
+				})
+				.register(WHO_CMD, Arity.OPTIONAL_NUMBER, (connection, line, arg, body) -> {
+					listMembers(connection, arg);
+					return true;
+				})
+				.register(RESUME_CMD, Arity.NUMBER, (connection, line, arg, body) -> {
+					resume(connection, arg, line.substring(body));
+					return true;
+				})
+				.registerNumeric((connection, line, arg, body) -> {
+					sendToAnother(arg, connection, line.substring(body));
+					return true;
+				});
 		isClosed = false;
 		isClosing = false;
 	}
@@ -43,6 +125,19 @@ public class Server implements Runnable, Closeable, PropertyChangeListener {
 		return isClosed;
 	}
 
+	public int getPeakConnections() {
+		return peakConnections.get();
+	}
+
+	// totals over the live connections, highWaterMark is the worst single queue
+	public OutboundStats getOutboundStats() {
+		var total = OutboundStats.EMPTY;
+		for (var connection : connections.snapshot()) {
+			total = total.plus(connection.getOutboundStats());
+		}
+		return total;
+	}
+
 	@Override
 	public void close() throws IOException {
 
@@ -53,22 +148,90 @@ public class Server implements Runnable, Closeable, PropertyChangeListener {
 
 		logger.info("Server shutdown...");
 
-		if (serverSocket != null && !serverSocket.isClosed()) {
-
-			try {
-				serverSocket.close();
-			} catch (IOException e) {
-				logger.error("Exception occurred on ServerSocket close attempt:", e);
+		ServerSocket[] sockets = serverSockets;
+		if (sockets != null) {
+			for (var socket : sockets) {
+				if (!socket.isClosed()) {
+					try {
+						socket.close();
+					} catch (IOException e) {
+						logger.error("Exception occurred on ServerSocket close attempt:", e);
+					}
+				}
 			}
+		}
+		closeServerChannels();
+
+		logger.info("Outbound queues at shutdown: {}.", getOutboundStats());
+		logger.info("Room histories at shutdown: {} messages, about {} bytes.",
+				ServerMetrics.instance().getHistoryMessages(), ServerMetrics.instance().getHistoryBytes());
+		// every writer delivers what was queued meanwhile, all of them within one linger
+		Connection[] closing = connections.snapshot();
+		for (var connection : closing) {
+			connection.close();
+		}
+		try {
+			for (var connection : closing) {
+				connection.awaitClosed();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 
-			for (var connection : connections.values()) {
-				connection.close();
+		if (eventLoops != null) {
+			for (var loop : eventLoops) {
+				if (loop != null) {
+					loop.close();
+				}
 			}
 		}
 
+		logger.info("Peak of simultaneous connections in {} mode: {}.",
+				Settings.instance().getMode(), peakConnections.get());
+		ServerMetrics.instance().close();
+		if (heartbeats != null) {
+			heartbeats.close();
+			heartbeats = null;
+		}
+		if (resumableSessions != null) {
+			resumableSessions.close();
+			resumableSessions = null;
+		}
+		if (presenceDigests != null) {
+			presenceDigests.close();
+			presenceDigests = null;
+		}
+		if (cluster != null) {
+			cluster.close();
+			cluster = null;
+		}
+		if (messageLog != null) {
+			messageLog.close();
+			messageLog = null;
+		}
+		if (auditLog != null) {
+			auditLog.close();
+			auditLog = null;
+		}
+
 		isClosed = true;
 	}
 
+	private void closeServerChannels() {
+		ServerSocketChannel[] channels = serverChannels;
+		if (channels != null) {
+			for (var channel : channels) {
+				if (channel.isOpen()) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						logger.error("Exception occurred on ServerSocketChannel close attempt:", e);
+					}
+				}
+			}
+		}
+	}
+
 	@Override
 	public void run() {
 		if (isClosing) {
@@ -77,197 +240,752 @@ public class Server implements Runnable, Closeable, PropertyChangeListener {
 		}
 
 		int port = Settings.instance().getPort();
-		ExecutorService pool = null;
-		try (ServerSocket ss = new ServerSocket(port)) {
-
-			this.serverSocket = ss;
-			pool = Executors.newCachedThreadPool();
-
-			logger.info("Server is listening on port {}.", port);
-
-			while (!isClosing) {
-				var clientSocket = serverSocket.accept();
-				var connection = new ConnectionHandler(clientSocket, this::handleMessage);
-				connections.put(connection.getId(), connection);
-				connection.addPropertyChangeListener(this);
-				if (pool != null) {
-					pool.execute(connection);
-					welcome(connection);
-					logger.info("A new connection established with {}.", connection.getRemoteAddress());
-				}
+		ServerMode mode = Settings.instance().getMode();
+		logger.info("Server mode: {}.", mode);
+		if (mode == ServerMode.NIO && Settings.instance().getOutboundOverflowPolicy() == OverflowPolicy.BLOCK) {
+			logger.warn("Overflow policy BLOCK does not apply in NIO mode, where an event loop must not wait:"
+					+ " a full outbound queue disconnects the consumer as with DISCONNECT.");
+		}
+		ServerMetrics.instance().useOutboundStats(this::getOutboundStats);
+		ServerMetrics.instance().start();
+		if (!Settings.instance().getLogDirectory().isBlank()) {
+			try {
+				useMessageLog(MessageLog.fromSettings());
+			} catch (IOException e) {
+				logger.error("Unable to open message log, going on without it:", e);
+			}
+		}
+		if (!Settings.instance().getAuditFile().isBlank()) {
+			try {
+				useAuditLog(AuditLog.fromSettings());
+			} catch (IOException e) {
+				logger.error("Unable to open audit log, going on without it:", e);
 			}
+		}
+		if (Settings.instance().getClusterNodeId() != 0) {
+			try {
+				useCluster(ClusterNode.fromSettings(this));
+			} catch (IOException e) {
+				logger.error("Unable to join the cluster, going on standalone:", e);
+			}
+		}
 
-		} catch (SocketException e) {
-			logger.info("ServerSocker is closing...");
+		useHeartbeats(Heartbeats.fromSettings());
+		useResumableSessions(ResumableSessions.fromSettings());
+		usePresenceDigests(PresenceDigests.fromSettings(this::presenceDigest));
+
+		switch (mode) {
+		case NIO -> runEventLoops(port);
+		case VIRTUAL -> runBlocking(port, Executors.newThreadPerTaskExecutor(
+				Thread.ofVirtual().name("connection-", 1).factory()));
+		default -> runBlocking(port, Executors.newCachedThreadPool());
+		}
+	}
+
+	// the calling thread is the first acceptor
+	private void runBlocking(int port, ExecutorService pool) {
+		int count = Settings.instance().getAcceptors();
+		try {
+			serverSockets = openServerSockets(port, count);
+			logger.info("Server is listening on port {} with {} acceptors.", port, count);
+			for (int i = 1; i < count; ++i) {
+				ServerSocket ss = serverSockets[i % serverSockets.length];
+				Thread.ofPlatform().name("acceptor-" + i).start(() -> acceptSockets(ss, pool));
+			}
+			if (!isClosing) {
+				acceptSockets(serverSockets[0], pool);
+			}
 		} catch (IOException e) {
 			logger.error("Error occurred in server lifecycle:", e);
 		} finally {
-			if (pool != null) {
-				try {
-					pool.shutdown();
-					pool = null;
-				} catch (Exception e) {
-					logger.error("Error occurred on thread pool shutting down:", e);
-				}
+			try {
+				pool.shutdown();
+			} catch (Exception e) {
+				logger.error("Error occurred on thread pool shutting down:", e);
 			}
 		}
 	}
 
-	private void welcome(ConnectionHandler connection) {
-		connection.acceptMessage(signMessage(connection.getId(), ""));
-		connection.acceptMessage(signMessage(0, "Добро пожаловать, Участник №" + connection.getId() + "."));
-		broadcast(null, "Участник №" + connection.getId() + " присоединился к чату.", connection.getId());
+	// one per acceptor bound with SO_REUSEPORT, a single shared one where the option is not supported
+	private ServerSocket[] openServerSockets(int port, int count) throws IOException {
+		ServerSocket first = new ServerSocket();
+		boolean reusePort = count > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		var sockets = new ServerSocket[reusePort ? count : 1];
+		sockets[0] = first;
+		try {
+			for (int i = 0; i < sockets.length; ++i) {
+				if (sockets[i] == null) {
+					sockets[i] = new ServerSocket();
+				}
+				if (reusePort) {
+					sockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				}
+				sockets[i].bind(new InetSocketAddress(port), Settings.instance().getAcceptBacklog());
+			}
+		} catch (IOException e) {
+			for (var socket : sockets) {
+				if (socket != null) {
+					socket.close();
+				}
+			}
+			throw e;
+		}
+		if (count > 1 && !reusePort) {
+			logger.warn("SO_REUSEPORT is not supported, the acceptors share a single listening socket.");
+		}
+		return sockets;
 	}
 
-	private void handleMessage(ConnectionHandler connection, String rawMessage) {
+	// only accepts, so that a storm of connections is not held up by setting each of them up
+	private void acceptSockets(ServerSocket ss, ExecutorService pool) {
+		while (!isClosing) {
+			Socket clientSocket;
+			try {
+				clientSocket = ss.accept();
+			} catch (SocketException e) {
+				logger.info("ServerSocker is closing...");
+				return;
+			} catch (IOException e) {
+				logger.error("Error occurred on accepting a connection:", e);
+				continue;
+			}
+			try {
+				pool.execute(() -> serve(clientSocket, pool));
+			} catch (RejectedExecutionException e) {
+				closeQuietly(clientSocket);
+				return;
+			}
+		}
+	}
 
-		if (findQuit(rawMessage)) {
-			quit(connection);
+	// on a pool thread, which goes on as the connection's reader
+	private void serve(Socket clientSocket, ExecutorService pool) {
+		ConnectionHandler connection;
+		try {
+			connection = new ConnectionHandler(clientSocket, this::handleMessage);
+		} catch (IOException e) {
+			logger.error("Unable to set up accepted connection:", e);
+			closeQuietly(clientSocket);
 			return;
 		}
+		register(connection);
+		// queued ahead of anything the reader may trigger, e.g. a protocol switch
+		welcome(connection);
+		pool.execute(connection::runWriter);
+		logger.info("A new connection established with {}.", connection.getRemoteAddress());
+		connection.run();
+	}
 
-		if (admin != null && admin == connection.getId()) {
-			// check commands eligible to admin:
-			var kickMessage = findKickCommand(rawMessage);
-			if (kickMessage.command().isEmpty()) {
-				if (findWantBeAdmin(rawMessage)) {
-					return;
+	// the calling thread runs the first event loop; the first of the loops, as many as there are acceptors,
+	// also accept connections
+	private void runEventLoops(int port) {
+		int count = Settings.instance().getEventLoops();
+		int acceptors = Math.min(Settings.instance().getAcceptors(), count);
+		try {
+			serverChannels = openServerChannels(port, acceptors);
+
+			eventLoops = new EventLoop[count];
+			for (int i = 0; i < count; ++i) {
+				eventLoops[i] = new EventLoop("event-loop-" + i);
+			}
+			for (int i = 1; i < count; ++i) {
+				eventLoops[i].start();
+			}
+			for (int i = 0; i < acceptors; ++i) {
+				ServerSocketChannel ssc = serverChannels[i % serverChannels.length];
+				eventLoops[i].register(ssc, SelectionKey.OP_ACCEPT, key -> acceptChannel(ssc));
+			}
+
+			logger.info("Server is listening on port {} with {} event loops, {} of them accepting.", port, count,
+					acceptors);
+
+			if (!isClosing) {
+				eventLoops[0].run();
+			}
+
+		} catch (IOException e) {
+			logger.error("Error occurred in server lifecycle:", e);
+		} finally {
+			if (eventLoops != null) {
+				for (var loop : eventLoops) {
+					if (loop != null) {
+						loop.close();
+					}
 				}
-			} else {
-				kick(kickMessage.command().get(), connection);
-				return;
 			}
+			closeServerChannels();
 		}
+	}
 
-		if (findWantBeAdmin(rawMessage)) {
-			madeAdmin(connection);
-			return;
+	// as openServerSockets(); a channel shared by several selectors is accepted from by whichever loop is first
+	private ServerSocketChannel[] openServerChannels(int port, int count) throws IOException {
+		ServerSocketChannel first = ServerSocketChannel.open();
+		boolean reusePort = count > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		var channels = new ServerSocketChannel[reusePort ? count : 1];
+		channels[0] = first;
+		try {
+			for (int i = 0; i < channels.length; ++i) {
+				if (channels[i] == null) {
+					channels[i] = ServerSocketChannel.open();
+				}
+				if (reusePort) {
+					channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				}
+				channels[i].bind(new InetSocketAddress(port), Settings.instance().getAcceptBacklog());
+				channels[i].configureBlocking(false);
+			}
+		} catch (IOException e) {
+			for (var channel : channels) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+			throw e;
+		}
+		if (count > 1 && !reusePort) {
+			logger.warn("SO_REUSEPORT is not supported, the acceptors share a single listening channel.");
+		}
+		return channels;
+	}
+
+	// hands every connection over to a loop, which sets it up after the accepting is done
+	private void acceptChannel(ServerSocketChannel ssc) throws IOException {
+		SocketChannel channel;
+		while (!isClosing && (channel = ssc.accept()) != null) {
+			var loop = eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+			SocketChannel accepted = channel;
+			loop.execute(() -> serve(accepted, loop));
+		}
+	}
+
+	// on the event loop of the connection
+	private void serve(SocketChannel channel, EventLoop loop) {
+		try {
+			var connection = new ChannelConnection(channel, loop, this::handleMessage);
+			register(connection);
+			welcome(connection);
+			connection.register();
+			logger.info("A new connection established with {}.", connection.getRemoteAddress());
+		} catch (IOException e) {
+			logger.error("Unable to set up accepted connection:", e);
+			closeQuietly(channel);
+		}
+	}
+
+	private void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			logger.error("Exception occurred on accepted connection close attempt:", e);
+		}
+	}
+
+	// continues the sequence numbers of the log and restores the lobby history from it
+	void useMessageLog(MessageLog log) {
+		sequence.accumulateAndGet(log.lastSequence(), Math::max);
+		long from = Math.max(1, log.lastSequence() - LOG_RESTORE_WINDOW * Settings.instance().getHistoryCapacity());
+		MessageHistory lobbyHistory = rooms.lobby().getHistory();
+		log.replay(from, entry -> {
+			if (LOBBY.equals(entry.room())) {
+				lobbyHistory.append(entry.toMessage());
+			}
+		});
+		messageLog = log;
+	}
+
+	void useAuditLog(AuditLog log) {
+		auditLog = log;
+	}
+
+	void useCluster(ClusterNode node) {
+		cluster = node;
+	}
+
+	void useHeartbeats(Heartbeats heartbeats) {
+		this.heartbeats = heartbeats;
+	}
+
+	void useResumableSessions(ResumableSessions sessions) {
+		resumableSessions = sessions;
+	}
+
+	void usePresenceDigests(PresenceDigests digests) {
+		presenceDigests = digests;
+	}
+
+	void register(Connection connection) {
+		ResumableSessions sessions = resumableSessions;
+		if (sessions != null) {
+			connection.setResumeToken(sessions.newToken());
+		}
+		// the ids wrap around within the node's range, so the one handed out may still be a live or parked session's
+		while (!connections.add(connection)) {
+			connection.reassignId(IdFactory.instance().getAsInt());
+		}
+		// the id assignment, the only message signed with the recipient's own id, its body is the resume token;
+		// queued ahead of the broadcasts that reach the connection once it is in the lobby
+		connection.acceptMessage(signMessage(MessageType.PROTOCOL, connection.getId(), tokenOf(connection)));
+		rooms.join(connection, LOBBY);
+		connection.setCloseListener(this);
+		Heartbeats watcher = heartbeats;
+		if (watcher != null) {
+			watcher.watch(connection);
 		}
+		peakConnections.accumulateAndGet(connections.size(), Math::max);
+		ServerMetrics.instance().connectionAccepted();
+		audit(Event.CONNECT, connection.getId(), 0, connection.getRemoteAddress());
+	}
+
+	void welcome(Connection connection) {
+		connection.acceptMessage(signMessage(0, "Добро пожаловать, Участник №" + connection.getId() + "."));
+		replayHistory(connection, rooms.lobby());
+		presence(rooms.lobby(), connection, true, "присоединился к чату.");
+	}
 
-		var messageWithDestination = findDestination(rawMessage);
-		if (messageWithDestination.command().isEmpty()) {
+	void handleMessage(Connection connection, String rawMessage) {
+		ServerMetrics.instance().messageReceived();
+		RateLimiter limiter = connection.getRateLimiter();
+		if (limiter != null && !throttle(connection, limiter, rawMessage)) {
+			return;
+		}
+		if (!commands.dispatch(connection, rawMessage)) {
 			broadcast(connection, rawMessage, connection.getId());
-		} else {
-			sendToAnother(messageWithDestination.command().get(),
-					connection,
-					messageWithDestination.message());
 		}
 	}
 
-	private void kick(int id, ConnectionHandler adminConnection) {
-		var target = connections.get(Integer.valueOf(id));
+	// the message itself goes through, the reader pays for it by a pause; false for a flooder just disconnected
+	private boolean throttle(Connection connection, RateLimiter limiter, String rawMessage) {
+		boolean direct = rawMessage.length() > 1 && rawMessage.charAt(0) == CMD_PFX
+				&& Character.isDigit(rawMessage.charAt(1));
+		long pause = limiter.acquire(direct, utf8Length(rawMessage), System.nanoTime());
+		if (pause == RateLimiter.DISCONNECT) {
+			logger.warn("Connection with {} keeps flooding, disconnecting.", connection.getRemoteAddress());
+			ServerMetrics.instance().floodDisconnect();
+			audit(Event.FLOOD, connection.getId(), 0, null);
+			endSession(connection, signMessage(0, "Вы отключаетесь от чата за флуд."));
+			return false;
+		}
+		if (pause > 0) {
+			ServerMetrics.instance().messageThrottled();
+			connection.pauseReading(pause);
+		}
+		return true;
+	}
+
+	private static int utf8Length(String text) {
+		int length = text.length();
+		for (int i = 0; i < text.length(); ++i) {
+			char c = text.charAt(i);
+			if (c >= 0x800) {
+				length += Character.isSurrogate(c) ? 1 : 2;
+			} else if (c >= 0x80) {
+				++length;
+			}
+		}
+		return length;
+	}
+
+	// the dispatcher is exposed to let extensions register more commands
+	public CommandDispatcher getCommands() {
+		return commands;
+	}
+
+	private boolean isAdmin(Connection connection) {
+		return admin != null && admin == connection.getId();
+	}
+
+	private void kick(int id, Connection adminConnection) {
+		audit(Event.KICK, adminConnection.getId(), id, null);
+		ClusterNode node = cluster;
+		if (node != null && !node.isLocal(id)) {
+			if (!node.relayKick(id, signMessage(0, "Вы отключаетесь от чата по запросу администратора."))) {
+				adminConnection.acceptMessage(signMessage(0, "Нет участника с таким номером!"));
+			}
+			return;
+		}
+
+		var target = connections.get(id);
 		if (target == null) {
 			adminConnection.acceptMessage(signMessage(0, "Нет участника с таким номером!"));
 			return;
 		}
 
-		target.acceptMessage(signMessage(0, "Вы отключаетесь от чата по запросу администратора."));
-		target.close();
+		endSession(target, signMessage(0, "Вы отключаетесь от чата по запросу администратора."));
 	}
 
-	private void quit(ConnectionHandler connection) {
-		connection.acceptMessage(signMessage(0, "Вы покидаете чат. Ждём вас снова!"));
+	private void quit(Connection connection) {
+		Room room = connection.getRoom();
+		endSession(connection, signMessage(0, "Вы покидаете чат. Ждём вас снова!"));
+		if (room != null) {
+			presence(room, connection, false, "покинул чат.");
+		}
+	}
+
+	// closed on purpose: neither parked nor reconnected to by the client, which the goodbye tells
+	private void endSession(Connection connection, EncodedMessage notice) {
+		connection.acceptMessage(notice);
+		connection.acceptMessage(EncodedMessage.GOODBYE);
+		connection.setResumable(false);
 		connection.close();
-		broadcast(null, "Участник №" + connection.getId() + " покинул чат.", 0);
 	}
 
-	private void madeAdmin(ConnectionHandler connection) {
+	private void madeAdmin(Connection connection) {
 		admin = connection.getId();
+		audit(Event.ADMIN, connection.getId(), 0, null);
 		connection.acceptMessage(signMessage(0, "Вы назначены администатором чата."));
 	}
 
-	private void broadcast(ConnectionHandler connection, String message, int excludeId) {
-		int id = connection == null ? 0 : connection.getId();
-		String signedMessage = signMessage(id, message);
+	private void joinRoom(Connection connection, String name) {
+		if (name.isEmpty() || name.length() > MAX_ROOM_NAME_LENGTH || name.chars().anyMatch(Character::isWhitespace)) {
+			connection.acceptMessage(signMessage(0,
+					"Название комнаты - одно слово не длиннее " + MAX_ROOM_NAME_LENGTH + " символов."));
+			return;
+		}
+		Room previous = connection.getRoom();
+		if (previous != null && previous.getName().equals(name)) {
+			connection.acceptMessage(signMessage(0, "Вы уже в комнате «" + name + "»."));
+			return;
+		}
 
-		for (var conn : connections.values()) {
-			if (conn != null && !conn.isClosed() && conn.getId() != excludeId) {
-				conn.acceptMessage(signedMessage);
-			}
+		Room room = rooms.join(connection, name);
+		audit(Event.JOIN, connection.getId(), 0, room.getName());
+		if (previous != null) {
+			presence(previous, connection, false, "покинул комнату.");
 		}
+		presence(room, connection, true, "вошёл в комнату.");
+		connection.acceptMessage(signMessage(0,
+				"Вы в комнате «" + room.getName() + "». Участников: " + room.size() + "."));
+		replayHistory(connection, room);
+	}
 
-		logger.info("Broadcast from {}: {}", id, message);
+	// only a snapshot of references is taken here, the connection's writer sends the messages
+	private void replayHistory(Connection connection, Room room) {
+		var settings = Settings.instance();
+		connection.replay(room.getHistory().last(settings.getHistoryReplayMessages(),
+				settings.getHistoryReplaySeconds(), TimeUnit.SECONDS));
 	}
 
-	private void sendToAnother(int anotherId, ConnectionHandler connection, String message) {
-		var another = connections.get(Integer.valueOf(anotherId));
-		if (another == null) {
-			if (connection != null) {
-				connection.acceptMessage(signMessage(0, "Нет участника с таким номером!"));
-			}
+	// a notice to the room at once, or a count in its next digest
+	private void presence(Room room, Connection connection, boolean joined, String notice) {
+		PresenceDigests digests = presenceDigests;
+		if (digests == null) {
+			broadcast(room, null, "Участник №" + connection.getId() + " " + notice, joined ? connection.getId() : 0);
+		} else if (joined) {
+			digests.joined(room);
+		} else {
+			digests.left(room);
+		}
+	}
+
+	// on the wheel thread of the digests
+	void presenceDigest(Room room, int joined, int left) {
+		var digest = new StringBuilder("Участники:");
+		if (joined > 0) {
+			digest.append(" +").append(joined).append(" вошло");
+		}
+		if (left > 0) {
+			digest.append(joined > 0 ? ", -" : " -").append(left).append(" вышло");
+		}
+		broadcast(room, null, digest.append('.').toString(), 0);
+	}
+
+	// the members of the sender's room, which the digests only count
+	// a page of WHO_PAGE_SIZE ids from the offset on in the order of the ids, the whole room when it fits
+	private void listMembers(Connection connection, int offset) {
+		Room room = connection.getRoom();
+		if (room == null) {
 			return;
 		}
+		int[] ids = Arrays.stream(room.members()).mapToInt(Connection::getId).sorted().toArray();
+		int from = Math.min(offset, ids.length);
+		int to = Math.min(ids.length, from + WHO_PAGE_SIZE);
+		var list = new StringBuilder("Участники комнаты «").append(room.getName()).append("» (").append(ids.length)
+				.append(')');
+		if (from > 0 || to < ids.length) {
+			list.append(", с ").append(from + 1).append(" по ").append(to);
+		}
+		list.append(':');
+		for (int i = from; i < to; ++i) {
+			list.append(" №").append(ids[i]);
+		}
+		if (to < ids.length) {
+			list.append(". Дальше: ").append(CMD_PFX).append(WHO_CMD).append(' ').append(to);
+		}
+		connection.acceptMessage(signMessage(0, list.toString()));
+	}
 
-		another.acceptMessage(signMessage(connection == null ? 0 : connection.getId(), message));
+	private void listRooms(Connection connection) {
+		var list = new StringBuilder("Комнаты:");
+		for (Room room : rooms.rooms()) {
+			list.append(' ').append(room.getName()).append(" (").append(room.size()).append(')');
+		}
+		connection.acceptMessage(signMessage(0, list.toString()));
 	}
 
-	@Override
-	public void propertyChange(PropertyChangeEvent evt) {
-		String propName = evt.getPropertyName();
-		if (propName.equals("isClosed") && (evt.getSource() instanceof ConnectionHandler connection)) {
-			if (connection.isClosed()) {
-				connections.remove(connection.getId());
+	// to the room of the sender, server messages go to the lobby
+	void broadcast(Connection connection, String message, int excludeId) {
+		Room room = connection == null ? rooms.lobby() : connection.getRoom();
+		if (room != null) {
+			broadcast(room, connection, message, excludeId);
+		}
+	}
+
+	private void broadcast(Room room, Connection connection, String message, int excludeId) {
+		long start = System.nanoTime();
+		int id = connection == null ? 0 : connection.getId();
+		// encoded once, every recipient queues the very same bytes
+		EncodedMessage signedMessage = signMessage(id, message);
+		int recipients = deliver(room, signedMessage, excludeId);
+
+		ClusterNode node = cluster;
+		if (node != null) {
+			node.relayBroadcast(room, signedMessage);
+		}
+		if (connection != null) {
+			room.getHistory().append(signedMessage);
+			MessageLog log = messageLog;
+			if (log != null) {
+				log.append(signedMessage, room, 0);
+			}
+			AuditLog audit = auditLog;
+			if (audit != null) {
+				audit.message(signedMessage, room, 0);
 			}
-			logger.info("Closed connection with {} is removed from connections pool.", connection.getRemoteAddress());
 		}
+		ServerMetrics.instance().broadcast(recipients, System.nanoTime() - start);
 	}
 
-	private String signMessage(int id, String message) {
-		String userId = String.format(USER_ID_FORMAT, id);
-		return userId + System.lineSeparator() + message;
+	private int deliver(Room room, EncodedMessage message, int excludeId) {
+		int recipients = 0;
+		for (var conn : room.members()) {
+			// a closing connection ignores the message
+			if (conn.getId() != excludeId) {
+				conn.acceptMessage(message);
+				++recipients;
+			}
+		}
+		return recipients;
 	}
 
-	private Pair<Integer> findKickCommand(String rawMessage) {
-		var extracted = extractFirst(rawMessage, "^\\s*(" + KICK_CMD + "\\s+\\d+)\\s*");
-		if (extracted == null) {
-			return new Pair<Integer>(Optional.empty(), rawMessage);
-		} else {
-			int target = Integer.parseInt(extracted[0].strip().substring(KICK_CMD.length()).stripLeading());
-			return new Pair<Integer>(Optional.of(target), extracted[1]);
+	// the node of the sender has logged the message already
+	@Override
+	public void relayedBroadcast(String roomName, EncodedMessage relayed) {
+		long start = System.nanoTime();
+		Room room = rooms.find(roomName);
+		if (room == null) {
+			return;
+		}
+		EncodedMessage message = resequenced(relayed);
+		int recipients = deliver(room, message, message.senderId());
+		if (message.type() == MessageType.CHAT) {
+			room.getHistory().append(message);
 		}
+		ServerMetrics.instance().broadcast(recipients, System.nanoTime() - start);
 	}
 
-	private Pair<Integer> findDestination(String rawMessage) {
-		var extracted = extractFirst(rawMessage, "^\\s*" + CMD_PFX + "(\\d+)\\s*");
-		if (extracted == null) {
-			return new Pair<Integer>(Optional.empty(), rawMessage);
+	@Override
+	public void relayedDirect(int recipientId, EncodedMessage message) {
+		var another = connections.get(recipientId);
+		if (another != null) {
+			another.acceptMessage(resequenced(message));
+			return;
+		}
+		ClusterNode node = cluster;
+		if (node != null && message.type() == MessageType.DIRECT) {
+			node.relayDirect(message.senderId(), signMessage(0, "Нет участника с таким номером!"));
+		}
+	}
+
+	@Override
+	public void relayedKick(int id, EncodedMessage notice) {
+		var target = connections.get(id);
+		if (target != null) {
+			endSession(target, resequenced(notice));
+		}
+	}
+
+	// to a participant of another node through the cluster link, which tells only whether there is such a node
+	private void sendToAnother(int anotherId, Connection connection, String message) {
+		ClusterNode node = cluster;
+		boolean remote = node != null && !node.isLocal(anotherId);
+		var another = remote ? null : connections.get(anotherId);
+		if (!remote && another == null) {
+			if (connection != null) {
+				connection.acceptMessage(signMessage(0, "Нет участника с таким номером!"));
+			}
+			return;
+		}
+
+		EncodedMessage signedMessage = signMessage(MessageType.DIRECT, connection == null ? 0 : connection.getId(), message);
+		if (remote) {
+			if (!node.relayDirect(anotherId, signedMessage)) {
+				if (connection != null) {
+					connection.acceptMessage(signMessage(0, "Нет участника с таким номером!"));
+				}
+				return;
+			}
 		} else {
-			int dest = Integer.parseInt(extracted[0].strip().substring(1));
-			return new Pair<Integer>(Optional.of(dest), extracted[1]);
+			another.acceptMessage(signedMessage);
+		}
+		MessageLog log = messageLog;
+		if (log != null) {
+			log.append(signedMessage, null, anotherId);
+		}
+		AuditLog audit = auditLog;
+		if (audit != null) {
+			audit.message(signedMessage, null, anotherId);
 		}
 	}
 
-	private boolean findWantBeAdmin(String rawMessage) {
-		return rawMessage.strip().equals(TO_ADMIN_CMD);
+	// "@resume <id> <token> <last sequence>": the connection takes over the session parked under the id and is sent
+	// what it has missed, otherwise it goes on under the id it has; the answer is an id assignment either way
+	private void resume(Connection connection, int id, String args) {
+		String[] parts = args.strip().split("\\s+");
+		long token = 0;
+		long lastSequence = -1;
+		if (parts.length == 2) {
+			try {
+				token = Long.parseUnsignedLong(parts[0], 16);
+				lastSequence = Long.parseLong(parts[1]);
+			} catch (NumberFormatException e) {
+				token = 0;
+			}
+		}
+		ParkedSession parked = connections.get(id) instanceof ParkedSession session ? session : null;
+		if (parked == null || token == 0 || lastSequence < 0 || !parked.claim(token)) {
+			connection.acceptMessage(signMessage(MessageType.PROTOCOL, connection.getId(), tokenOf(connection)));
+			connection.acceptMessage(signMessage(0, "Сессию Участника №" + id + " восстановить нельзя, вы - Участник №"
+					+ connection.getId() + "."));
+			return;
+		}
+
+		int interimId = connection.getId();
+		Room interimRoom = connection.getRoom();
+		connections.remove(connection);
+		rooms.leave(connection);
+		// the interim participant was announced by the welcome
+		if (interimRoom != null) {
+			presence(interimRoom, connection, false, "покинул чат.");
+		}
+		connection.reassignId(id);
+		// ahead of the messages that reach the connection once it takes the place of the parked session
+		connection.acceptMessage(signMessage(MessageType.PROTOCOL, id, tokenOf(connection)));
+		Room room = parked.getRoom();
+		if (!rooms.replace(parked, connection)) {
+			rooms.join(connection, LOBBY);
+		}
+		connections.replace(parked, connection);
+		EncodedMessage[] missed = missed(room, id, lastSequence, parked.getParkedSequence(),
+				parked.resumedBy(connection));
+
+		connection.acceptMessage(signMessage(0, "Сессия Участника №" + id + " восстановлена, пропущено сообщений: "
+				+ missed.length + "."));
+		connection.replay(missed);
+		ServerMetrics.instance().sessionResumed();
+		audit(Event.RESUME, id, interimId, connection.getRemoteAddress());
+		logger.info("Session of participant №{} is resumed from {}.", id, connection.getRemoteAddress());
 	}
 
-	private boolean findQuit(String rawMessage) {
-		return rawMessage.strip().equals(QUIT_CMD);
+	// the room's messages after the last one seen up to the break, and those kept since, in sequence order;
+	// a message may be among both, a participant's own broadcasts are not sent to it
+	private static EncodedMessage[] missed(Room room, int id, long lastSequence, long parkedSequence,
+			EncodedMessage[] kept) {
+		var all = new ArrayList<EncodedMessage>(kept.length);
+		if (room != null) {
+			for (var message : room.getHistory().between(lastSequence, parkedSequence)) {
+				if (message.senderId() != id) {
+					all.add(message);
+				}
+			}
+		}
+		for (var message : kept) {
+			if (message.sequence() > lastSequence) {
+				all.add(message);
+			}
+		}
+		all.sort(Comparator.comparingLong(EncodedMessage::sequence));
+		var result = new ArrayList<EncodedMessage>(all.size());
+		for (var message : all) {
+			if (result.isEmpty() || result.get(result.size() - 1).sequence() != message.sequence()) {
+				result.add(message);
+			}
+		}
+		return result.toArray(EncodedMessage[]::new);
 	}
 
-	private String[] extractFirst(String input, String regex) {
-		Pattern pattern = Pattern.compile(regex, Pattern.UNICODE_CHARACTER_CLASS);
-		Matcher matcher = pattern.matcher(input);
-		StringBuilder sbInput = new StringBuilder(input);
+	private static String tokenOf(Connection connection) {
+		long token = connection.getResumeToken();
+		return token == 0 ? "" : Long.toHexString(token);
+	}
 
-		int removedLength = 0;
-		if (matcher.find()) {
+	@Override
+	public void connectionClosed(Connection connection) {
+		if (connection instanceof ParkedSession parked) {
+			// kicked, or the server is closing
+			expire(parked);
+			return;
+		}
+		if (park(connection) != null || connections.remove(connection)) {
+			rooms.leave(connection);
+			Heartbeats watcher = heartbeats;
+			if (watcher != null) {
+				watcher.unwatch(connection);
+			}
+			ServerMetrics.instance().connectionClosed();
+			audit(Event.DISCONNECT, connection.getId(), 0, null);
+		}
+		logger.info("Closed connection with {} is removed from connections pool.", connection.getRemoteAddress());
+	}
 
-			String matchStr = matcher.group();
+	// a session broken rather than ended on purpose leaves a stand-in in its place in the registry and the room;
+	// null if it is not to be resumed
+	private ParkedSession park(Connection connection) {
+		ResumableSessions sessions = resumableSessions;
+		if (sessions == null || isClosing || connection.getRoom() == null || !connection.isResumable()) {
+			return null;
+		}
+		ParkedSession parked = sessions.park(connection, sequence.get(), this::expire);
+		parked.setCloseListener(this);
+		if (!rooms.replace(connection, parked)) {
+			parked.expire();
+			return null;
+		}
+		if (!connections.replace(connection, parked)) {
+			rooms.leave(parked);
+			parked.expire();
+			return null;
+		}
+		logger.info("Session of participant №{} waits to be resumed.", parked.getId());
+		return parked;
+	}
 
-			int start = matcher.start();
-			int end = matcher.end();
-			int len = end - start;
-			start -= removedLength;
-			end -= removedLength;
-			sbInput.delete(start, end);
-			removedLength += len;
+	// not resumed in time, fallen too far behind, or closed
+	private void expire(ParkedSession parked) {
+		if (parked.expire()) {
+			connections.remove(parked);
+			rooms.leave(parked);
+			logger.info("Session of participant №{} has expired.", parked.getId());
+		}
+	}
 
-			return new String[] { matchStr, sbInput.toString() };
+	private void audit(Event event, int id, int targetId, String detail) {
+		AuditLog audit = auditLog;
+		if (audit != null) {
+			audit.event(event, id, targetId, detail);
 		}
-		return null;
 	}
 
-	private static record Pair<T>(Optional<T> command, String message) {
+	EncodedMessage signMessage(int id, String message) {
+		return signMessage(id == 0 ? MessageType.SERVICE : MessageType.CHAT, id, message);
+	}
+
+	private EncodedMessage signMessage(MessageType type, int id, String message) {
+		return EncodedMessage.of(type, id, sequence.incrementAndGet(), message);
 	}
+
+	// a message of another node numbered in the sequence of this one, see ClusterNode.Receiver
+	private EncodedMessage resequenced(EncodedMessage relayed) {
+		return signMessage(relayed.type(), relayed.senderId(), relayed.body());
+	}
+
 }
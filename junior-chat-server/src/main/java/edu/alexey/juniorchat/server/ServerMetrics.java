@@ -0,0 +1,486 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+import edu.alexey.juniorchat.common.Histogram;
+
+// lazy init singleton, counters are cheap enough to be updated on every message
+public class ServerMetrics implements ServerMetricsMBean, Closeable {
+
+	public static ServerMetrics instance() {
+		return Holder.instance;
+	}
+
+	private static final String OBJECT_NAME = "edu.alexey.juniorchat:type=ServerMetrics";
+	private static final String SCRAPE_PATH = "/metrics";
+	private static final long SAMPLE_PERIOD_MILLIS = 1000;
+	// the percentiles and maxima are of the last minute, in slices of 10 seconds
+	private static final int WINDOW_SLICES = 6;
+	private static final long SLICE_MILLIS = 10_000;
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final LongAdder connectionsAccepted = new LongAdder();
+	private final LongAdder connectionsClosed = new LongAdder();
+	private final LongAdder messagesIn = new LongAdder();
+	private final LongAdder messagesOut = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final WindowedHistogram broadcastFanout = new WindowedHistogram(WINDOW_SLICES);
+	private final WindowedHistogram broadcastNanos = new WindowedHistogram(WINDOW_SLICES);
+	private final WindowedHistogram writeNanos = new WindowedHistogram(WINDOW_SLICES);
+	private final LongAdder writeCalls = new LongAdder();
+	private final LongAdder coalesceDelayNanos = new LongAdder();
+	private final LongAdder historyMessages = new LongAdder();
+	private final LongAdder historyBytes = new LongAdder();
+	private final LongAdder messagesThrottled = new LongAdder();
+	private final LongAdder floodDisconnects = new LongAdder();
+	private final LongAdder heartbeatEvictions = new LongAdder();
+	private final LongAdder sessionsResumed = new LongAdder();
+
+	// per second rates, updated by the sampler
+	private volatile double messagesInRate;
+	private volatile double messagesOutRate;
+	private volatile double bytesInRate;
+	private volatile double bytesOutRate;
+	// accessed by the sampler thread only
+	private long lastSampleNanos;
+	private long lastMessagesIn;
+	private long lastMessagesOut;
+	private long lastBytesIn;
+	private long lastBytesOut;
+
+	// of the live connections, read on demand
+	private volatile Supplier<OutboundStats> outboundStats = () -> OutboundStats.EMPTY;
+
+	private ScheduledExecutorService sampler;
+	private HttpServer endpoint;
+	private ObjectName objectName;
+
+	private ServerMetrics() {
+	}
+
+	// recording
+
+	public void connectionAccepted() {
+		connectionsAccepted.increment();
+	}
+
+	public void connectionClosed() {
+		connectionsClosed.increment();
+	}
+
+	public void messageReceived() {
+		messagesIn.increment();
+	}
+
+	public void bytesReceived(long bytes) {
+		bytesIn.add(bytes);
+	}
+
+	// a batch written with as many socket writes as calls, after being held open for more messages heldOpenNanos
+	public void batchWritten(int messages, int calls, long bytes, long nanos, long heldOpenNanos) {
+		messagesOut.add(messages);
+		bytesOut.add(bytes);
+		writeNanos.record(nanos);
+		writeCalls.add(calls);
+		coalesceDelayNanos.add(heldOpenNanos);
+	}
+
+	public void broadcast(int recipients, long nanos) {
+		broadcastFanout.record(recipients);
+		broadcastNanos.record(nanos);
+	}
+
+	public void historyChanged(int messages, long bytes) {
+		historyMessages.add(messages);
+		historyBytes.add(bytes);
+	}
+
+	// a message after which the connection's reads were paused
+	public void messageThrottled() {
+		messagesThrottled.increment();
+	}
+
+	public void floodDisconnect() {
+		floodDisconnects.increment();
+	}
+
+	// a connection closed for not answering a ping
+	public void heartbeatEviction() {
+		heartbeatEvictions.increment();
+	}
+
+	// a broken connection's session taken over by a new one
+	public void sessionResumed() {
+		sessionsResumed.increment();
+	}
+
+	// lifecycle
+
+	// the queues are walked on every read of their gauges, a scrape or a JMX poll, not on the message path
+	public void useOutboundStats(Supplier<OutboundStats> stats) {
+		outboundStats = stats;
+	}
+
+	public synchronized void start() {
+		if (sampler != null) {
+			return;
+		}
+		lastSampleNanos = System.nanoTime();
+		sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics-sampler");
+			t.setDaemon(true);
+			return t;
+		});
+		sampler.scheduleAtFixedRate(this::sample, SAMPLE_PERIOD_MILLIS, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+		sampler.scheduleAtFixedRate(this::rotate, SLICE_MILLIS, SLICE_MILLIS, TimeUnit.MILLISECONDS);
+
+		if (Settings.instance().isMetricsJmx()) {
+			try {
+				MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+				objectName = new ObjectName(OBJECT_NAME);
+				if (!mbs.isRegistered(objectName)) {
+					mbs.registerMBean(this, objectName);
+				}
+				logger.info("Metrics are registered in JMX as {}.", OBJECT_NAME);
+			} catch (JMException e) {
+				logger.error("Unable to register metrics MBean:", e);
+				objectName = null;
+			}
+		}
+
+		int port = Settings.instance().getMetricsPort();
+		if (port > 0) {
+			try {
+				// local only, the scrape endpoint has no authentication
+				endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+				endpoint.createContext(SCRAPE_PATH, exchange -> {
+					byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+					exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+					exchange.sendResponseHeaders(200, body.length);
+					try (OutputStream os = exchange.getResponseBody()) {
+						os.write(body);
+					}
+				});
+				endpoint.start();
+				logger.info("Metrics are served at http://{}:{}{}.",
+						InetAddress.getLoopbackAddress().getHostAddress(), port, SCRAPE_PATH);
+			} catch (IOException e) {
+				logger.error("Unable to start metrics endpoint on port {}:", port, e);
+				endpoint = null;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (sampler == null) {
+			return;
+		}
+		sampler.shutdownNow();
+		sampler = null;
+		if (endpoint != null) {
+			endpoint.stop(0);
+			endpoint = null;
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				logger.error("Unable to unregister metrics MBean:", e);
+			}
+			objectName = null;
+		}
+	}
+
+	void sample() {
+		long now = System.nanoTime();
+		double seconds = (now - lastSampleNanos) / 1e9;
+		if (seconds <= 0) {
+			return;
+		}
+		long in = messagesIn.sum();
+		long out = messagesOut.sum();
+		long bin = bytesIn.sum();
+		long bout = bytesOut.sum();
+		messagesInRate = (in - lastMessagesIn) / seconds;
+		messagesOutRate = (out - lastMessagesOut) / seconds;
+		bytesInRate = (bin - lastBytesIn) / seconds;
+		bytesOutRate = (bout - lastBytesOut) / seconds;
+		lastMessagesIn = in;
+		lastMessagesOut = out;
+		lastBytesIn = bin;
+		lastBytesOut = bout;
+		lastSampleNanos = now;
+	}
+
+	// the oldest slice of every window is dropped
+	void rotate() {
+		broadcastFanout.rotate();
+		broadcastNanos.rotate();
+		writeNanos.rotate();
+	}
+
+	// ServerMetricsMBean
+
+	@Override
+	public long getConnectionsAccepted() {
+		return connectionsAccepted.sum();
+	}
+
+	@Override
+	public long getConnectionsClosed() {
+		return connectionsClosed.sum();
+	}
+
+	@Override
+	public long getConnectionsActive() {
+		return getConnectionsAccepted() - getConnectionsClosed();
+	}
+
+	@Override
+	public long getMessagesIn() {
+		return messagesIn.sum();
+	}
+
+	@Override
+	public long getMessagesOut() {
+		return messagesOut.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public double getMessagesInPerSecond() {
+		return messagesInRate;
+	}
+
+	@Override
+	public double getMessagesOutPerSecond() {
+		return messagesOutRate;
+	}
+
+	@Override
+	public double getBytesInPerSecond() {
+		return bytesInRate;
+	}
+
+	@Override
+	public double getBytesOutPerSecond() {
+		return bytesOutRate;
+	}
+
+	@Override
+	public long getBroadcasts() {
+		return broadcastFanout.count();
+	}
+
+	@Override
+	public long getBroadcastFanoutP50() {
+		return broadcastFanout.window().percentile(50);
+	}
+
+	@Override
+	public long getBroadcastFanoutP99() {
+		return broadcastFanout.window().percentile(99);
+	}
+
+	@Override
+	public long getBroadcastFanoutMax() {
+		return broadcastFanout.window().max();
+	}
+
+	@Override
+	public long getBroadcastMicrosP50() {
+		return TimeUnit.NANOSECONDS.toMicros(broadcastNanos.window().percentile(50));
+	}
+
+	@Override
+	public long getBroadcastMicrosP99() {
+		return TimeUnit.NANOSECONDS.toMicros(broadcastNanos.window().percentile(99));
+	}
+
+	@Override
+	public long getBroadcastMicrosMax() {
+		return TimeUnit.NANOSECONDS.toMicros(broadcastNanos.window().max());
+	}
+
+	@Override
+	public long getWriteMicrosP50() {
+		return TimeUnit.NANOSECONDS.toMicros(writeNanos.window().percentile(50));
+	}
+
+	@Override
+	public long getWriteMicrosP99() {
+		return TimeUnit.NANOSECONDS.toMicros(writeNanos.window().percentile(99));
+	}
+
+	@Override
+	public long getWriteMicrosMax() {
+		return TimeUnit.NANOSECONDS.toMicros(writeNanos.window().max());
+	}
+
+	@Override
+	public long getHistoryMessages() {
+		return historyMessages.sum();
+	}
+
+	@Override
+	public long getHistoryBytes() {
+		return historyBytes.sum();
+	}
+
+	@Override
+	public long getMessagesThrottled() {
+		return messagesThrottled.sum();
+	}
+
+	@Override
+	public long getFloodDisconnects() {
+		return floodDisconnects.sum();
+	}
+
+	@Override
+	public long getHeartbeatEvictions() {
+		return heartbeatEvictions.sum();
+	}
+
+	@Override
+	public long getSessionsResumed() {
+		return sessionsResumed.sum();
+	}
+
+	@Override
+	public long getWriteCalls() {
+		return writeCalls.sum();
+	}
+
+	@Override
+	public long getWriteCallsSaved() {
+		return writes().syscallsSaved();
+	}
+
+	@Override
+	public long getCoalesceAddedMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(writes().averageAddedLatencyNanos());
+	}
+
+	// every batch written since start, unlike the queues of the live connections
+	private OutboundStats writes() {
+		return new OutboundStats(0, 0, 0, 0, 0, messagesOut.sum(), writeCalls.sum(), coalesceDelayNanos.sum());
+	}
+
+	@Override
+	public long getOutboundQueueDepth() {
+		return outboundStats.get().depth();
+	}
+
+	@Override
+	public long getOutboundQueueHighWaterMark() {
+		return outboundStats.get().highWaterMark();
+	}
+
+	@Override
+	public long getOutboundDropped() {
+		return outboundStats.get().dropped();
+	}
+
+	// Prometheus text format
+	@Override
+	public String scrape() {
+		var text = new StringBuilder(2048);
+		OutboundStats outbound = outboundStats.get();
+		counter(text, "juniorchat_connections_accepted_total", getConnectionsAccepted());
+		counter(text, "juniorchat_connections_closed_total", getConnectionsClosed());
+		gauge(text, "juniorchat_connections_active", getConnectionsActive());
+		counter(text, "juniorchat_messages_in_total", getMessagesIn());
+		counter(text, "juniorchat_messages_out_total", getMessagesOut());
+		counter(text, "juniorchat_bytes_in_total", getBytesIn());
+		counter(text, "juniorchat_bytes_out_total", getBytesOut());
+		gauge(text, "juniorchat_messages_in_per_second", getMessagesInPerSecond());
+		gauge(text, "juniorchat_messages_out_per_second", getMessagesOutPerSecond());
+		gauge(text, "juniorchat_bytes_in_per_second", getBytesInPerSecond());
+		gauge(text, "juniorchat_bytes_out_per_second", getBytesOutPerSecond());
+		summary(text, "juniorchat_broadcast_fanout", broadcastFanout, 1);
+		summary(text, "juniorchat_broadcast_duration_seconds", broadcastNanos, 1e-9);
+		summary(text, "juniorchat_write_duration_seconds", writeNanos, 1e-9);
+		OutboundStats writes = writes();
+		counter(text, "juniorchat_write_calls_total", writes.writeCalls());
+		counter(text, "juniorchat_write_calls_saved_total", writes.syscallsSaved());
+		counter(text, "juniorchat_coalesce_delay_seconds_total", writes.coalesceDelayNanos() * 1e-9);
+		gauge(text, "juniorchat_coalesce_added_latency_seconds", writes.averageAddedLatencyNanos() * 1e-9);
+		gauge(text, "juniorchat_history_messages", getHistoryMessages());
+		gauge(text, "juniorchat_history_bytes", getHistoryBytes());
+		counter(text, "juniorchat_messages_throttled_total", getMessagesThrottled());
+		counter(text, "juniorchat_flood_disconnects_total", getFloodDisconnects());
+		counter(text, "juniorchat_heartbeat_evictions_total", getHeartbeatEvictions());
+		counter(text, "juniorchat_sessions_resumed_total", getSessionsResumed());
+		gauge(text, "juniorchat_outbound_queue_depth", outbound.depth());
+		gauge(text, "juniorchat_outbound_queue_high_water_mark", outbound.highWaterMark());
+		gauge(text, "juniorchat_outbound_dropped", outbound.dropped());
+		return text.toString();
+	}
+
+	private static void counter(StringBuilder text, String name, double value) {
+		text.append("# TYPE ").append(name).append(" counter\n");
+		text.append(name).append(' ').append(format(value)).append('\n');
+	}
+
+	private static void gauge(StringBuilder text, String name, double value) {
+		text.append("# TYPE ").append(name).append(" gauge\n");
+		text.append(name).append(' ').append(format(value)).append('\n');
+	}
+
+	// quantiles of the window, the sum and the count since start
+	private static void summary(StringBuilder text, String name, WindowedHistogram histogram, double scale) {
+		Histogram window = histogram.window();
+		text.append("# TYPE ").append(name).append(" summary\n");
+		for (String quantile : new String[] { "0.5", "0.9", "0.99", "0.999" }) {
+			double percentile = Double.parseDouble(quantile) * 100;
+			text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+					.append(format(window.percentile(percentile) * scale)).append('\n');
+		}
+		text.append(name).append("_sum ").append(format(histogram.sum() * scale)).append('\n');
+		text.append(name).append("_count ").append(histogram.count()).append('\n');
+	}
+
+	private static String format(double value) {
+		return value == Math.rint(value) && Math.abs(value) < 1e15
+				? Long.toString((long) value)
+				: String.format(Locale.ROOT, "%.6g", value);
+	}
+
+	private static class Holder {
+		static final ServerMetrics instance = new ServerMetrics();
+	}
+}
@@ -0,0 +1,86 @@
+package edu.alexey.juniorchat.server;
+
+// JMX view of ServerMetrics, registered as edu.alexey.juniorchat:type=ServerMetrics
+public interface ServerMetricsMBean {
+
+	long getConnectionsAccepted();
+
+	long getConnectionsClosed();
+
+	long getConnectionsActive();
+
+	long getMessagesIn();
+
+	long getMessagesOut();
+
+	long getBytesIn();
+
+	long getBytesOut();
+
+	// rates over the last sampling second
+
+	double getMessagesInPerSecond();
+
+	double getMessagesOutPerSecond();
+
+	double getBytesInPerSecond();
+
+	double getBytesOutPerSecond();
+
+	long getBroadcasts();
+
+	// the percentiles and maxima below are of the last minute, the counts are since start
+
+	long getBroadcastFanoutP50();
+
+	long getBroadcastFanoutP99();
+
+	long getBroadcastFanoutMax();
+
+	long getBroadcastMicrosP50();
+
+	long getBroadcastMicrosP99();
+
+	long getBroadcastMicrosMax();
+
+	long getWriteMicrosP50();
+
+	long getWriteMicrosP99();
+
+	long getWriteMicrosMax();
+
+	// socket writes, and how many fewer than the messages they carried coalescing has made them
+	long getWriteCalls();
+
+	long getWriteCallsSaved();
+
+	// the time a batch was held open waiting for more messages, on average per write
+	long getCoalesceAddedMicros();
+
+	long getHistoryMessages();
+
+	// approximate heap held by the room histories
+	long getHistoryBytes();
+
+	// messages after which the sender's reads were paused by the rate limits
+	long getMessagesThrottled();
+
+	long getFloodDisconnects();
+
+	// connections closed as dead for not answering a heartbeat ping
+	long getHeartbeatEvictions();
+
+	// sessions of broken connections resumed by their clients
+	long getSessionsResumed();
+
+	// over the live connections: messages queued and not yet written, the fullest any single queue has been,
+	// and the messages dropped by the overflow policy
+	long getOutboundQueueDepth();
+
+	long getOutboundQueueHighWaterMark();
+
+	long getOutboundDropped();
+
+	// plain-text exposition, the same as served by the scrape endpoint
+	String scrape();
+}
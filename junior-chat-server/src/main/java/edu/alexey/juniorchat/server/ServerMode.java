@@ -0,0 +1,11 @@
+package edu.alexey.juniorchat.server;
+
+// connection handling model of the Server
+public enum ServerMode {
+	// one pooled platform thread per connection, blocking I/O
+	BLOCKING,
+	// one virtual thread per connection, blocking I/O
+	VIRTUAL,
+	// fixed number of selector event loops, non-blocking I/O
+	NIO
+}
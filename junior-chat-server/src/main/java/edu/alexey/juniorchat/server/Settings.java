@@ -2,15 +2,21 @@ package edu.alexey.juniorchat.server;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.alexey.juniorchat.common.WireProtocol;
+
 public class Settings {
 
 	public static Settings instance() {
@@ -23,6 +29,45 @@ public class Settings {
 	public static final Charset CHARSET = StandardCharsets.UTF_8;
 	public static final int PORT = 8082;
 	public static final String CHAT_DATETIME_PATTERN = "HH:mm:ss";
+	public static final ServerMode MODE = ServerMode.BLOCKING;
+	public static final int EVENT_LOOPS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	public static final int ACCEPTORS = 1;
+	public static final int ACCEPT_BACKLOG = 50;
+	public static final int OUTBOUND_QUEUE_CAPACITY = 1024;
+	public static final OverflowPolicy OUTBOUND_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+	public static final long OUTBOUND_BLOCK_TIMEOUT_MILLIS = 1000;
+	public static final long OUTBOUND_COALESCE_MILLIS = 0;
+	public static final int OUTBOUND_COALESCE_BYTES = 16 * 1024;
+	public static final boolean METRICS_JMX = true;
+	public static final int METRICS_PORT = 9082;
+	public static final int HISTORY_CAPACITY = 100;
+	public static final long HISTORY_MAX_BYTES = 256 * 1024;
+	public static final int HISTORY_REPLAY_MESSAGES = 20;
+	public static final long HISTORY_REPLAY_SECONDS = 0;
+	public static final String LOG_DIRECTORY = "";
+	public static final int LOG_SEGMENT_BYTES = 64 * 1024 * 1024;
+	public static final int LOG_RETAIN_SEGMENTS = 8;
+	public static final long LOG_SYNC_MILLIS = 100;
+	public static final int CLUSTER_NODE_ID = 0;
+	public static final String AUDIT_FILE = "";
+	public static final long AUDIT_MAX_BYTES = 16 * 1024 * 1024;
+	public static final int AUDIT_FILES = 5;
+	public static final int AUDIT_QUEUE_CAPACITY = 64 * 1024;
+	public static final int RATE_BROADCAST_MESSAGES_PER_SECOND = 0;
+	public static final int RATE_BROADCAST_BYTES_PER_SECOND = 0;
+	public static final int RATE_DIRECT_MESSAGES_PER_SECOND = 0;
+	public static final int RATE_DIRECT_BYTES_PER_SECOND = 0;
+	public static final int RATE_BURST_SECONDS = 3;
+	public static final int RATE_STRIKES = 0;
+	public static final boolean COMPRESSION = false;
+	public static final int COMPRESSION_THRESHOLD = WireProtocol.COMPRESSION_THRESHOLD;
+	public static final int HEARTBEAT_INTERVAL_MILLIS = 0;
+	public static final int HEARTBEAT_TIMEOUT_MILLIS = 10000;
+	public static final int HEARTBEAT_TICK_MILLIS = 100;
+	public static final int HEARTBEAT_WHEEL_SIZE = 512;
+	public static final int RESUME_SECONDS = 0;
+	public static final int RESUME_MESSAGES = 256;
+	public static final int PRESENCE_WINDOW_MILLIS = 0;
 
 	// keys
 
@@ -30,6 +75,49 @@ public class Settings {
 	private static final String CHARSET_KEY = "server.charset";
 	private static final String PORT_KEY = "server.port";
 	private static final String CHAT_DATETIME_PATTERN_KEY = "server.chatDatetimePattern";
+	private static final String MODE_KEY = "server.mode";
+	private static final String EVENT_LOOPS_KEY = "server.eventLoops";
+	private static final String ACCEPTORS_KEY = "server.acceptors";
+	private static final String ACCEPT_BACKLOG_KEY = "server.acceptBacklog";
+	private static final String OUTBOUND_QUEUE_CAPACITY_KEY = "server.outbound.queueCapacity";
+	private static final String OUTBOUND_OVERFLOW_POLICY_KEY = "server.outbound.overflowPolicy";
+	private static final String OUTBOUND_BLOCK_TIMEOUT_KEY = "server.outbound.blockTimeoutMillis";
+	private static final String OUTBOUND_COALESCE_MILLIS_KEY = "server.outbound.coalesceMillis";
+	private static final String OUTBOUND_COALESCE_BYTES_KEY = "server.outbound.coalesceBytes";
+	private static final String METRICS_JMX_KEY = "server.metrics.jmx";
+	private static final String METRICS_PORT_KEY = "server.metrics.port";
+	private static final String HISTORY_CAPACITY_KEY = "server.history.capacity";
+	private static final String HISTORY_MAX_BYTES_KEY = "server.history.maxBytes";
+	private static final String HISTORY_REPLAY_MESSAGES_KEY = "server.history.replayMessages";
+	private static final String HISTORY_REPLAY_SECONDS_KEY = "server.history.replaySeconds";
+	private static final String LOG_DIRECTORY_KEY = "server.log.directory";
+	private static final String LOG_SEGMENT_BYTES_KEY = "server.log.segmentBytes";
+	private static final String LOG_RETAIN_SEGMENTS_KEY = "server.log.retainSegments";
+	private static final String LOG_SYNC_MILLIS_KEY = "server.log.syncMillis";
+	private static final String CLUSTER_NODE_ID_KEY = "server.cluster.nodeId";
+	private static final String CLUSTER_NODES_KEY = "server.cluster.nodes";
+	private static final String CLUSTER_SECRET_KEY = "server.cluster.secret";
+	private static final String AUDIT_FILE_KEY = "server.audit.file";
+	private static final String AUDIT_MAX_BYTES_KEY = "server.audit.maxBytes";
+	private static final String AUDIT_FILES_KEY = "server.audit.files";
+	private static final String AUDIT_QUEUE_CAPACITY_KEY = "server.audit.queueCapacity";
+	private static final String RATE_BROADCAST_MESSAGES_KEY = "server.rate.broadcast.messagesPerSecond";
+	private static final String RATE_BROADCAST_BYTES_KEY = "server.rate.broadcast.bytesPerSecond";
+	private static final String RATE_DIRECT_MESSAGES_KEY = "server.rate.direct.messagesPerSecond";
+	private static final String RATE_DIRECT_BYTES_KEY = "server.rate.direct.bytesPerSecond";
+	private static final String RATE_BURST_SECONDS_KEY = "server.rate.burstSeconds";
+	private static final String RATE_STRIKES_KEY = "server.rate.strikes";
+	private static final String COMPRESSION_KEY = "server.compression.enabled";
+	private static final String COMPRESSION_THRESHOLD_KEY = "server.compression.threshold";
+	private static final String HEARTBEAT_INTERVAL_KEY = "server.heartbeat.intervalMillis";
+	private static final String HEARTBEAT_TIMEOUT_KEY = "server.heartbeat.timeoutMillis";
+	private static final String HEARTBEAT_TICK_KEY = "server.heartbeat.tickMillis";
+	private static final String HEARTBEAT_WHEEL_SIZE_KEY = "server.heartbeat.wheelSize";
+	private static final String RESUME_SECONDS_KEY = "server.resume.seconds";
+	private static final String RESUME_MESSAGES_KEY = "server.resume.messages";
+	private static final String PRESENCE_WINDOW_KEY = "server.presence.windowMillis";
+	// system properties with this prefix override the file, e.g. -Dserver.port=8083
+	private static final String OVERRIDE_PREFIX = "server.";
 
 	// fields
 
@@ -37,6 +125,47 @@ public class Settings {
 	private Charset charset = CHARSET;
 	private int port = PORT;
 	private DateTimeFormatter chatDateTimeFormatter = DateTimeFormatter.ofPattern(CHAT_DATETIME_PATTERN);
+	private ServerMode mode = MODE;
+	private int eventLoops = EVENT_LOOPS;
+	private int acceptors = ACCEPTORS;
+	private int acceptBacklog = ACCEPT_BACKLOG;
+	private int outboundQueueCapacity = OUTBOUND_QUEUE_CAPACITY;
+	private OverflowPolicy outboundOverflowPolicy = OUTBOUND_OVERFLOW_POLICY;
+	private long outboundBlockTimeoutMillis = OUTBOUND_BLOCK_TIMEOUT_MILLIS;
+	private long outboundCoalesceMillis = OUTBOUND_COALESCE_MILLIS;
+	private int outboundCoalesceBytes = OUTBOUND_COALESCE_BYTES;
+	private boolean metricsJmx = METRICS_JMX;
+	private int metricsPort = METRICS_PORT;
+	private int historyCapacity = HISTORY_CAPACITY;
+	private long historyMaxBytes = HISTORY_MAX_BYTES;
+	private int historyReplayMessages = HISTORY_REPLAY_MESSAGES;
+	private long historyReplaySeconds = HISTORY_REPLAY_SECONDS;
+	private String logDirectory = LOG_DIRECTORY;
+	private int logSegmentBytes = LOG_SEGMENT_BYTES;
+	private int logRetainSegments = LOG_RETAIN_SEGMENTS;
+	private long logSyncMillis = LOG_SYNC_MILLIS;
+	private int clusterNodeId = CLUSTER_NODE_ID;
+	private Map<Integer, InetSocketAddress> clusterNodes = Map.of();
+	private String clusterSecret = "";
+	private String auditFile = AUDIT_FILE;
+	private long auditMaxBytes = AUDIT_MAX_BYTES;
+	private int auditFiles = AUDIT_FILES;
+	private int auditQueueCapacity = AUDIT_QUEUE_CAPACITY;
+	private int rateBroadcastMessagesPerSecond = RATE_BROADCAST_MESSAGES_PER_SECOND;
+	private int rateBroadcastBytesPerSecond = RATE_BROADCAST_BYTES_PER_SECOND;
+	private int rateDirectMessagesPerSecond = RATE_DIRECT_MESSAGES_PER_SECOND;
+	private int rateDirectBytesPerSecond = RATE_DIRECT_BYTES_PER_SECOND;
+	private int rateBurstSeconds = RATE_BURST_SECONDS;
+	private int rateStrikes = RATE_STRIKES;
+	private boolean compression = COMPRESSION;
+	private int compressionThreshold = COMPRESSION_THRESHOLD;
+	private int heartbeatIntervalMillis = HEARTBEAT_INTERVAL_MILLIS;
+	private int heartbeatTimeoutMillis = HEARTBEAT_TIMEOUT_MILLIS;
+	private int heartbeatTickMillis = HEARTBEAT_TICK_MILLIS;
+	private int heartbeatWheelSize = HEARTBEAT_WHEEL_SIZE;
+	private int resumeSeconds = RESUME_SECONDS;
+	private int resumeMessages = RESUME_MESSAGES;
+	private int presenceWindowMillis = PRESENCE_WINDOW_MILLIS;
 
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 	private Properties properties = new Properties();
@@ -52,6 +181,12 @@ public class Settings {
 			logger.error("Exception occurred on reading application.properties:", e);
 			throw new RuntimeException(e);
 		}
+		for (String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith(OVERRIDE_PREFIX)) {
+				properties.setProperty(key, System.getProperty(key));
+				logger.info("Setting {} is overridden by the system property.", key);
+			}
+		}
 
 		try {
 			if (properties.containsKey(LOCALE_KEY)) {
@@ -69,6 +204,215 @@ public class Settings {
 			if (properties.containsKey(CHAT_DATETIME_PATTERN_KEY)) {
 				chatDateTimeFormatter = DateTimeFormatter.ofPattern(properties.getProperty(CHAT_DATETIME_PATTERN_KEY));
 			}
+			if (properties.containsKey(MODE_KEY)) {
+				mode = ServerMode.valueOf(properties.getProperty(MODE_KEY).strip().toUpperCase(Locale.ROOT));
+			}
+			if (properties.containsKey(EVENT_LOOPS_KEY)) {
+				eventLoops = Integer.parseInt(properties.getProperty(EVENT_LOOPS_KEY));
+				if (eventLoops < 1) {
+					throw new RuntimeException("Illegal event loops count " + eventLoops);
+				}
+			}
+			if (properties.containsKey(ACCEPTORS_KEY)) {
+				acceptors = Integer.parseInt(properties.getProperty(ACCEPTORS_KEY));
+				if (acceptors < 1) {
+					throw new RuntimeException("Illegal acceptors count " + acceptors);
+				}
+			}
+			if (properties.containsKey(ACCEPT_BACKLOG_KEY)) {
+				acceptBacklog = Integer.parseInt(properties.getProperty(ACCEPT_BACKLOG_KEY));
+				if (acceptBacklog < 1) {
+					throw new RuntimeException("Illegal accept backlog " + acceptBacklog);
+				}
+			}
+			if (properties.containsKey(OUTBOUND_QUEUE_CAPACITY_KEY)) {
+				outboundQueueCapacity = Integer.parseInt(properties.getProperty(OUTBOUND_QUEUE_CAPACITY_KEY));
+				if (outboundQueueCapacity < 1) {
+					throw new RuntimeException("Illegal outbound queue capacity " + outboundQueueCapacity);
+				}
+			}
+			if (properties.containsKey(OUTBOUND_OVERFLOW_POLICY_KEY)) {
+				outboundOverflowPolicy = OverflowPolicy.valueOf(
+						properties.getProperty(OUTBOUND_OVERFLOW_POLICY_KEY).strip().toUpperCase(Locale.ROOT));
+			}
+			if (properties.containsKey(OUTBOUND_BLOCK_TIMEOUT_KEY)) {
+				outboundBlockTimeoutMillis = Long.parseLong(properties.getProperty(OUTBOUND_BLOCK_TIMEOUT_KEY));
+				if (outboundBlockTimeoutMillis < 0) {
+					throw new RuntimeException("Illegal outbound block timeout " + outboundBlockTimeoutMillis);
+				}
+			}
+			if (properties.containsKey(OUTBOUND_COALESCE_MILLIS_KEY)) {
+				outboundCoalesceMillis = Long.parseLong(properties.getProperty(OUTBOUND_COALESCE_MILLIS_KEY));
+				if (outboundCoalesceMillis < 0) {
+					throw new RuntimeException("Illegal outbound coalesce time " + outboundCoalesceMillis);
+				}
+			}
+			if (properties.containsKey(OUTBOUND_COALESCE_BYTES_KEY)) {
+				outboundCoalesceBytes = Integer.parseInt(properties.getProperty(OUTBOUND_COALESCE_BYTES_KEY));
+				if (outboundCoalesceBytes < 1) {
+					throw new RuntimeException("Illegal outbound coalesce size " + outboundCoalesceBytes);
+				}
+			}
+			if (properties.containsKey(METRICS_JMX_KEY)) {
+				metricsJmx = Boolean.parseBoolean(properties.getProperty(METRICS_JMX_KEY).strip());
+			}
+			if (properties.containsKey(METRICS_PORT_KEY)) {
+				metricsPort = Integer.parseInt(properties.getProperty(METRICS_PORT_KEY));
+				if (metricsPort < 0 || metricsPort > (int) Character.MAX_VALUE) {
+					throw new RuntimeException("Illegal metrics port number " + metricsPort);
+				}
+			}
+			if (properties.containsKey(HISTORY_CAPACITY_KEY)) {
+				historyCapacity = Integer.parseInt(properties.getProperty(HISTORY_CAPACITY_KEY));
+				if (historyCapacity < 0) {
+					throw new RuntimeException("Illegal history capacity " + historyCapacity);
+				}
+			}
+			if (properties.containsKey(HISTORY_MAX_BYTES_KEY)) {
+				historyMaxBytes = Long.parseLong(properties.getProperty(HISTORY_MAX_BYTES_KEY));
+				if (historyMaxBytes < 0) {
+					throw new RuntimeException("Illegal history size " + historyMaxBytes);
+				}
+			}
+			if (properties.containsKey(HISTORY_REPLAY_MESSAGES_KEY)) {
+				historyReplayMessages = Integer.parseInt(properties.getProperty(HISTORY_REPLAY_MESSAGES_KEY));
+				if (historyReplayMessages < 0) {
+					throw new RuntimeException("Illegal history replay count " + historyReplayMessages);
+				}
+			}
+			if (properties.containsKey(HISTORY_REPLAY_SECONDS_KEY)) {
+				historyReplaySeconds = Long.parseLong(properties.getProperty(HISTORY_REPLAY_SECONDS_KEY));
+				if (historyReplaySeconds < 0) {
+					throw new RuntimeException("Illegal history replay age " + historyReplaySeconds);
+				}
+			}
+			if (properties.containsKey(LOG_DIRECTORY_KEY)) {
+				logDirectory = properties.getProperty(LOG_DIRECTORY_KEY).strip();
+			}
+			if (properties.containsKey(LOG_SEGMENT_BYTES_KEY)) {
+				logSegmentBytes = Integer.parseInt(properties.getProperty(LOG_SEGMENT_BYTES_KEY));
+				if (logSegmentBytes < 1024 * 1024) {
+					throw new RuntimeException("Illegal message log segment size " + logSegmentBytes);
+				}
+			}
+			if (properties.containsKey(LOG_RETAIN_SEGMENTS_KEY)) {
+				logRetainSegments = Integer.parseInt(properties.getProperty(LOG_RETAIN_SEGMENTS_KEY));
+				if (logRetainSegments < 1) {
+					throw new RuntimeException("Illegal message log retention " + logRetainSegments);
+				}
+			}
+			if (properties.containsKey(LOG_SYNC_MILLIS_KEY)) {
+				logSyncMillis = Long.parseLong(properties.getProperty(LOG_SYNC_MILLIS_KEY));
+				if (logSyncMillis < 1) {
+					throw new RuntimeException("Illegal message log sync period " + logSyncMillis);
+				}
+			}
+			if (properties.containsKey(CLUSTER_NODE_ID_KEY)) {
+				clusterNodeId = Integer.parseInt(properties.getProperty(CLUSTER_NODE_ID_KEY).strip());
+				if (clusterNodeId < 0 || clusterNodeId > IdFactory.MAX_NODE_ID) {
+					throw new RuntimeException("Illegal cluster node id " + clusterNodeId);
+				}
+			}
+			if (properties.containsKey(CLUSTER_NODES_KEY)) {
+				clusterNodes = parseClusterNodes(properties.getProperty(CLUSTER_NODES_KEY));
+			}
+			if (clusterNodeId != 0 && !clusterNodes.containsKey(clusterNodeId)) {
+				throw new RuntimeException("Cluster node " + clusterNodeId + " is not among " + CLUSTER_NODES_KEY);
+			}
+			if (properties.containsKey(CLUSTER_SECRET_KEY)) {
+				clusterSecret = properties.getProperty(CLUSTER_SECRET_KEY).strip();
+			}
+			if (clusterNodeId != 0 && clusterSecret.isEmpty()) {
+				throw new RuntimeException("Cluster node " + clusterNodeId + " needs " + CLUSTER_SECRET_KEY);
+			}
+			if (properties.containsKey(AUDIT_FILE_KEY)) {
+				auditFile = properties.getProperty(AUDIT_FILE_KEY).strip();
+			}
+			if (properties.containsKey(AUDIT_MAX_BYTES_KEY)) {
+				auditMaxBytes = Long.parseLong(properties.getProperty(AUDIT_MAX_BYTES_KEY));
+				if (auditMaxBytes < 1) {
+					throw new RuntimeException("Illegal audit log file size " + auditMaxBytes);
+				}
+			}
+			if (properties.containsKey(AUDIT_FILES_KEY)) {
+				auditFiles = Integer.parseInt(properties.getProperty(AUDIT_FILES_KEY));
+				if (auditFiles < 1) {
+					throw new RuntimeException("Illegal audit log file count " + auditFiles);
+				}
+			}
+			if (properties.containsKey(AUDIT_QUEUE_CAPACITY_KEY)) {
+				auditQueueCapacity = Integer.parseInt(properties.getProperty(AUDIT_QUEUE_CAPACITY_KEY));
+				if (auditQueueCapacity < 1) {
+					throw new RuntimeException("Illegal audit queue capacity " + auditQueueCapacity);
+				}
+			}
+			rateBroadcastMessagesPerSecond = rate(RATE_BROADCAST_MESSAGES_KEY, rateBroadcastMessagesPerSecond);
+			rateBroadcastBytesPerSecond = rate(RATE_BROADCAST_BYTES_KEY, rateBroadcastBytesPerSecond);
+			rateDirectMessagesPerSecond = rate(RATE_DIRECT_MESSAGES_KEY, rateDirectMessagesPerSecond);
+			rateDirectBytesPerSecond = rate(RATE_DIRECT_BYTES_KEY, rateDirectBytesPerSecond);
+			if (properties.containsKey(RATE_BURST_SECONDS_KEY)) {
+				rateBurstSeconds = Integer.parseInt(properties.getProperty(RATE_BURST_SECONDS_KEY));
+				if (rateBurstSeconds < 1) {
+					throw new RuntimeException("Illegal rate burst " + rateBurstSeconds);
+				}
+			}
+			if (properties.containsKey(RATE_STRIKES_KEY)) {
+				rateStrikes = Integer.parseInt(properties.getProperty(RATE_STRIKES_KEY));
+				if (rateStrikes < 0) {
+					throw new RuntimeException("Illegal rate strikes " + rateStrikes);
+				}
+			}
+			if (properties.containsKey(COMPRESSION_KEY)) {
+				compression = Boolean.parseBoolean(properties.getProperty(COMPRESSION_KEY).strip());
+			}
+			if (properties.containsKey(COMPRESSION_THRESHOLD_KEY)) {
+				compressionThreshold = Integer.parseInt(properties.getProperty(COMPRESSION_THRESHOLD_KEY));
+				if (compressionThreshold < 0) {
+					throw new RuntimeException("Illegal compression threshold " + compressionThreshold);
+				}
+			}
+			if (properties.containsKey(HEARTBEAT_INTERVAL_KEY)) {
+				heartbeatIntervalMillis = Integer.parseInt(properties.getProperty(HEARTBEAT_INTERVAL_KEY));
+				if (heartbeatIntervalMillis < 0) {
+					throw new RuntimeException("Illegal heartbeat interval " + heartbeatIntervalMillis);
+				}
+			}
+			if (properties.containsKey(HEARTBEAT_TIMEOUT_KEY)) {
+				heartbeatTimeoutMillis = Integer.parseInt(properties.getProperty(HEARTBEAT_TIMEOUT_KEY));
+				if (heartbeatTimeoutMillis < 1) {
+					throw new RuntimeException("Illegal heartbeat timeout " + heartbeatTimeoutMillis);
+				}
+			}
+			if (properties.containsKey(HEARTBEAT_TICK_KEY)) {
+				heartbeatTickMillis = Integer.parseInt(properties.getProperty(HEARTBEAT_TICK_KEY));
+				if (heartbeatTickMillis < 1) {
+					throw new RuntimeException("Illegal heartbeat tick " + heartbeatTickMillis);
+				}
+			}
+			if (properties.containsKey(HEARTBEAT_WHEEL_SIZE_KEY)) {
+				heartbeatWheelSize = Integer.parseInt(properties.getProperty(HEARTBEAT_WHEEL_SIZE_KEY));
+				if (heartbeatWheelSize < 1 || heartbeatWheelSize > TimingWheel.MAX_SIZE) {
+					throw new RuntimeException("Illegal heartbeat wheel size " + heartbeatWheelSize);
+				}
+			}
+			if (properties.containsKey(RESUME_SECONDS_KEY)) {
+				resumeSeconds = Integer.parseInt(properties.getProperty(RESUME_SECONDS_KEY));
+				if (resumeSeconds < 0) {
+					throw new RuntimeException("Illegal resume window " + resumeSeconds);
+				}
+			}
+			if (properties.containsKey(RESUME_MESSAGES_KEY)) {
+				resumeMessages = Integer.parseInt(properties.getProperty(RESUME_MESSAGES_KEY));
+				if (resumeMessages < 1) {
+					throw new RuntimeException("Illegal number of messages kept for resume " + resumeMessages);
+				}
+			}
+			if (properties.containsKey(PRESENCE_WINDOW_KEY)) {
+				presenceWindowMillis = Integer.parseInt(properties.getProperty(PRESENCE_WINDOW_KEY));
+				if (presenceWindowMillis < 0) {
+					throw new RuntimeException("Illegal presence window " + presenceWindowMillis);
+				}
+			}
 		} catch (Exception e) {
 			logger.error("Exception occurred on loading application properties:", e);
 			throw new RuntimeException(e);
@@ -77,6 +421,39 @@ public class Settings {
 		logger.info("Loaded Server app settings.");
 	}
 
+	private int rate(String key, int value) {
+		if (properties.containsKey(key)) {
+			value = Integer.parseInt(properties.getProperty(key));
+			if (value < 0) {
+				throw new RuntimeException("Illegal rate " + key + " = " + value);
+			}
+		}
+		return value;
+	}
+
+	// comma-separated nodeId@host:port
+	private static Map<Integer, InetSocketAddress> parseClusterNodes(String value) {
+		var nodes = new LinkedHashMap<Integer, InetSocketAddress>();
+		for (String item : value.split(",")) {
+			item = item.strip();
+			if (item.isEmpty()) {
+				continue;
+			}
+			int at = item.indexOf('@');
+			int colon = item.lastIndexOf(':');
+			if (at < 1 || colon < at + 2) {
+				throw new RuntimeException("Illegal cluster node address " + item);
+			}
+			int id = Integer.parseInt(item.substring(0, at));
+			int port = Integer.parseInt(item.substring(colon + 1));
+			if (id < 1 || id > IdFactory.MAX_NODE_ID || port < 1 || port > (int) Character.MAX_VALUE
+					|| nodes.put(id, new InetSocketAddress(item.substring(at + 1, colon), port)) != null) {
+				throw new RuntimeException("Illegal cluster node address " + item);
+			}
+		}
+		return Collections.unmodifiableMap(nodes);
+	}
+
 	public Locale getLocale() {
 		return locale;
 	}
@@ -93,6 +470,193 @@ public class Settings {
 		return chatDateTimeFormatter;
 	}
 
+	public ServerMode getMode() {
+		return mode;
+	}
+
+	public int getEventLoops() {
+		return eventLoops;
+	}
+
+	// accepting threads, or accepting event loops in NIO mode, each on its own SO_REUSEPORT socket
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	// connections waiting to be accepted, per listening socket; the OS may cap it
+	public int getAcceptBacklog() {
+		return acceptBacklog;
+	}
+
+	public int getOutboundQueueCapacity() {
+		return outboundQueueCapacity;
+	}
+
+	public OverflowPolicy getOutboundOverflowPolicy() {
+		return outboundOverflowPolicy;
+	}
+
+	public long getOutboundBlockTimeoutMillis() {
+		return outboundBlockTimeoutMillis;
+	}
+
+	public long getOutboundCoalesceMillis() {
+		return outboundCoalesceMillis;
+	}
+
+	public int getOutboundCoalesceBytes() {
+		return outboundCoalesceBytes;
+	}
+
+	public boolean isMetricsJmx() {
+		return metricsJmx;
+	}
+
+	// 0 - no scrape endpoint
+	public int getMetricsPort() {
+		return metricsPort;
+	}
+
+	// messages kept per room, 0 - no history
+	public int getHistoryCapacity() {
+		return historyCapacity;
+	}
+
+	public long getHistoryMaxBytes() {
+		return historyMaxBytes;
+	}
+
+	public int getHistoryReplayMessages() {
+		return historyReplayMessages;
+	}
+
+	// 0 - no age limit
+	public long getHistoryReplaySeconds() {
+		return historyReplaySeconds;
+	}
+
+	// blank - no message log
+	public String getLogDirectory() {
+		return logDirectory;
+	}
+
+	public int getLogSegmentBytes() {
+		return logSegmentBytes;
+	}
+
+	public int getLogRetainSegments() {
+		return logRetainSegments;
+	}
+
+	public long getLogSyncMillis() {
+		return logSyncMillis;
+	}
+
+	// 0 - standalone server
+	public int getClusterNodeId() {
+		return clusterNodeId;
+	}
+
+	// every node of the cluster by its id, this one included
+	public Map<Integer, InetSocketAddress> getClusterNodes() {
+		return clusterNodes;
+	}
+
+	// shared by the nodes, which prove to each other that they know it; required for a cluster
+	public String getClusterSecret() {
+		return clusterSecret;
+	}
+
+	// blank - no audit log
+	public String getAuditFile() {
+		return auditFile;
+	}
+
+	public long getAuditMaxBytes() {
+		return auditMaxBytes;
+	}
+
+	// rolled over files kept besides the current one
+	public int getAuditFiles() {
+		return auditFiles;
+	}
+
+	public int getAuditQueueCapacity() {
+		return auditQueueCapacity;
+	}
+
+	// 0 - not limited, as well as the other rates
+	public int getRateBroadcastMessagesPerSecond() {
+		return rateBroadcastMessagesPerSecond;
+	}
+
+	public int getRateBroadcastBytesPerSecond() {
+		return rateBroadcastBytesPerSecond;
+	}
+
+	public int getRateDirectMessagesPerSecond() {
+		return rateDirectMessagesPerSecond;
+	}
+
+	public int getRateDirectBytesPerSecond() {
+		return rateDirectBytesPerSecond;
+	}
+
+	// seconds worth of the rate a connection may send at once
+	public int getRateBurstSeconds() {
+		return rateBurstSeconds;
+	}
+
+	// pauses tolerated before a disconnect, regained one per second; 0 - never disconnect
+	public int getRateStrikes() {
+		return rateStrikes;
+	}
+
+	// deflate for the clients that ask for it
+	public boolean isCompression() {
+		return compression;
+	}
+
+	// payload bytes, shorter payloads go as they are
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	// silence after which a connection is pinged; 0 - no heartbeats
+	public int getHeartbeatIntervalMillis() {
+		return heartbeatIntervalMillis;
+	}
+
+	// silence after the ping for the connection to be closed as dead
+	public int getHeartbeatTimeoutMillis() {
+		return heartbeatTimeoutMillis;
+	}
+
+	// resolution of the timing wheel
+	public int getHeartbeatTickMillis() {
+		return heartbeatTickMillis;
+	}
+
+	// buckets of the timing wheel, rounded up to a power of two
+	public int getHeartbeatWheelSize() {
+		return heartbeatWheelSize;
+	}
+
+	// how long the session of a broken connection waits to be resumed; 0 - no resume
+	public int getResumeSeconds() {
+		return resumeSeconds;
+	}
+
+	// messages kept for a session waiting to be resumed, more expire it at once
+	public int getResumeMessages() {
+		return resumeMessages;
+	}
+
+	// joins and leaves of a room are gathered for so long into a single notice; 0 - a notice on each
+	public int getPresenceWindowMillis() {
+		return presenceWindowMillis;
+	}
+
 	private static class Holder {
 		static final Settings instance = new Settings();
 	}
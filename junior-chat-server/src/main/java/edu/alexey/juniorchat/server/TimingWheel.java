@@ -0,0 +1,217 @@
+package edu.alexey.juniorchat.server;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Hashed timing wheel: a ring of buckets advanced by one every tick, a timeout is hashed into the bucket of its
+// deadline tick and fires when the wheel gets there in the right round. Scheduling and cancelling cost O(1)
+// whatever the number of timeouts, and a tick only walks its own bucket. Deadlines are rounded up to the tick.
+// Any thread may schedule or cancel; a single daemon thread moves the requests into the buckets and runs
+// the expired tasks, which must be short and never block.
+public class TimingWheel implements Closeable {
+
+	public static final int MAX_SIZE = 1 << 20;
+
+	private static final int WAITING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	public final class Timeout {
+
+		private final long deadline;
+		private final Runnable task;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		// accessed by the wheel thread only
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		// false if the task has run or is running already
+		public boolean cancel() {
+			if (!state.compareAndSet(WAITING, CANCELLED)) {
+				return false;
+			}
+			cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(WAITING, EXPIRED)) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("Unhandled exception in timing wheel task:", e);
+			}
+		}
+	}
+
+	// doubly linked, for the cancelled timeouts to leave in O(1)
+	private static final class Bucket {
+
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.previous == null) {
+				head = timeout.next;
+			} else {
+				timeout.previous.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.previous;
+			} else {
+				timeout.next.previous = timeout.previous;
+			}
+			timeout.previous = timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		// every timeout in its last round whose deadline has come, the others are a round closer
+		void expire(long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+					remove(timeout);
+					timeout.expire();
+				} else if (timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					--timeout.remainingRounds;
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final long tickNanos;
+	private final Bucket[] buckets;
+	private final int mask;
+	private final long startTime = System.nanoTime();
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+	private final Thread worker;
+	// accessed by the wheel thread only
+	private long tick;
+	private volatile boolean isClosed;
+
+	// size is rounded up to a power of two; a full turn of the wheel takes tick * size
+	public TimingWheel(String name, long tick, TimeUnit unit, int size) {
+		if (tick <= 0 || size < 1 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Illegal timing wheel tick " + tick + " or size " + size);
+		}
+		this.tickNanos = unit.toNanos(tick);
+		this.buckets = new Bucket[size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1];
+		for (int i = 0; i < buckets.length; ++i) {
+			buckets[i] = new Bucket();
+		}
+		this.mask = buckets.length - 1;
+		this.worker = Thread.ofPlatform().daemon().name(name).start(this::run);
+	}
+
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		var timeout = new Timeout(System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)), task);
+		if (!isClosed) {
+			scheduled.add(timeout);
+		}
+		return timeout;
+	}
+
+	// the timeouts not expired yet are dropped
+	@Override
+	public void close() {
+		if (isClosed) {
+			return;
+		}
+		isClosed = true;
+		LockSupport.unpark(worker);
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		while (!isClosed) {
+			long deadline = waitForNextTick();
+			if (isClosed) {
+				break;
+			}
+			removeCancelled();
+			transferScheduled();
+			buckets[(int) (tick & mask)].expire(deadline);
+			++tick;
+		}
+		scheduled.clear();
+		cancelled.clear();
+	}
+
+	// nanos since the start by the end of the current tick
+	private long waitForNextTick() {
+		long deadline = tickNanos * (tick + 1);
+		long left;
+		while (!isClosed && (left = deadline - (System.nanoTime() - startTime)) > 0) {
+			LockSupport.parkNanos(left);
+		}
+		return deadline;
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void transferScheduled() {
+		Timeout timeout;
+		while ((timeout = scheduled.poll()) != null) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			long dueTick = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (dueTick - tick) / buckets.length;
+			// overdue ones go to the current bucket
+			buckets[(int) (Math.max(dueTick, tick) & mask)].add(timeout);
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.alexey.juniorchat.common.Histogram;
+
+// Percentiles and max over the recent window rather than since start, so that a spike under the current load
+// is not buried by the hours before it: values go into the newest of the slices, and each rotate() drops
+// the oldest. The count and the sum stay totals since start, as a Prometheus summary expects.
+final class WindowedHistogram {
+
+	// guarded by this
+	private final Histogram[] slices;
+	private int newestIndex;
+	private volatile Histogram newest;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	WindowedHistogram(int slices) {
+		if (slices < 1) {
+			throw new IllegalArgumentException("Illegal number of slices " + slices);
+		}
+		this.slices = new Histogram[slices];
+		for (int i = 0; i < slices; ++i) {
+			this.slices[i] = new Histogram();
+		}
+		this.newest = this.slices[0];
+	}
+
+	// a value racing a rotation lands in the slice just retired, still within the window
+	void record(long value) {
+		newest.record(value);
+		count.increment();
+		sum.add(value);
+	}
+
+	synchronized void rotate() {
+		newestIndex = (newestIndex + 1) % slices.length;
+		slices[newestIndex] = newest = new Histogram();
+	}
+
+	// the values of the window merged, to take several percentiles of at once
+	synchronized Histogram window() {
+		var merged = new Histogram();
+		for (var slice : slices) {
+			merged.add(slice);
+		}
+		return merged;
+	}
+
+	long count() {
+		return count.sum();
+	}
+
+	long sum() {
+		return sum.sum();
+	}
+}
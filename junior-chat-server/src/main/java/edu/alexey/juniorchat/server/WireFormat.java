@@ -0,0 +1,11 @@
+package edu.alexey.juniorchat.server;
+
+// encoding of the messages written to a connection, chosen by the client's preamble
+public enum WireFormat {
+	// header line "**id**" and the body line
+	TEXT,
+	// BinaryProtocol frames
+	BINARY,
+	// frames with the payloads of at least the compression threshold deflated, when that makes them shorter
+	DEFLATE
+}
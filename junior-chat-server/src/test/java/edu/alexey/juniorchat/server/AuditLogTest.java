@@ -0,0 +1,101 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.alexey.juniorchat.server.AuditLog.Event;
+
+class AuditLogTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void writesJsonLines() throws IOException {
+		Path file = directory.resolve("audit/audit.log");
+		try (var audit = AuditLog.open(file, 1024 * 1024, 2, 100)) {
+			audit.event(Event.CONNECT, 7, 0, "127.0.0.1:5000");
+			audit.message(EncodedMessage.of(MessageType.CHAT, 7, 42, "say \"hi\"\n"), new Room("java"), 0);
+			audit.message(EncodedMessage.of(MessageType.DIRECT, 7, 43, "psst"), null, 8);
+			audit.event(Event.KICK, 7, 8, null);
+		}
+
+		List<String> lines = Files.readAllLines(file);
+		assertEquals(4, lines.size());
+		assertTrue(lines.get(0).matches("\\{\"ts\":\\d+,\"ev\":\"connect\",\"id\":7,\"address\":\"127.0.0.1:5000\"}"),
+				lines.get(0));
+		assertTrue(lines.get(1).endsWith(
+				",\"ev\":\"chat\",\"id\":7,\"seq\":42,\"room\":\"java\",\"body\":\"say \\\"hi\\\"\\n\"}"), lines.get(1));
+		assertTrue(lines.get(2).endsWith(",\"ev\":\"direct\",\"id\":7,\"to\":8,\"seq\":43,\"body\":\"psst\"}"),
+				lines.get(2));
+		assertTrue(lines.get(3).endsWith(",\"ev\":\"kick\",\"id\":7,\"to\":8}"), lines.get(3));
+	}
+
+	@Test
+	void rollsFilesOver() throws IOException {
+		Path file = directory.resolve("audit.log");
+		try (var audit = AuditLog.open(file, 1000, 2, 10_000)) {
+			for (int n = 0; n < 100; ++n) {
+				audit.message(EncodedMessage.of(MessageType.CHAT, 1, n, "x".repeat(100)), new Room("lobby"), 0);
+			}
+		}
+
+		assertTrue(Files.exists(directory.resolve("audit.log.1")));
+		assertTrue(Files.exists(directory.resolve("audit.log.2")));
+		assertFalse(Files.exists(directory.resolve("audit.log.3")));
+		assertTrue(Files.size(file) <= 1000);
+		List<String> last = Files.readAllLines(file);
+		assertTrue(last.get(last.size() - 1).contains("\"seq\":99,"));
+	}
+
+	// every record is either written or counted as dropped, and the records of a thread keep its order
+	@Test
+	void concurrentProducersLoseNothingUncounted() throws Exception {
+		Path file = directory.resolve("audit.log");
+		int producers = 4;
+		int records = 5_000;
+		long dropped;
+		try (var audit = AuditLog.open(file, Long.MAX_VALUE, 1, 8)) {
+			var threads = new ArrayList<Thread>();
+			for (int id = 1; id <= producers; ++id) {
+				int sender = id;
+				threads.add(Thread.ofPlatform().start(() -> {
+					for (int n = 0; n < records; ++n) {
+						audit.message(EncodedMessage.of(MessageType.CHAT, sender, n, "x"), new Room("lobby"), 0);
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			audit.close();
+			dropped = audit.getDropped();
+		}
+
+		Pattern record = Pattern.compile("\"id\":(\\d+),\"seq\":(\\d+),");
+		long[] last = new long[producers + 1];
+		Arrays.fill(last, -1);
+		List<String> lines = Files.readAllLines(file);
+		for (String line : lines) {
+			Matcher matcher = record.matcher(line);
+			assertTrue(matcher.find(), line);
+			int id = Integer.parseInt(matcher.group(1));
+			long sequence = Long.parseLong(matcher.group(2));
+			assertTrue(sequence > last[id], line);
+			last[id] = sequence;
+		}
+		assertEquals(producers * records, lines.size() + dropped);
+	}
+
+}
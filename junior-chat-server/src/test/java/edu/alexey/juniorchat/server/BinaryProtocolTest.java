@@ -0,0 +1,60 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+class BinaryProtocolTest {
+
+	@Test
+	void encodedFrameHasTheHeaderFields() {
+		byte[] payload = "привет".getBytes(StandardCharsets.UTF_8);
+
+		byte[] frame = BinaryProtocol.encode(MessageType.DIRECT, -7, Long.MAX_VALUE - 1, payload);
+
+		assertEquals(WireProtocol.HEADER_LENGTH + payload.length, frame.length);
+		assertEquals(MessageType.DIRECT, BinaryProtocol.typeOf(frame[0]));
+		assertEquals(-7, WireProtocol.readInt(frame, 1));
+		assertEquals(Long.MAX_VALUE - 1, WireProtocol.readLong(frame, 5));
+		assertEquals(payload.length, WireProtocol.payloadLength(frame, 0));
+		assertArrayEquals(payload, Arrays.copyOfRange(frame, WireProtocol.HEADER_LENGTH, frame.length));
+	}
+
+	@Test
+	void deflatedFlagKeepsTheType() {
+		byte deflatedChat = (byte) (MessageType.CHAT.code() | WireProtocol.DEFLATED);
+		byte deflatedProtocol = (byte) (MessageType.PROTOCOL.code() | WireProtocol.DEFLATED);
+
+		assertTrue(BinaryProtocol.isDeflated(deflatedChat));
+		assertFalse(BinaryProtocol.isDeflated(MessageType.CHAT.code()));
+		assertEquals(MessageType.CHAT, BinaryProtocol.typeOf(deflatedChat));
+		assertTrue(BinaryProtocol.isProtocol(deflatedProtocol));
+		assertFalse(BinaryProtocol.isProtocol(deflatedChat));
+	}
+
+	@Test
+	void preambleTellsTheFormat() {
+		byte[] pong = WireProtocol.HEARTBEAT_MARKER.getBytes(StandardCharsets.US_ASCII);
+
+		assertEquals(WireFormat.BINARY, BinaryProtocol.preambleFormat(WireProtocol.PREAMBLE, 0));
+		assertEquals(Settings.instance().isCompression() ? WireFormat.DEFLATE : WireFormat.BINARY,
+				BinaryProtocol.preambleFormat(WireProtocol.PREAMBLE_DEFLATE, 0));
+		assertEquals(WireFormat.TEXT, BinaryProtocol.preambleFormat(pong, 0));
+		assertNull(BinaryProtocol.preambleFormat(new byte[] { 0, 'J', 'C', 'B', 9 }, 0));
+	}
+
+	@Test
+	void textFormKeepsTheBodyOnOneLine() {
+		var message = EncodedMessage.of(MessageType.CHAT, 3, 1, "раз\n**5**\r\nдва");
+
+		String text = new String(message.encoded(WireFormat.TEXT), StandardCharsets.UTF_8);
+
+		assertEquals("**3**" + System.lineSeparator() + "раз **5**  два" + System.lineSeparator(), text);
+		assertEquals("раз\n**5**\r\nдва", message.body());
+	}
+}
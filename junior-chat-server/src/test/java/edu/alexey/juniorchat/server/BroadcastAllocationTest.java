@@ -0,0 +1,61 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+// allocation benchmark of the broadcast fan-out over in-memory connections
+class BroadcastAllocationTest {
+
+	private static final int WARMUP = 20_000;
+	private static final int ROUNDS = 2_000;
+
+	@Test
+	void allocatedBytesPerBroadcastStayFlat() throws Exception {
+		long small = bytesPerBroadcast(10);
+		long large = bytesPerBroadcast(1_000);
+
+		assertTrue(large < small * 2 + 1024, "allocation grows with room size: " + small + " -> " + large);
+	}
+
+	@Test
+	void recipientsShareOneEncoding() throws Exception {
+		try (var server = new Server()) {
+			var a = new TestConnection();
+			var b = new TestConnection();
+			server.register(a);
+			server.register(b);
+
+			server.broadcast(null, "hello", 0);
+
+			assertSame(a.last, b.last);
+		}
+	}
+
+	private static long bytesPerBroadcast(int recipients) throws Exception {
+		var threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().threadId();
+
+		try (var server = new Server()) {
+			for (int i = 0; i < recipients; ++i) {
+				server.register(new TestConnection());
+			}
+			for (int i = 0; i < WARMUP; ++i) {
+				server.broadcast(null, "warm-up message", 0);
+			}
+
+			long before = threads.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < ROUNDS; ++i) {
+				server.broadcast(null, "measured message", 0);
+			}
+			long after = threads.getThreadAllocatedBytes(threadId);
+
+			return (after - before) / ROUNDS;
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.common.EventLoop;
+
+class ChannelConnectionTest {
+
+	private static void send(Socket client, String line) throws Exception {
+		OutputStream out = client.getOutputStream();
+		out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	@Test
+	void failingMessageHandlerClosesItsConnectionOnly() throws Exception {
+		try (var serverChannel = ServerSocketChannel.open();
+				var loop = new EventLoop("test-loop")) {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			int port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+			try (var failingClient = new Socket(InetAddress.getLoopbackAddress(), port);
+					var client = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				var failing = new ChannelConnection(serverChannel.accept(), loop, (c, line) -> {
+					throw new IllegalStateException("handler bug");
+				});
+				var closed = new CompletableFuture<Connection>();
+				failing.setCloseListener(closed::complete);
+				BlockingQueue<String> received = new LinkedBlockingQueue<>();
+				var healthy = new ChannelConnection(serverChannel.accept(), loop, (c, line) -> received.add(line));
+				failing.register();
+				healthy.register();
+				loop.start();
+
+				send(failingClient, "boom");
+				assertSame(failing, closed.get(5, TimeUnit.SECONDS));
+				failingClient.setSoTimeout(5000);
+				assertEquals(-1, failingClient.getInputStream().read());
+
+				send(client, "still served");
+				assertEquals("still served", received.poll(5, TimeUnit.SECONDS));
+				healthy.close();
+			}
+		}
+	}
+}
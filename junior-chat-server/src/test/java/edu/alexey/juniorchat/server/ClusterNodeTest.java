@@ -0,0 +1,224 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class ClusterNodeTest {
+
+	private static final int NODE_1_ID = IdFactory.NODE_ID_RANGE + 1;
+	private static final int NODE_2_ID = 2 * IdFactory.NODE_ID_RANGE + 1;
+	private static final String SECRET = "s3cret";
+
+	// what a node was relayed, as "kind target room body"
+	private static class RecordingReceiver implements ClusterNode.Receiver {
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+		@Override
+		public void relayedBroadcast(String room, EncodedMessage message) {
+			received.add("broadcast " + message.senderId() + " " + room + " " + message.body());
+		}
+
+		@Override
+		public void relayedDirect(int recipientId, EncodedMessage message) {
+			received.add("direct " + recipientId + " " + message.senderId() + " " + message.body());
+		}
+
+		@Override
+		public void relayedKick(int id, EncodedMessage notice) {
+			received.add("kick " + id + " " + notice.body());
+		}
+
+		String next() throws InterruptedException {
+			return received.poll(5, TimeUnit.SECONDS);
+		}
+
+		String nextSoon() throws InterruptedException {
+			return received.poll(300, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (var socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	@Test
+	void nodeIsToldById() {
+		var factory = new IdFactory(2);
+
+		assertEquals(NODE_2_ID, factory.getAsInt());
+		assertEquals(2, IdFactory.nodeOf(NODE_2_ID));
+		assertEquals(0, IdFactory.nodeOf(42));
+	}
+
+	@Test
+	void relaysOverLoopback() throws Exception {
+		Map<Integer, InetSocketAddress> nodes = Map.of(
+				1, new InetSocketAddress("127.0.0.1", freePort()),
+				2, new InetSocketAddress("127.0.0.1", freePort()));
+		var first = new RecordingReceiver();
+		var second = new RecordingReceiver();
+
+		try (var node1 = new ClusterNode(1, nodes, SECRET, first);
+				var node2 = new ClusterNode(2, nodes, SECRET, second)) {
+			assertTrue(node1.isLocal(NODE_1_ID));
+			assertFalse(node1.isLocal(NODE_2_ID));
+
+			node1.relayBroadcast(new Room("java"), EncodedMessage.of(MessageType.CHAT, NODE_1_ID, 1, "привет"));
+			assertTrue(node1.relayDirect(NODE_2_ID, EncodedMessage.of(MessageType.DIRECT, NODE_1_ID, 2, "лично")));
+			assertTrue(node2.relayKick(NODE_1_ID, EncodedMessage.of(MessageType.SERVICE, 0, 3, "пока")));
+			assertFalse(node1.relayDirect(3 * IdFactory.NODE_ID_RANGE + 1,
+					EncodedMessage.of(MessageType.DIRECT, NODE_1_ID, 4, "некому")));
+
+			assertEquals("broadcast " + NODE_1_ID + " java привет", second.next());
+			assertEquals("direct " + NODE_2_ID + " " + NODE_1_ID + " лично", second.next());
+			assertEquals("kick " + NODE_1_ID + " пока", first.next());
+		}
+	}
+
+	// the hello of a would-be node; true if the link is answered with a challenge rather than closed
+	private static boolean hello(Socket socket, int nodeId) throws IOException {
+		socket.setSoTimeout(5000);
+		var out = new DataOutputStream(socket.getOutputStream());
+		out.writeInt(ClusterNode.HELLO_MAGIC);
+		out.writeInt(nodeId);
+		out.flush();
+		return socket.getInputStream().readNBytes(16).length == 16;
+	}
+
+	@Test
+	void refusesUnknownNode() throws Exception {
+		var own = new InetSocketAddress("127.0.0.1", freePort());
+		var receiver = new RecordingReceiver();
+		try (var node = new ClusterNode(1, Map.of(1, own, 2, new InetSocketAddress("127.0.0.1", freePort())), SECRET,
+				receiver); var socket = new Socket(own.getAddress(), own.getPort())) {
+
+			assertFalse(hello(socket, 3));
+			assertNull(receiver.nextSoon());
+		}
+	}
+
+	@Test
+	void refusesNodeFromAnotherAddress() throws Exception {
+		var own = new InetSocketAddress("127.0.0.1", freePort());
+		var receiver = new RecordingReceiver();
+		try (var node = new ClusterNode(1, Map.of(1, own, 2, new InetSocketAddress("127.0.0.2", freePort())), SECRET,
+				receiver); var socket = new Socket(own.getAddress(), own.getPort())) {
+
+			assertFalse(hello(socket, 2));
+		}
+	}
+
+	@Test
+	void refusesNodeWithoutTheSecret() throws Exception {
+		var own = new InetSocketAddress("127.0.0.1", freePort());
+		var receiver = new RecordingReceiver();
+		try (var node = new ClusterNode(1, Map.of(1, own, 2, new InetSocketAddress("127.0.0.1", freePort())), SECRET,
+				receiver); var socket = new Socket(own.getAddress(), own.getPort())) {
+
+			assertTrue(hello(socket, 2));
+			socket.getOutputStream().write(new byte[32]);
+			socket.getOutputStream().flush();
+
+			assertEquals(-1, socket.getInputStream().read());
+			assertNull(receiver.nextSoon());
+		}
+	}
+
+	// the messages relayed to the server, passed on to it from the link thread
+	private static class Relay implements ClusterNode.Receiver {
+
+		final Server server;
+		final BlockingQueue<String> relayed = new LinkedBlockingQueue<>();
+
+		Relay(Server server) {
+			this.server = server;
+		}
+
+		@Override
+		public void relayedBroadcast(String room, EncodedMessage message) {
+			server.relayedBroadcast(room, message);
+			relayed.add(message.body());
+		}
+
+		@Override
+		public void relayedDirect(int recipientId, EncodedMessage message) {
+			server.relayedDirect(recipientId, message);
+			relayed.add(message.body());
+		}
+
+		@Override
+		public void relayedKick(int id, EncodedMessage notice) {
+			server.relayedKick(id, notice);
+		}
+
+		// past the notices relayed before it
+		void await(String body) throws InterruptedException {
+			String next;
+			do {
+				next = relayed.poll(5, TimeUnit.SECONDS);
+				assertNotNull(next, body);
+			} while (!next.equals(body));
+		}
+	}
+
+	// the sequence numbers of the two nodes are far apart, a resume on either must go by the numbers of its own
+	@Test
+	void resumeAfterRelayedMessageMissesNothing() throws Exception {
+		Map<Integer, InetSocketAddress> nodes = Map.of(
+				1, new InetSocketAddress("127.0.0.1", freePort()),
+				2, new InetSocketAddress("127.0.0.1", freePort()));
+		try (var first = new Server(); var second = new Server()) {
+			second.useResumableSessions(new ResumableSessions(60_000, 16));
+			var toFirst = new Relay(first);
+			var toSecond = new Relay(second);
+			try (var node1 = new ClusterNode(1, nodes, SECRET, toFirst);
+					var node2 = new ClusterNode(2, nodes, SECRET, toSecond)) {
+				first.useCluster(node1);
+				second.useCluster(node2);
+				var carol = TestConnection.recording();
+				first.register(carol);
+				first.handleMessage(carol, "@join den");
+				for (int i = 0; i < 100; ++i) {
+					first.signMessage(0, "the first node's numbers run ahead");
+				}
+				var alice = TestConnection.recording();
+				var bob = TestConnection.recording();
+				second.register(alice);
+				second.register(bob);
+				second.handleMessage(alice, "@join den");
+				second.handleMessage(bob, "@join den");
+
+				first.handleMessage(carol, "from the first node");
+				toSecond.await("from the first node");
+				assertEquals("from the first node", alice.last.body());
+				int aliceId = alice.getId();
+				String token = alice.token();
+				long lastSequence = alice.last.sequence();
+
+				alice.close();
+				second.handleMessage(bob, "missed on the second node");
+				var again = TestConnection.recording();
+				second.register(again);
+				second.handleMessage(again, "@resume " + aliceId + " " + token + " " + lastSequence);
+
+				assertEquals(aliceId, again.getId());
+				assertEquals(List.of("missed on the second node"), again.replayed());
+			}
+		}
+	}
+}
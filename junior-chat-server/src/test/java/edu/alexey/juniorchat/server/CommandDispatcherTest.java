@@ -0,0 +1,94 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.server.CommandDispatcher.Arity;
+
+class CommandDispatcherTest {
+
+	private CommandDispatcher dispatcher;
+	private String handled;
+	private int argument;
+	private String body;
+
+	@BeforeEach
+	void setUp() {
+		dispatcher = new CommandDispatcher('@')
+				.register("quit", Arity.NONE, (c, line, arg, bodyStart) -> record("quit", line, arg, bodyStart))
+				.register("kick", Arity.NUMBER, (c, line, arg, bodyStart) -> record("kick", line, arg, bodyStart))
+				.register("join", Arity.TEXT, (c, line, arg, bodyStart) -> record("join", line, arg, bodyStart))
+				.register("who", Arity.OPTIONAL_NUMBER, (c, line, arg, bodyStart) -> record("who", line, arg, bodyStart))
+				.registerNumeric((c, line, arg, bodyStart) -> record("direct", line, arg, bodyStart));
+		handled = null;
+	}
+
+	private boolean record(String name, String line, int arg, int bodyStart) {
+		handled = name;
+		argument = arg;
+		body = line.substring(bodyStart);
+		return true;
+	}
+
+	@Test
+	void recognisesCommandsWithSurroundingWhitespace() {
+		assertTrue(dispatcher.dispatch(null, "  @quit \t"));
+		assertEquals("quit", handled);
+
+		assertTrue(dispatcher.dispatch(null, " @kick   42 "));
+		assertEquals("kick", handled);
+		assertEquals(42, argument);
+	}
+
+	@Test
+	void splitsDirectMessageBody() {
+		assertTrue(dispatcher.dispatch(null, "@7  hello there"));
+		assertEquals("direct", handled);
+		assertEquals(7, argument);
+		assertEquals("hello there", body);
+
+		assertTrue(dispatcher.dispatch(null, "@12abc"));
+		assertEquals(12, argument);
+		assertEquals("abc", body);
+	}
+
+	@Test
+	void takesOptionalNumber() {
+		assertTrue(dispatcher.dispatch(null, "@who "));
+		assertEquals("who", handled);
+		assertEquals(0, argument);
+
+		assertTrue(dispatcher.dispatch(null, "@who 1000"));
+		assertEquals(1000, argument);
+
+		handled = null;
+		assertFalse(dispatcher.dispatch(null, "@who all"));
+		assertNull(handled);
+	}
+
+	@Test
+	void passesTextArgument() {
+		assertTrue(dispatcher.dispatch(null, "@join  java room "));
+		assertEquals("join", handled);
+		assertEquals("java room ", body);
+
+		assertFalse(dispatcher.dispatch(null, "@join"));
+		assertFalse(dispatcher.dispatch(null, "@join   "));
+		assertFalse(dispatcher.dispatch(null, "@joinjava"));
+	}
+
+	@Test
+	void leavesPlainMessagesAlone() {
+		assertFalse(dispatcher.dispatch(null, "hello @quit"));
+		assertFalse(dispatcher.dispatch(null, "@quit now"));
+		assertFalse(dispatcher.dispatch(null, "@kick"));
+		assertFalse(dispatcher.dispatch(null, "@kick2"));
+		assertFalse(dispatcher.dispatch(null, "@unknown 5"));
+		assertFalse(dispatcher.dispatch(null, "@99999999999 too big"));
+		assertFalse(dispatcher.dispatch(null, "   "));
+		assertNull(handled);
+	}
+
+}
@@ -0,0 +1,143 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+class ConnectionHandlerTest {
+
+	@Test
+	void dropsClientSendingLineLongerThanFrame() throws Exception {
+		BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+			var handler = new ConnectionHandler(serverSocket.accept(), (connection, line) -> received.add(line));
+			Thread.ofVirtual().start(handler::runWriter);
+			Thread reader = Thread.ofVirtual().start(handler);
+
+			var out = client.getOutputStream();
+			out.write("short\r\n".getBytes(StandardCharsets.UTF_8));
+			out.write("x".repeat(WireProtocol.MAX_PAYLOAD_LENGTH + 1).getBytes(StandardCharsets.UTF_8));
+			out.flush();
+
+			assertEquals("short", received.poll(5, TimeUnit.SECONDS));
+			assertTrue(reader.join(Duration.ofSeconds(5)));
+			assertTrue(handler.isClosed());
+			assertTrue(received.isEmpty());
+		}
+	}
+
+	@Test
+	void switchesToFramesAfterPreamble() throws Exception {
+		BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+			var handler = new ConnectionHandler(serverSocket.accept(), (connection, line) -> received.add(line));
+			Thread.ofVirtual().start(handler::runWriter);
+			Thread.ofVirtual().start(handler);
+
+			var out = new DataOutputStream(client.getOutputStream());
+			out.write(WireProtocol.PREAMBLE);
+			out.write(BinaryProtocol.encode(MessageType.CHAT, 0, 0, "раз\nдва".getBytes(StandardCharsets.UTF_8)));
+			out.flush();
+			assertEquals("раз\nдва", received.poll(5, TimeUnit.SECONDS));
+
+			handler.acceptMessage(EncodedMessage.of(MessageType.CHAT, 5, 9, "ответ"));
+			var in = new DataInputStream(client.getInputStream());
+			byte[] marker = (WireProtocol.SWITCH_MARKER + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+			assertArrayEquals(marker, in.readNBytes(marker.length));
+			byte[] header = in.readNBytes(WireProtocol.HEADER_LENGTH);
+			byte[] payload = "ответ".getBytes(StandardCharsets.UTF_8);
+			assertArrayEquals(BinaryProtocol.encode(MessageType.CHAT, 5, 9, payload),
+					concat(header, in.readNBytes(WireProtocol.payloadLength(header, 0))));
+			handler.close();
+		}
+	}
+
+	@Test
+	void dropsClientSendingFrameLongerThanLimit() throws Exception {
+		BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+			var handler = new ConnectionHandler(serverSocket.accept(), (connection, line) -> received.add(line));
+			Thread.ofVirtual().start(handler::runWriter);
+			Thread reader = Thread.ofVirtual().start(handler);
+
+			byte[] header = BinaryProtocol.encode(MessageType.CHAT, 0, 0, new byte[0]);
+			WireProtocol.writeInt(header, 13, WireProtocol.MAX_PAYLOAD_LENGTH + 1);
+			var out = client.getOutputStream();
+			out.write(WireProtocol.PREAMBLE);
+			out.write(header);
+			out.flush();
+
+			assertTrue(reader.join(Duration.ofSeconds(5)));
+			assertTrue(handler.isClosed());
+			assertTrue(received.isEmpty());
+		}
+	}
+
+	@Test
+	void dropsClientSendingUnknownPreamble() throws Exception {
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+			var handler = new ConnectionHandler(serverSocket.accept(), (connection, line) -> fail(line));
+			Thread.ofVirtual().start(handler::runWriter);
+			Thread reader = Thread.ofVirtual().start(handler);
+
+			client.getOutputStream().write(new byte[] { 0, 'J', 'C', 'B', 9, 'x', '\n' });
+
+			assertTrue(reader.join(Duration.ofSeconds(5)));
+			assertTrue(handler.isClosed());
+		}
+	}
+
+	@Test
+	void closeDoesNotWaitForStalledWriter() throws Exception {
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				var client = new Socket()) {
+			client.setReceiveBufferSize(4096);
+			client.connect(serverSocket.getLocalSocketAddress());
+			Socket accepted = serverSocket.accept();
+			accepted.setSendBufferSize(4096);
+			var handler = new ConnectionHandler(accepted, (connection, line) -> {});
+			Thread.ofVirtual().start(handler::runWriter);
+			Thread.ofVirtual().start(handler);
+			// the client reads nothing, the writer gets stuck in the socket write
+			String body = "x".repeat(WireProtocol.MAX_PAYLOAD_LENGTH / 2);
+			for (int i = 0; i < 64; ++i) {
+				handler.acceptMessage(EncodedMessage.of(MessageType.CHAT, 1, i, body));
+			}
+
+			long start = System.nanoTime();
+			handler.close();
+			long closing = System.nanoTime() - start;
+			handler.awaitClosed();
+			long closed = System.nanoTime() - start;
+
+			assertTrue(handler.isClosed());
+			assertTrue(closing < TimeUnit.MILLISECONDS.toNanos(200), "close() took " + closing + " ns");
+			assertTrue(closed < TimeUnit.SECONDS.toNanos(3), "closed in " + closed + " ns");
+			assertTrue(accepted.isClosed());
+		}
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+}
@@ -0,0 +1,101 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ConnectionRegistryTest {
+
+	@Test
+	void findsByIdUntilRemoved() {
+		var registry = new ConnectionRegistry();
+		var a = new TestConnection();
+		var b = new TestConnection();
+		registry.add(a);
+		registry.add(b);
+
+		assertSame(a, registry.get(a.getId()));
+		assertSame(b, registry.get(b.getId()));
+		assertNull(registry.get(0));
+
+		assertTrue(registry.remove(a));
+		assertFalse(registry.remove(a));
+		assertNull(registry.get(a.getId()));
+		assertSame(b, registry.get(b.getId()));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	void survivesGrowthAndChurn() {
+		var registry = new ConnectionRegistry();
+		List<Connection> live = new ArrayList<>();
+		for (int round = 0; round < 20; ++round) {
+			for (int i = 0; i < 1000; ++i) {
+				var connection = new TestConnection();
+				registry.add(connection);
+				live.add(connection);
+			}
+			// the older half leaves, their slots turn into REMOVED marks
+			for (var connection : live.subList(0, live.size() / 2)) {
+				assertTrue(registry.remove(connection));
+			}
+			live.subList(0, live.size() / 2).clear();
+		}
+
+		assertEquals(live.size(), registry.size());
+		for (var connection : live) {
+			assertSame(connection, registry.get(connection.getId()));
+		}
+		assertEquals(live.size(), registry.snapshot().length);
+	}
+
+	@Test
+	void snapshotFollowsChanges() {
+		var registry = new ConnectionRegistry();
+		var a = new TestConnection();
+		registry.add(a);
+		Connection[] first = registry.snapshot();
+
+		assertSame(first, registry.snapshot());
+		registry.remove(a);
+		assertEquals(0, registry.snapshot().length);
+		assertEquals(1, first.length);
+	}
+
+	@Test
+	void takenIdIsNotReplaced() {
+		var registry = new ConnectionRegistry();
+		var a = new TestConnection();
+		var b = new TestConnection();
+		b.reassignId(a.getId());
+
+		assertTrue(registry.add(a));
+		assertTrue(registry.add(a));
+		assertFalse(registry.add(b));
+		assertSame(a, registry.get(a.getId()));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	void registrationSkipsAnIdStillHeld() throws Exception {
+		try (var server = new Server()) {
+			var alice = TestConnection.recording();
+			var bob = TestConnection.recording();
+			server.register(alice);
+			server.register(bob);
+			// as if the ids had wrapped around while alice stayed connected
+			var late = TestConnection.recording();
+			late.reassignId(alice.getId());
+			server.register(late);
+
+			assertNotEquals(alice.getId(), late.getId());
+			assertEquals(late.getId(), late.messages().get(0).senderId());
+			server.handleMessage(bob, "@" + alice.getId() + " still yours");
+			assertEquals("still yours", alice.last.body());
+		}
+	}
+
+}
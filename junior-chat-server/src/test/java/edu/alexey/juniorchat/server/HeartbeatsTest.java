@@ -0,0 +1,74 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class HeartbeatsTest {
+
+	static class SilentConnection extends Connection {
+		private static final long serialVersionUID = 1L;
+
+		final CountDownLatch pinged = new CountDownLatch(1);
+		final CountDownLatch closed = new CountDownLatch(1);
+
+		SilentConnection() {
+			super("silent", (c, m) -> {});
+		}
+
+		@Override
+		public void acceptMessage(EncodedMessage message) {
+			if (message == EncodedMessage.HEARTBEAT) {
+				pinged.countDown();
+			}
+		}
+
+		@Override
+		public OutboundStats getOutboundStats() {
+			return OutboundStats.EMPTY;
+		}
+
+		@Override
+		protected void closeTransport() {
+			closed.countDown();
+		}
+	}
+
+	@Test
+	void pingsThenClosesSilentConnection() throws InterruptedException {
+		try (var heartbeats = new Heartbeats(100, 100, 10, 16)) {
+			var connection = new SilentConnection();
+			long start = System.nanoTime();
+			heartbeats.watch(connection);
+
+			assertTrue(connection.pinged.await(5, TimeUnit.SECONDS));
+			assertEquals(1, connection.closed.getCount());
+			assertTrue(connection.closed.await(5, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		}
+	}
+
+	@Test
+	void keepsConnectionThatAnswers() throws InterruptedException {
+		try (var heartbeats = new Heartbeats(100, 100, 10, 16)) {
+			var connection = new SilentConnection() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void acceptMessage(EncodedMessage message) {
+					super.acceptMessage(message);
+					markRead();
+				}
+			};
+			heartbeats.watch(connection);
+
+			assertTrue(connection.pinged.await(5, TimeUnit.SECONDS));
+			assertFalse(connection.closed.await(500, TimeUnit.MILLISECONDS));
+			heartbeats.unwatch(connection);
+		}
+	}
+
+}
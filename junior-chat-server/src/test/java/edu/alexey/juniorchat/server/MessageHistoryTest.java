@@ -0,0 +1,81 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class MessageHistoryTest {
+
+	private static EncodedMessage message(int n) {
+		return EncodedMessage.of(MessageType.CHAT, 1, n, "message " + n);
+	}
+
+	private static String[] bodies(EncodedMessage[] messages) {
+		String[] result = new String[messages.length];
+		for (int i = 0; i < messages.length; ++i) {
+			result[i] = messages[i].body();
+		}
+		return result;
+	}
+
+	@Test
+	void keepsLastMessagesOldestFirst() {
+		var history = new MessageHistory(3, Long.MAX_VALUE);
+		for (int n = 1; n <= 5; ++n) {
+			history.append(message(n));
+		}
+
+		assertEquals(3, history.size());
+		assertArrayEquals(new String[] { "message 3", "message 4", "message 5" },
+				bodies(history.last(10, 0, TimeUnit.SECONDS)));
+		assertArrayEquals(new String[] { "message 4", "message 5" },
+				bodies(history.last(2, 0, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	void evictsByBytes() {
+		int footprint = MessageHistory.footprint(message(1));
+		var history = new MessageHistory(100, 2L * footprint);
+		for (int n = 1; n <= 5; ++n) {
+			history.append(message(n));
+		}
+
+		assertEquals(2, history.size());
+		assertEquals(2L * footprint, history.bytes());
+
+		history.clear();
+		assertEquals(0, history.size());
+		assertEquals(0, history.bytes());
+	}
+
+	@Test
+	void skipsMessagesOlderThanMaxAge() throws InterruptedException {
+		var history = new MessageHistory(10, Long.MAX_VALUE);
+		history.append(message(1));
+		Thread.sleep(30);
+		history.append(message(2));
+
+		assertArrayEquals(new String[] { "message 2" }, bodies(history.last(10, 20, TimeUnit.MILLISECONDS)));
+	}
+
+	@Test
+	void joiningRoomQueuesReplay() throws Exception {
+		try (var server = new Server()) {
+			var sender = new TestConnection();
+			var newcomer = new TestConnection();
+			server.register(sender);
+			server.handleMessage(sender, "@join history");
+			server.handleMessage(sender, "first");
+			server.handleMessage(sender, "second");
+			server.register(newcomer);
+
+			server.handleMessage(newcomer, "@join history");
+
+			assertSame(EncodedMessage.REPLAY, newcomer.last);
+			assertArrayEquals(new String[] { "first", "second" }, bodies(newcomer.takeReplay()));
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+class MessageLogTest {
+
+	private static final int SEGMENT_BYTES = 1024 * 1024;
+
+	@TempDir
+	Path directory;
+
+	private static EncodedMessage message(long sequence, String body) {
+		return EncodedMessage.of(MessageType.CHAT, 7, sequence, body);
+	}
+
+	private static List<MessageLog.Entry> replay(MessageLog log, long from) {
+		var entries = new ArrayList<MessageLog.Entry>();
+		log.replay(from, entries::add);
+		return entries;
+	}
+
+	@Test
+	void replaysFromSequence() throws IOException {
+		var room = new Room("java");
+		try (var log = MessageLog.open(directory, SEGMENT_BYTES, 2, 10)) {
+			for (int n = 1; n <= 100; ++n) {
+				log.append(message(n, "message " + n), room, 0);
+			}
+			log.append(EncodedMessage.of(MessageType.DIRECT, 7, 101, "direct"), null, 3);
+
+			List<MessageLog.Entry> entries = replay(log, 98);
+
+			assertEquals(4, entries.size());
+			assertEquals(new MessageLog.Entry(98, entries.get(0).timestamp(), MessageType.CHAT, 7, 0, "java",
+					"message 98"), entries.get(0));
+			assertEquals(3, entries.get(3).recipientId());
+			assertNull(entries.get(3).room());
+			assertEquals(101, log.lastSequence());
+		}
+	}
+
+	@Test
+	void recoversAfterReopen() throws IOException {
+		var room = new Room("lobby");
+		try (var log = MessageLog.open(directory, SEGMENT_BYTES, 2, 10)) {
+			log.append(message(1, "before"), room, 0);
+		}
+		try (var log = MessageLog.open(directory, SEGMENT_BYTES, 2, 10)) {
+			assertEquals(1, log.lastSequence());
+			log.append(message(2, "after"), room, 0);
+
+			assertEquals(List.of("before", "after"), replay(log, 1).stream().map(MessageLog.Entry::body).toList());
+		}
+	}
+
+	@Test
+	void rollsSegmentsAndDropsOldest() throws IOException {
+		var room = new Room("lobby");
+		String body = "x".repeat(1000);
+		try (var log = MessageLog.open(directory, SEGMENT_BYTES, 2, 10)) {
+			// about 3 segments worth
+			for (int n = 1; n <= 3 * SEGMENT_BYTES / 1000; ++n) {
+				log.append(message(n, body), room, 0);
+			}
+
+			try (Stream<Path> files = Files.list(directory)) {
+				assertEquals(2, files.count());
+			}
+			List<MessageLog.Entry> entries = replay(log, 1);
+			assertTrue(entries.size() < 2 * SEGMENT_BYTES / 1000);
+			assertEquals(3 * SEGMENT_BYTES / 1000, entries.get(entries.size() - 1).sequence());
+		}
+	}
+
+	@Test
+	void ignoresDamagedTail() throws IOException {
+		var room = new Room("lobby");
+		try (var log = MessageLog.open(directory, SEGMENT_BYTES, 2, 10)) {
+			log.append(message(1, "intact"), room, 0);
+			log.append(message(2, "damaged"), room, 0);
+		}
+		Path segment;
+		try (Stream<Path> files = Files.list(directory)) {
+			segment = files.findFirst().orElseThrow();
+		}
+		byte[] content = Files.readAllBytes(segment);
+		int second = WireProtocol.readInt(content, 0);
+		content[second + 30] ^= 1;
+		Files.write(segment, content);
+
+		try (var log = MessageLog.open(directory, SEGMENT_BYTES, 2, 10)) {
+			assertEquals(List.of("intact"), replay(log, 1).stream().map(MessageLog.Entry::body).toList());
+			assertEquals(1, log.lastSequence());
+		}
+	}
+
+	@Test
+	void skipsRecordLargerThanSegment() throws IOException {
+		var room = new Room("lobby");
+		try (var log = MessageLog.open(directory, SEGMENT_BYTES, 2, 10)) {
+			log.append(message(1, "before"), room, 0);
+			log.append(message(2, "x".repeat(SEGMENT_BYTES)), room, 0);
+			log.append(message(3, "after"), room, 0);
+
+			assertEquals(List.of("before", "after"), replay(log, 1).stream().map(MessageLog.Entry::body).toList());
+			try (Stream<Path> files = Files.list(directory)) {
+				assertEquals(1, files.count());
+			}
+		}
+	}
+}
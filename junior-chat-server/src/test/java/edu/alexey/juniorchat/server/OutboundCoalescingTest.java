@@ -0,0 +1,108 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.common.EventLoop;
+
+// messages queued while the writer is busy go out together, in the order queued
+class OutboundCoalescingTest {
+
+	private static final int MESSAGES = 50;
+
+	@Test
+	void blockingWriterSendsQueuedMessagesInOneWrite() throws Exception {
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+			var handler = new ConnectionHandler(serverSocket.accept(), (connection, line) -> {});
+			for (int i = 0; i < MESSAGES; ++i) {
+				handler.acceptMessage(EncodedMessage.of(MessageType.CHAT, 1, i, "message " + i));
+			}
+
+			Thread.ofVirtual().start(handler::runWriter);
+
+			assertReceivedInOrder(client, MESSAGES, "message ");
+			var stats = awaitWritten(handler, MESSAGES);
+			assertEquals(1, stats.writeCalls());
+			handler.close();
+		}
+	}
+
+	@Test
+	void batchesSplitByTheByteBudgetKeepTheOrder() throws Exception {
+		int messages = 100;
+		String padding = "x".repeat(1000);
+		try (var serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+				var client = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+			var handler = new ConnectionHandler(serverSocket.accept(), (connection, line) -> {});
+			for (int i = 0; i < messages; ++i) {
+				handler.acceptMessage(EncodedMessage.of(MessageType.CHAT, 1, i, padding + i));
+			}
+
+			Thread.ofVirtual().start(handler::runWriter);
+
+			assertReceivedInOrder(client, messages, padding);
+			var stats = awaitWritten(handler, messages);
+			int budget = Settings.instance().getOutboundCoalesceBytes();
+			assertTrue(stats.writeCalls() > 1 && stats.writeCalls() <= messages * 1010L / budget + 1,
+					"write calls: " + stats.writeCalls());
+			handler.close();
+		}
+	}
+
+	@Test
+	void eventLoopSendsQueuedMessagesInOneGatheringWrite() throws Exception {
+		try (var serverChannel = ServerSocketChannel.open();
+				var loop = new EventLoop("test-loop")) {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try (var client = new Socket(InetAddress.getLoopbackAddress(),
+					((InetSocketAddress) serverChannel.getLocalAddress()).getPort())) {
+				var connection = new ChannelConnection(serverChannel.accept(), loop, (c, line) -> {});
+				// the loop is not running yet, everything below waits for its first flush
+				connection.register();
+				for (int i = 0; i < MESSAGES; ++i) {
+					connection.acceptMessage(EncodedMessage.of(MessageType.CHAT, 1, i, "message " + i));
+				}
+
+				loop.start();
+
+				assertReceivedInOrder(client, MESSAGES, "message ");
+				var stats = awaitWritten(connection, MESSAGES);
+				assertEquals(1, stats.writeCalls());
+				connection.close();
+			}
+		}
+	}
+
+	private static void assertReceivedInOrder(Socket client, int messages, String prefix) throws IOException {
+		client.setSoTimeout(5000);
+		var in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+		for (int i = 0; i < messages; ++i) {
+			assertEquals("**1**", in.readLine());
+			assertEquals(prefix + i, in.readLine());
+		}
+	}
+
+	// the stats are taken after the write has returned
+	private static OutboundStats awaitWritten(Connection connection, int messages) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		OutboundStats stats;
+		while ((stats = connection.getOutboundStats()).written() < messages && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(messages, stats.written());
+		return stats;
+	}
+}
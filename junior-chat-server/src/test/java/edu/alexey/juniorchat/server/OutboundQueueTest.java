@@ -0,0 +1,39 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class OutboundQueueTest {
+
+	@Test
+	void dropOldestKeepsNewest() {
+		var queue = new OutboundQueue<String>(2, OverflowPolicy.DROP_OLDEST, 0);
+		assertTrue(queue.offer("a", true));
+		assertTrue(queue.offer("b", true));
+		assertTrue(queue.offer("c", true));
+
+		assertEquals("b", queue.poll());
+		assertEquals("c", queue.poll());
+		assertEquals(new OutboundStats(0, 2, 2, 3, 1, 0, 0, 0), queue.stats());
+	}
+
+	@Test
+	void disconnectRejectsOnOverflow() {
+		var queue = new OutboundQueue<String>(1, OverflowPolicy.DISCONNECT, 0);
+		assertTrue(queue.offer("a", true));
+		assertFalse(queue.offer("b", true));
+		assertEquals(1, queue.stats().dropped());
+	}
+
+	@Test
+	void blockGivesUpAfterTimeout() {
+		var queue = new OutboundQueue<String>(1, OverflowPolicy.BLOCK, 20);
+		assertTrue(queue.offer("a", true));
+		long start = System.nanoTime();
+		assertFalse(queue.offer("b", true));
+		assertTrue(System.nanoTime() - start >= 20_000_000L);
+		assertFalse(queue.offer("c", false));
+	}
+
+}
@@ -0,0 +1,65 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+class PayloadCompressionTest {
+
+	private static final String LARGE = "Большой вставленный кусок текста, который повторяется. ".repeat(40);
+
+	@Test
+	void deflatedFrameInflatesBack() throws DataFormatException {
+		byte[] frame = BinaryProtocol.encode(MessageType.CHAT, 7, 42, LARGE.getBytes(StandardCharsets.UTF_8));
+
+		byte[] deflated = PayloadCompression.deflateFrame(frame);
+
+		assertTrue(deflated.length < frame.length / 4);
+		assertTrue(BinaryProtocol.isDeflated(deflated[0]));
+		assertEquals(MessageType.CHAT, BinaryProtocol.typeOf(deflated[0]));
+		assertArrayEquals(Arrays.copyOfRange(frame, 1, 13), Arrays.copyOfRange(deflated, 1, 13));
+		byte[] payload = PayloadCompression.inflate(deflated, WireProtocol.HEADER_LENGTH,
+				WireProtocol.payloadLength(deflated, 0));
+		assertEquals(LARGE, new String(payload, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void incompressibleFrameStaysAsIs() {
+		byte[] noise = new byte[1000];
+		new java.util.Random(1).nextBytes(noise);
+		byte[] frame = BinaryProtocol.encode(MessageType.CHAT, 7, 42, noise);
+
+		assertSame(frame, PayloadCompression.deflateFrame(frame));
+	}
+
+	@Test
+	void recipientsShareOneDeflatedEncoding() {
+		var large = EncodedMessage.of(MessageType.CHAT, 7, 1, LARGE);
+		var small = EncodedMessage.of(MessageType.CHAT, 7, 2, "коротко");
+
+		assertSame(large.encoded(WireFormat.DEFLATE), large.encoded(WireFormat.DEFLATE));
+		assertTrue(large.length(WireFormat.DEFLATE) < large.length(WireFormat.BINARY));
+		assertSame(small.encoded(WireFormat.BINARY), small.encoded(WireFormat.DEFLATE));
+	}
+
+	@Test
+	void refusesToInflateBeyondMaxPayload() {
+		byte[] zeros = new byte[WireProtocol.MAX_PAYLOAD_LENGTH + 1];
+		var deflater = new Deflater();
+		deflater.setInput(zeros);
+		deflater.finish();
+		byte[] bomb = new byte[1024];
+		int length = deflater.deflate(bomb);
+		deflater.end();
+
+		assertThrows(DataFormatException.class, () -> PayloadCompression.inflate(bomb, 0, length));
+	}
+
+}
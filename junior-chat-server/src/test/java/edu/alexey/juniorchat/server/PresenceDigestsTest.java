@@ -0,0 +1,87 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import edu.alexey.juniorchat.common.WireProtocol;
+
+class PresenceDigestsTest {
+
+	@Test
+	void joinsAndLeavesComeAsOneDigestPerRoom() throws Exception {
+		try (var server = new Server()) {
+			// never fires by itself during the test
+			var digests = new PresenceDigests(60_000, server::presenceDigest);
+			server.usePresenceDigests(digests);
+			var members = new ArrayList<TestConnection>();
+			for (int i = 0; i < 4; ++i) {
+				var connection = TestConnection.recording();
+				server.register(connection);
+				server.handleMessage(connection, "@join den");
+				members.add(connection);
+			}
+			server.handleMessage(members.get(3), "@leave");
+			var first = members.get(0);
+			assertTrue(first.bodies().stream().noneMatch(body -> body != null && body.contains("вошёл")));
+
+			digests.flush();
+
+			assertEquals("Участники: +4 вошло, -1 вышло.", first.last.body());
+			var last = members.get(3);
+			assertEquals("Участники: +1 вошло, -4 вышло.", last.last.body());
+
+			long count = first.received;
+			digests.flush();
+			assertEquals(count, first.received);
+		}
+	}
+
+	@Test
+	void rosterListsTheRoom() throws Exception {
+		try (var server = new Server()) {
+			var alice = TestConnection.recording();
+			var bob = TestConnection.recording();
+			var carol = TestConnection.recording();
+			server.register(alice);
+			server.register(bob);
+			server.register(carol);
+			server.handleMessage(alice, "@join den");
+			server.handleMessage(bob, "@join den");
+
+			server.handleMessage(alice, "@who");
+
+			assertEquals("Участники комнаты «den» (2): №" + alice.getId() + " №" + bob.getId(),
+					alice.last.body());
+		}
+	}
+
+	@Test
+	void rosterOfLargeRoomComesInPages() throws Exception {
+		try (var server = new Server()) {
+			var alice = TestConnection.recording();
+			server.register(alice);
+			int size = 2 * Server.WHO_PAGE_SIZE + 500;
+			for (int i = 1; i < size; ++i) {
+				server.register(TestConnection.recording());
+			}
+
+			server.handleMessage(alice, "@who");
+			String first = alice.last.body();
+			server.handleMessage(alice, "@who " + 2 * Server.WHO_PAGE_SIZE);
+			String last = alice.last.body();
+
+			assertTrue(first.startsWith("Участники комнаты «lobby» (" + size + "), с 1 по " + Server.WHO_PAGE_SIZE
+					+ ": №" + alice.getId() + " "), first);
+			assertTrue(first.endsWith(". Дальше: @who " + Server.WHO_PAGE_SIZE), first);
+			assertEquals(Server.WHO_PAGE_SIZE, first.chars().filter(c -> c == '№').count());
+			assertTrue(first.getBytes(Settings.instance().getCharset()).length < WireProtocol.MAX_PAYLOAD_LENGTH);
+			assertTrue(last.startsWith("Участники комнаты «lobby» (" + size + "), с " + (2 * Server.WHO_PAGE_SIZE + 1)
+					+ " по " + size + ":"), last);
+			assertEquals(500, last.chars().filter(c -> c == '№').count());
+			assertFalse(last.contains("Дальше"));
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	void bucketPausesForItsDebt() {
+		long now = 0;
+		var bucket = new RateLimiter.TokenBucket(10, 1, now);
+
+		for (int i = 0; i < 10; ++i) {
+			assertEquals(0, bucket.take(1, now));
+		}
+		assertEquals(SECOND / 10, bucket.take(1, now));
+		// paid off by the pause, then refilled at the rate
+		assertEquals(0, bucket.take(1, now + SECOND / 10 + SECOND / 10));
+	}
+
+	@Test
+	void limitsBroadcastsAndDirectsSeparately() {
+		long now = System.nanoTime();
+		var limiter = new RateLimiter(2, 0, 1, 0, 1, 0);
+
+		assertEquals(0, limiter.acquire(false, 10, now));
+		assertEquals(0, limiter.acquire(false, 10, now));
+		assertEquals(0, limiter.acquire(true, 10, now));
+		assertTrue(limiter.acquire(false, 10, now) > 0);
+		assertTrue(limiter.acquire(true, 10, now) > 0);
+	}
+
+	@Test
+	void limitsBytes() {
+		long now = System.nanoTime();
+		var limiter = new RateLimiter(0, 100, 0, 0, 1, 0);
+
+		assertEquals(0, limiter.acquire(false, 100, now));
+		assertEquals(SECOND / 2, limiter.acquire(false, 50, now), 1);
+	}
+
+	@Test
+	void disconnectsWhenOutOfStrikes() {
+		long now = System.nanoTime();
+		var limiter = new RateLimiter(1, 0, 0, 0, 1, 3);
+
+		assertEquals(0, limiter.acquire(false, 1, now));
+		for (int i = 0; i < 3; ++i) {
+			assertTrue(limiter.acquire(false, 1, now) > 0);
+		}
+		assertEquals(RateLimiter.DISCONNECT, limiter.acquire(false, 1, now));
+	}
+
+}
@@ -0,0 +1,133 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ResumableSessionsTest {
+
+	@Test
+	void resumedSessionKeepsIdAndGetsWhatItMissed() throws Exception {
+		try (var server = new Server()) {
+			server.useResumableSessions(new ResumableSessions(60_000, 16));
+			var alice = TestConnection.recording();
+			var bob = TestConnection.recording();
+			server.register(alice);
+			server.register(bob);
+			server.handleMessage(alice, "@join den");
+			server.handleMessage(bob, "@join den");
+			server.handleMessage(bob, "seen");
+			int aliceId = alice.getId();
+			String token = alice.token();
+			long lastSequence = alice.last.sequence();
+
+			alice.close();
+			server.handleMessage(bob, "missed in the history");
+			server.handleMessage(bob, "@" + aliceId + " missed direct");
+
+			var again = TestConnection.recording();
+			server.register(again);
+			server.handleMessage(again, "@resume " + aliceId + " " + token + " " + lastSequence);
+
+			assertEquals(aliceId, again.getId());
+			assertEquals("den", again.getRoom().getName());
+			assertEquals(List.of("missed in the history", "missed direct"), again.replayed());
+
+			server.handleMessage(bob, "live");
+			assertEquals("live", again.last.body());
+			server.handleMessage(bob, "@" + aliceId + " live direct");
+			assertEquals("live direct", again.last.body());
+		}
+	}
+
+	@Test
+	void resumeBalancesTheInterimJoin() throws Exception {
+		try (var server = new Server()) {
+			server.useResumableSessions(new ResumableSessions(60_000, 16));
+			// never fires by itself during the test
+			var digests = new PresenceDigests(60_000, server::presenceDigest);
+			server.usePresenceDigests(digests);
+			var alice = TestConnection.recording();
+			var bob = TestConnection.recording();
+			server.register(alice);
+			server.register(bob);
+			int aliceId = alice.getId();
+			String token = alice.token();
+			long lastSequence = alice.last.sequence();
+			alice.close();
+
+			var again = TestConnection.recording();
+			server.register(again);
+			server.welcome(again);
+			server.handleMessage(again, "@resume " + aliceId + " " + token + " " + lastSequence);
+			digests.flush();
+
+			assertEquals(aliceId, again.getId());
+			assertEquals("Участники: +1 вошло, -1 вышло.", bob.last.body());
+		}
+	}
+
+	@Test
+	void wrongTokenLeavesTheNewId() throws Exception {
+		try (var server = new Server()) {
+			server.useResumableSessions(new ResumableSessions(60_000, 16));
+			var alice = TestConnection.recording();
+			server.register(alice);
+			int aliceId = alice.getId();
+			alice.close();
+
+			var again = TestConnection.recording();
+			server.register(again);
+			int newId = again.getId();
+			server.handleMessage(again, "@resume " + aliceId + " 1234abcd 0");
+
+			assertEquals(newId, again.getId());
+			assertEquals(MessageType.PROTOCOL, again.messages().get(again.messages().size() - 2).type());
+			assertEquals(newId, again.messages().get(again.messages().size() - 2).senderId());
+		}
+	}
+
+	@Test
+	void quitSessionIsNotResumed() throws Exception {
+		try (var server = new Server()) {
+			server.useResumableSessions(new ResumableSessions(60_000, 16));
+			var alice = TestConnection.recording();
+			server.register(alice);
+			int aliceId = alice.getId();
+			String token = alice.token();
+			server.handleMessage(alice, "@quit");
+
+			var again = TestConnection.recording();
+			server.register(again);
+			server.handleMessage(again, "@resume " + aliceId + " " + token + " 0");
+
+			assertNotEquals(aliceId, again.getId());
+		}
+	}
+
+	@Test
+	void sessionFallenTooFarBehindExpires() throws Exception {
+		try (var server = new Server()) {
+			server.useResumableSessions(new ResumableSessions(60_000, 2));
+			var alice = TestConnection.recording();
+			var bob = TestConnection.recording();
+			server.register(alice);
+			server.register(bob);
+			int aliceId = alice.getId();
+			String token = alice.token();
+			alice.close();
+			for (int i = 0; i < 3; ++i) {
+				server.handleMessage(bob, "message " + i);
+			}
+
+			var again = TestConnection.recording();
+			server.register(again);
+			server.handleMessage(again, "@resume " + aliceId + " " + token + " 0");
+
+			assertNotEquals(aliceId, again.getId());
+			assertTrue(again.bodies().stream().noneMatch(body -> body != null && body.startsWith("message")));
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class RoomRegistryTest {
+
+	@Test
+	void joinMovesBetweenRooms() {
+		var registry = new RoomRegistry("lobby");
+		var a = new TestConnection();
+		var b = new TestConnection();
+		registry.join(a, "lobby");
+		registry.join(b, "lobby");
+
+		Room java = registry.join(a, "java");
+
+		assertSame(java, a.getRoom());
+		assertSame(java, registry.find("java"));
+		assertArrayEquals(new Connection[] { b }, registry.lobby().members());
+		assertArrayEquals(new Connection[] { a }, java.members());
+	}
+
+	@Test
+	void emptyRoomsAreRemovedButLobbyStays() {
+		var registry = new RoomRegistry("lobby");
+		var a = new TestConnection();
+		registry.join(a, "java");
+		registry.join(a, "lobby");
+
+		assertNull(registry.find("java"));
+		assertEquals(1, registry.rooms().size());
+
+		registry.leave(a);
+
+		assertNull(a.getRoom());
+		assertSame(registry.lobby(), registry.find("lobby"));
+		assertEquals(0, registry.lobby().size());
+	}
+
+	@Test
+	void broadcastReachesSenderRoomOnly() throws Exception {
+		try (var server = new Server()) {
+			var sender = new TestConnection();
+			var roommate = new TestConnection();
+			var outsider = new TestConnection();
+			server.register(sender);
+			server.register(roommate);
+			server.register(outsider);
+			server.handleMessage(sender, "@join java");
+			server.handleMessage(roommate, "@join java");
+			long before = outsider.received;
+
+			server.handleMessage(sender, "hello");
+
+			assertEquals("hello", roommate.last.body());
+			assertEquals(before, outsider.received);
+		}
+	}
+
+}
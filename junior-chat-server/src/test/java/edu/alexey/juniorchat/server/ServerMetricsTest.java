@@ -0,0 +1,92 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+// the metrics are a singleton shared with the other tests, hence the deltas
+class ServerMetricsTest {
+
+	private final ServerMetrics metrics = ServerMetrics.instance();
+
+	@Test
+	void countsConnectionsAndTraffic() {
+		long active = metrics.getConnectionsActive();
+		long messagesOut = metrics.getMessagesOut();
+		long bytesOut = metrics.getBytesOut();
+		long bytesIn = metrics.getBytesIn();
+
+		metrics.connectionAccepted();
+		metrics.connectionAccepted();
+		metrics.connectionClosed();
+		metrics.batchWritten(3, 1, 120, 5_000, 0);
+		metrics.bytesReceived(40);
+
+		assertEquals(active + 1, metrics.getConnectionsActive());
+		assertEquals(messagesOut + 3, metrics.getMessagesOut());
+		assertEquals(bytesOut + 120, metrics.getBytesOut());
+		assertEquals(bytesIn + 40, metrics.getBytesIn());
+	}
+
+	@Test
+	void broadcastsRecordFanout() {
+		long broadcasts = metrics.getBroadcasts();
+		for (int i = 0; i < 100; ++i) {
+			metrics.broadcast(1000, 2_000_000);
+		}
+
+		assertEquals(broadcasts + 100, metrics.getBroadcasts());
+		assertEquals(1000, metrics.getBroadcastFanoutMax(), 1000 / 128);
+		assertTrue(metrics.getBroadcastMicrosMax() >= 2000);
+	}
+
+	@Test
+	void coalescingIsReportedAsWriteCallsSaved() {
+		long calls = metrics.getWriteCalls();
+		long saved = metrics.getWriteCallsSaved();
+
+		metrics.batchWritten(10, 1, 1000, 5_000, 2_000_000);
+		metrics.batchWritten(4, 2, 400, 5_000, 0);
+
+		assertEquals(calls + 3, metrics.getWriteCalls());
+		assertEquals(saved + 11, metrics.getWriteCallsSaved());
+		assertTrue(metrics.scrape().contains("# TYPE juniorchat_write_calls_saved_total counter\n"));
+	}
+
+	@Test
+	void outboundQueuesAreGauged() throws Exception {
+		try (var server = new Server()) {
+			var slow = new TestConnection() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public OutboundStats getOutboundStats() {
+					return new OutboundStats(7, 1024, 900, 1000, 3, 990, 100, 0);
+				}
+			};
+			server.register(slow);
+			metrics.useOutboundStats(server::getOutboundStats);
+
+			assertEquals(7, metrics.getOutboundQueueDepth());
+			assertEquals(900, metrics.getOutboundQueueHighWaterMark());
+			assertEquals(3, metrics.getOutboundDropped());
+			assertTrue(metrics.scrape().contains("\njuniorchat_outbound_queue_depth 7\n"));
+		} finally {
+			metrics.useOutboundStats(() -> OutboundStats.EMPTY);
+		}
+	}
+
+	@Test
+	void scrapeIsPlainText() {
+		metrics.messageReceived();
+		String text = metrics.scrape();
+
+		assertTrue(text.contains("# TYPE juniorchat_messages_in_total counter\n"));
+		assertTrue(text.contains("juniorchat_broadcast_fanout{quantile=\"0.99\"} "));
+		assertTrue(text.contains("juniorchat_write_duration_seconds_count "));
+		for (String line : text.split("\n")) {
+			assertTrue(line.startsWith("# ") || line.matches("[a-z_]+(\\{quantile=\"[0-9.]+\"\\})? [0-9.e+-]+"), line);
+		}
+	}
+
+}
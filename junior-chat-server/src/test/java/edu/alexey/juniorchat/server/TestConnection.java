@@ -0,0 +1,65 @@
+package edu.alexey.juniorchat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Connection without a socket for the tests: keeps the last message it was given and
+// the count of them, allocation-free; a recording one keeps every message as well.
+class TestConnection extends Connection {
+
+	private static final long serialVersionUID = 1L;
+
+	EncodedMessage last;
+	long received;
+	// null unless recording
+	private final List<EncodedMessage> messages;
+
+	TestConnection() {
+		this(false);
+	}
+
+	private TestConnection(boolean isRecording) {
+		super("test", (connection, message) -> {});
+		this.messages = isRecording ? new ArrayList<>() : null;
+	}
+
+	static TestConnection recording() {
+		return new TestConnection(true);
+	}
+
+	@Override
+	public void acceptMessage(EncodedMessage message) {
+		last = message;
+		++received;
+		if (messages != null) {
+			messages.add(message);
+		}
+	}
+
+	@Override
+	public OutboundStats getOutboundStats() {
+		return OutboundStats.EMPTY;
+	}
+
+	@Override
+	protected void closeTransport() {
+	}
+
+	List<EncodedMessage> messages() {
+		return messages;
+	}
+
+	List<String> bodies() {
+		return messages.stream().map(EncodedMessage::body).toList();
+	}
+
+	// as the id assignment carries it
+	String token() {
+		return Long.toHexString(getResumeToken());
+	}
+
+	List<String> replayed() {
+		return Arrays.stream(takeReplay()).map(EncodedMessage::body).toList();
+	}
+}
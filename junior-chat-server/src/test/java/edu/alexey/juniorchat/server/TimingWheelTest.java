@@ -0,0 +1,46 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+	@Test
+	void firesNoEarlierThanTheDelay() throws InterruptedException {
+		try (var wheel = new TimingWheel("test-wheel", 10, TimeUnit.MILLISECONDS, 8)) {
+			var fired = new CountDownLatch(1);
+			long start = System.nanoTime();
+			// three turns of the wheel and a bit
+			wheel.schedule(fired::countDown, 250, TimeUnit.MILLISECONDS);
+
+			assertTrue(fired.await(5, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+		}
+	}
+
+	@Test
+	void cancelledNeverFire() throws InterruptedException {
+		try (var wheel = new TimingWheel("test-wheel", 1, TimeUnit.MILLISECONDS, 64)) {
+			var fired = new AtomicInteger();
+			var last = new CountDownLatch(1);
+			for (int i = 0; i < 100_000; ++i) {
+				// far enough for the wheel not to expire one before it is cancelled, on a busy machine too
+				var timeout = wheel.schedule(fired::incrementAndGet, 200 + i % 100, TimeUnit.MILLISECONDS);
+				if (i % 2 == 1) {
+					assertTrue(timeout.cancel());
+					assertTrue(timeout.isCancelled());
+				}
+			}
+			wheel.schedule(last::countDown, 400, TimeUnit.MILLISECONDS);
+
+			assertTrue(last.await(5, TimeUnit.SECONDS));
+			assertEquals(50_000, fired.get());
+		}
+	}
+
+}
@@ -0,0 +1,43 @@
+package edu.alexey.juniorchat.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class WindowedHistogramTest {
+
+	@Test
+	void spikeIsNotBuriedByHistory() {
+		var histogram = new WindowedHistogram(3);
+		for (int i = 0; i < 100_000; ++i) {
+			histogram.record(10);
+		}
+		for (int slice = 0; slice < 3; ++slice) {
+			histogram.rotate();
+		}
+		for (int i = 0; i < 100; ++i) {
+			histogram.record(5000);
+		}
+
+		assertEquals(5000, histogram.window().percentile(99), 5000 / 128);
+		assertEquals(100_100, histogram.count());
+		assertEquals(100_000 * 10 + 100 * 5000, histogram.sum());
+	}
+
+	@Test
+	void windowSpansTheSlices() {
+		var histogram = new WindowedHistogram(3);
+		histogram.record(1);
+		histogram.rotate();
+		histogram.record(2);
+		histogram.rotate();
+		histogram.record(3);
+
+		assertEquals(3, histogram.window().count());
+		assertEquals(1, histogram.window().min());
+
+		histogram.rotate();
+		assertEquals(2, histogram.window().count());
+		assertEquals(2, histogram.window().min());
+	}
+}